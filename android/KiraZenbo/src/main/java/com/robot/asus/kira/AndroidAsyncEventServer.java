@@ -7,87 +7,583 @@ import com.koushikdutta.async.http.WebSocket;
 import com.koushikdutta.async.http.server.AsyncHttpServer;
 import com.koushikdutta.async.http.server.AsyncHttpServerRequest;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.util.Collections;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Set;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Simple WebSocket-based event server using AndroidAsync.
  * Exposes a single endpoint:
  *   ws://<host>:<port>/events
+ * either on its own port ({@link #start(int)}) or mounted on an existing
+ * AsyncHttpServer such as the HTTP API's ({@link #attach(AsyncHttpServer)}).
+ *
+ * Every client gets its own bounded send queue (see {@link EventClient}), so a
+ * slow client only ever delays itself. Per-client queue statistics are
+ * available at http://<host>:<port>/events/clients.
+ *
+ * Clients receive every event unless they subscribe to specific types, either
+ * with {@code /events?types=onSpeakComplete,onTracking*} or by sending
+ * {@code {"op":"subscribe"|"unsubscribe"|"set","types":[...]}} frames. Events
+ * nobody is subscribed to are never serialized.
+ *
+ * High-rate vision events pass through an {@link EventCoalescer} that keeps only
+ * the latest value per stream and flushes it at {@link #DEFAULT_VISION_RATE_HZ}.
+ * Coalescing counters are served at http://<host>:<port>/events/stats.
+ *
+ * Every broadcast frame carries a monotonic {@code seq}, the {@code epoch} that
+ * numbering belongs to (it starts again at 1 with every new epoch, e.g. after
+ * a restart) and the server time {@code ts}. Discrete events (everything that is neither coalesced nor
+ * droppable) are also kept in an {@link EventReplayBuffer}, even while no
+ * client is connected. A client reconnecting with
+ * {@code /events?since=<seq>&epoch=<epoch>} first gets a {@code replay} frame, then the stored events after that
+ * sequence number that match its subscription, then the live stream.
+ *
+ * {@code /events?format=cbor} opts into binary frames: a fixed header with
+ * seq, ts, epoch and a numeric type id ({@link EventTypes}) followed by the data as
+ * CBOR. Such clients first get an {@code encoding} text frame with the type id
+ * table; control and replayed frames stay JSON text. The layout is specified in
+ * {@code assets/events_binary_format.md}.
  */
 public class AndroidAsyncEventServer {
 
     private static final String TAG = "AndroidAsyncEventServer";
 
-    private final AsyncHttpServer server = new AsyncHttpServer();
-    private final Set<WebSocket> clients =
-            Collections.synchronizedSet(new HashSet<WebSocket>());
+    private static final Metrics.Family<Metrics.Counter> EVENTS = Metrics.counter(
+            "kira_events_published_total", "Events numbered and broadcast, by type.", "type");
+    private static final Metrics.Family<Metrics.Counter> EVENT_BYTES = Metrics.counter(
+            "kira_event_bytes_total",
+            "Serialized size of broadcast events by type, once per format (JSON counted in chars).", "type");
+
+    private static final int DEFAULT_QUEUE_CAPACITY = 256;
+    private static final int DEFAULT_REPLAY_CAPACITY = 4096;
+
+    /** Binary frame header: version, flags, type id, seq, ts, epoch. */
+    static final int BINARY_VERSION = 1;
+    static final int BINARY_HEADER_SIZE = 28;
+    /** Header flag: type id is 0 and a length-prefixed type name follows the header. */
+    static final int BINARY_FLAG_TYPE_NAME = 1;
+
+    /** High-rate vision streams where a newer frame supersedes an older one. */
+    private static final String[] DEFAULT_DROPPABLE_TYPES = {
+            "onTrackingResult",
+            "onTrackingResultWithCmd",
+            "onDetectPersonResult",
+            "onDetectFaceResult",
+            "onFaceResult",
+            "onFaceResultWithCmd",
+            "onGesturePoint",
+            "onRecognizePersonResult",
+    };
+
+    /** Target rate for the coalesced vision streams. */
+    public static final float DEFAULT_VISION_RATE_HZ = 10f;
+
+    private static final String[] DEFAULT_COALESCED_TYPES = {
+            "onTrackingResult",
+            "onTrackingResultWithCmd",
+            "onDetectPersonResult",
+            "onDetectFaceResult",
+            "onGesturePoint",
+    };
+
+    private static final String EVENTS_PATH = "/events";
+    private static final String CLIENTS_PATH = "/events/clients";
+    private static final String STATS_PATH = "/events/stats";
+
+    private AsyncHttpServer server;
+    /** False when mounted on someone else's server, which is then left running on {@link #stop()}. */
+    private boolean ownsServer;
+    private final ConcurrentHashMap<WebSocket, EventClient> clients = new ConcurrentHashMap<>();
+    private final EventClient.Config clientConfig;
+    private final EventCoalescer coalescer = new EventCoalescer(this::publish);
+
+    /**
+     * Orders sequence numbers, the replay buffer and client queues: a frame is
+     * numbered, stored and queued in one step, and a connecting client is
+     * replayed and registered in one step, so it sees no gap and no duplicate.
+     */
+    private final Object publishLock = new Object();
+    // Guarded by publishLock.
+    private final EventReplayBuffer replay = new EventReplayBuffer(DEFAULT_REPLAY_CAPACITY);
+    /**
+     * Names this instance's numbering, so a client can tell a restart from a gap
+     * even once the new seq has passed its own. Milliseconds, to stay exact in JavaScript.
+     */
+    private final long epoch = System.currentTimeMillis();
+
+    /**
+     * Event type -> clients subscribed to it. Replaced (never cleared in place) whenever a
+     * client or a subscription changes, so a lookup racing with the change cannot leave a
+     * stale entry behind.
+     */
+    private volatile ConcurrentHashMap<String, EventClient[]> subscriberIndex = new ConcurrentHashMap<>();
+    private static final EventClient[] NO_CLIENTS = new EventClient[0];
+
+    private static final ThreadLocal<JsonWriter> WRITER = new ThreadLocal<JsonWriter>() {
+        @Override
+        protected JsonWriter initialValue() {
+            return new JsonWriter(1024);
+        }
+    };
+    private static final ThreadLocal<CborWriter> CBOR_WRITER = new ThreadLocal<CborWriter>() {
+        @Override
+        protected CborWriter initialValue() {
+            return new CborWriter(1024);
+        }
+    };
 
     private boolean started = false;
 
+    public AndroidAsyncEventServer() {
+        this(new EventClient.Config(DEFAULT_QUEUE_CAPACITY, EventClient.OverflowPolicy.DROP_BY_TYPE,
+                new HashSet<>(Arrays.asList(DEFAULT_DROPPABLE_TYPES))));
+    }
+
+    public AndroidAsyncEventServer(EventClient.Config clientConfig) {
+        this.clientConfig = clientConfig;
+        for (String type : DEFAULT_COALESCED_TYPES) {
+            coalescer.setRate(type, DEFAULT_VISION_RATE_HZ);
+        }
+        Metrics.gauge("kira_event_clients", "Connected /events clients.", this::getClientCount);
+        Metrics.gauge("kira_event_queue_depth", "Frames waiting in all client send queues.", this::getQueueDepth);
+    }
+
+    /** The conflation stage, e.g. to change the rate of an event type. */
+    public EventCoalescer getCoalescer() {
+        return coalescer;
+    }
+
+    /** Standalone mode: listen on {@code port} with a server of its own. */
     public void start(int port) {
         if (started) {
             Log.w(TAG, "Event server already started");
             return;
         }
+        AsyncHttpServer own = new AsyncHttpServer();
+        addRoutes(own);
+        // Bind the HTTP/WebSocket server to the default AsyncServer on the given port.
+        own.listen(AsyncServer.getDefault(), port);
+        server = own;
+        ownsServer = true;
+        started = true;
+        Log.i(TAG, "AndroidAsync event server started on ws://127.0.0.1:" + port + EVENTS_PATH);
+    }
+
+    /**
+     * Mount {@code /events} and its stats routes on {@code host}, which its owner
+     * listens on and stops. Both then share one port, listener and socket setup.
+     */
+    public void attach(AsyncHttpServer host) {
+        if (started) {
+            Log.w(TAG, "Event server already started");
+            return;
+        }
+        addRoutes(host);
+        server = host;
+        ownsServer = false;
+        started = true;
+        Log.i(TAG, "AndroidAsync event server mounted at " + EVENTS_PATH);
+    }
 
-        server.websocket("/events", (WebSocket webSocket, AsyncHttpServerRequest request) -> {
+    private void addRoutes(AsyncHttpServer target) {
+        target.websocket(EVENTS_PATH, (WebSocket webSocket, AsyncHttpServerRequest request) -> {
             Log.i(TAG, "WebSocket client connected");
-            clients.add(webSocket);
+            EventSubscription subscription = EventSubscription.ALL;
+            try {
+                if (request.getQuery() != null) {
+                    subscription = EventSubscription.parse(request.getQuery().getString("types"));
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to read 'types' query param", e);
+            }
+            long since = -1;
+            try {
+                String sinceStr = request.getQuery() != null ? request.getQuery().getString("since") : null;
+                if (sinceStr != null) {
+                    since = Long.parseLong(sinceStr);
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "Invalid 'since' query param", e);
+            }
+            long clientEpoch = 0;
+            try {
+                String epochStr = request.getQuery() != null ? request.getQuery().getString("epoch") : null;
+                if (epochStr != null) {
+                    clientEpoch = Long.parseLong(epochStr);
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "Invalid 'epoch' query param", e);
+            }
+            String format = request.getQuery() != null ? request.getQuery().getString("format") : null;
+            boolean binary = "cbor".equals(format);
+            if (format != null && !binary && !"json".equals(format)) {
+                Log.w(TAG, "Unknown event format '" + format + "', using json");
+            }
+            EventClient client = new EventClient(webSocket, clientConfig, subscription, binary);
+            addClient(client, since, clientEpoch);
+
+            webSocket.setStringCallback(message -> onClientMessage(client, message));
 
             webSocket.setClosedCallback(ex -> {
-                clients.remove(webSocket);
+                removeClient(webSocket);
                 Log.i(TAG, "WebSocket client disconnected");
             });
 
             webSocket.setEndCallback(ex -> {
-                clients.remove(webSocket);
+                removeClient(webSocket);
                 Log.i(TAG, "WebSocket client connection ended");
             });
         });
 
-        // Bind the HTTP/WebSocket server to the default AsyncServer on the given port.
-        server.listen(AsyncServer.getDefault(), port);
-        started = true;
-        Log.i(TAG, "AndroidAsync event server started on ws://127.0.0.1:" + port + "/events");
+        target.get(CLIENTS_PATH, (req, res) -> {
+            res.code(200);
+            res.getHeaders().set("Content-Type", "application/json");
+            res.send(getClientStats().toString());
+        });
+
+        target.get(STATS_PATH, (req, res) -> {
+            JSONObject obj = new JSONObject();
+            try {
+                obj.put("clients", getClientStats());
+                obj.put("coalesced", coalescer.getCoalescedCounts());
+                obj.put("coalesced_total", coalescer.getCoalescedTotal());
+                synchronized (publishLock) {
+                    obj.put("epoch", epoch);
+                    obj.put("last_seq", replay.lastSeq());
+                    obj.put("replay_oldest_seq", replay.oldestSeq());
+                    obj.put("replay_capacity", replay.capacity());
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to build event stats", e);
+            }
+            res.code(200);
+            res.getHeaders().set("Content-Type", "application/json");
+            res.send(obj.toString());
+        });
     }
 
     public void stop() {
         if (!started) return;
         Log.i(TAG, "Stopping AndroidAsync event server");
         try {
-            server.stop();
+            if (ownsServer) {
+                server.stop();
+            } else {
+                // websocket() registers a GET action; actions are stored as "^" + regex.
+                server.removeAction("GET", "^" + EVENTS_PATH);
+                server.removeAction("GET", "^" + CLIENTS_PATH);
+                server.removeAction("GET", "^" + STATS_PATH);
+            }
         } catch (Exception e) {
             Log.w(TAG, "Error stopping AsyncHttpServer", e);
         }
+        server = null;
+        coalescer.shutdown();
+        for (EventClient client : clients.values()) {
+            client.close();
+        }
         clients.clear();
+        invalidateSubscribers();
         started = false;
     }
 
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    /** Frames queued for all connected clients. */
+    public long getQueueDepth() {
+        long depth = 0;
+        for (EventClient client : clients.values()) {
+            depth += client.getQueueDepth();
+        }
+        return depth;
+    }
+
+    /** Queue depth and drop counters for every connected client. */
+    public JSONArray getClientStats() {
+        JSONArray arr = new JSONArray();
+        for (EventClient client : clients.values()) {
+            try {
+                arr.put(client.toJson());
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to describe client", e);
+            }
+        }
+        return arr;
+    }
+
+    /** Whether any connected client is subscribed to the given event type. */
+    public boolean hasSubscribers(String type) {
+        return started && subscribersOf(type).length > 0;
+    }
+
+    /** Whether events of this type are kept for replay. */
+    public boolean isReplayable(String type) {
+        return !coalescer.isCoalesced(type) && !clientConfig.droppableTypes.contains(type);
+    }
+
     public void sendEvent(String type, JSONObject data) {
+        if (!hasSubscribers(type) && !isReplayable(type)) return;
+        String streamKey = data != null && data.has("serial")
+                ? EventCoalescer.streamKey(type, data.optInt("cmd"), data.optInt("serial"))
+                : null;
+        sendEvent(type, streamKey, data != null ? writer -> writer.jsonValue(data) : null);
+    }
+
+    /**
+     * Send an event whose data is written directly into the outgoing frame.
+     *
+     * @param streamKey coalescing stream (see {@link EventCoalescer#streamKey}), or null
+     */
+    public void sendEvent(String type, String streamKey, EventData data) {
+        if (!hasSubscribers(type) && !isReplayable(type)) return;
+        if (!coalescer.offer(type, streamKey, data)) {
+            publish(type, data);
+        }
+    }
+
+    private void publish(String type, EventData data) {
         if (!started) return;
-        JSONObject payload = new JSONObject();
+        boolean replayable = isReplayable(type);
+        if (!replayable && subscribersOf(type).length == 0) return;
+
+        Metrics.Counter bytesOut = EVENT_BYTES.labels(type);
+        synchronized (publishLock) {
+            // Serialized at most once per format, before anything is delivered: a format
+            // that fails to encode reaches none of its clients rather than only the first ones.
+            EventClient[] subscribers = subscribersOf(type);
+            boolean needText = replayable;
+            boolean needBinary = false;
+            for (EventClient client : subscribers) {
+                if (client.isBinary()) {
+                    needBinary = true;
+                } else {
+                    needText = true;
+                }
+            }
+            long seq = replay.nextSeq();
+            long ts = System.currentTimeMillis();
+            String text = needText ? encodeText(seq, epoch, ts, type, data) : null;
+            byte[] bytes = needBinary ? encodeBinary(seq, epoch, ts, type, data) : null;
+            if (text == null && bytes == null) return; // Nothing goes out; the seq stays unused.
+            if (text != null) {
+                bytesOut.add(text.length());
+            }
+            if (bytes != null) {
+                bytesOut.add(bytes.length);
+            }
+            if (replayable && text != null) {
+                replay.add(seq, type, text);
+            } else {
+                replay.skip(seq);
+            }
+            EVENTS.labels(type).inc();
+            for (EventClient client : subscribers) {
+                if (client.isBinary()) {
+                    if (bytes != null) {
+                        client.offer(type, bytes);
+                    }
+                } else if (text != null) {
+                    client.offer(type, text);
+                }
+            }
+        }
+    }
+
+    /** {@code {"seq":..,"epoch":..,"ts":..,"type":..,"data":..}}, or null if the data failed to serialize. */
+    static String encodeText(long seq, long epoch, long ts, String type, EventData data) {
+        JsonWriter writer = WRITER.get().reset();
+        try {
+            writer.beginObject()
+                    .name("seq").value(seq)
+                    .name("epoch").value(epoch)
+                    .name("ts").value(ts)
+                    .name("type").value(type);
+            if (data != null) {
+                writer.name("data");
+                data.writeTo(writer);
+            }
+            writer.endObject();
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to build event payload for " + type, e);
+            return null;
+        }
+        String text = writer.toString();
+        if (KiraLog.samplePayload()) {
+            KiraLog.payload(TAG, type, text);
+        }
+        return text;
+    }
+
+    /** Header followed by the CBOR data, or null if the data failed to serialize. */
+    static byte[] encodeBinary(long seq, long epoch, long ts, String type, EventData data) {
+        CborWriter writer = CBOR_WRITER.get().reset();
+        int id = EventTypes.idOf(type);
         try {
-            payload.put("type", type);
+            writer.put(BINARY_VERSION)
+                    .put(id == EventTypes.UNKNOWN ? BINARY_FLAG_TYPE_NAME : 0)
+                    .putShort(id)
+                    .putLong(seq)
+                    .putLong(ts)
+                    .putLong(epoch);
+            if (id == EventTypes.UNKNOWN) {
+                byte[] name = type.getBytes(StandardCharsets.UTF_8);
+                writer.put(Math.min(name.length, 255)).putBytes(name, 0, Math.min(name.length, 255));
+            }
             if (data != null) {
-                payload.put("data", data);
+                data.writeTo(writer);
             }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to build binary event payload for " + type, e);
+            return null;
+        }
+        return writer.toByteArray();
+    }
+
+    /** Tells a binary client the format version and the type id table. Caller holds {@link #publishLock}. */
+    private void sendEncoding(EventClient client) {
+        try {
+            JSONObject data = new JSONObject();
+            data.put("format", "cbor");
+            data.put("version", BINARY_VERSION);
+            data.put("types", EventTypes.toJson());
+            JSONObject msg = new JSONObject();
+            msg.put("type", "encoding");
+            msg.put("data", data);
+            client.offer("encoding", msg.toString());
         } catch (Exception e) {
-            Log.w(TAG, "Failed to build event payload", e);
+            Log.w(TAG, "Failed to build encoding frame", e);
+        }
+    }
+
+    /**
+     * Queue the stored events after {@code since} for a connecting client,
+     * preceded by a {@code replay} frame. {@code complete} is false when some
+     * of the requested events are no longer stored or do not fit in the
+     * client's queue, or when {@code since} belongs to another epoch (or,
+     * without one, is ahead of the server); after such a restart everything
+     * stored is sent. Caller holds {@link #publishLock}.
+     */
+    private void replayTo(EventClient client, long since, long clientEpoch) {
+        long lastSeq = replay.lastSeq();
+        boolean restarted = (clientEpoch != 0 && clientEpoch != epoch) || since > lastSeq;
+        long from = restarted ? 0 : since;
+        List<String> types = new ArrayList<>();
+        List<String> frames = new ArrayList<>();
+        long first = replay.collect(from, client.getSubscription(), clientConfig.capacity - 1, types, frames);
+        // Complete unless frames after `from` were overwritten or left out to fit the client's queue.
+        boolean complete = !restarted && (from + 1 >= replay.oldestSeq())
+                && (first == 0 || !replay.hasMatchBetween(from, first, client.getSubscription()));
+
+        JsonWriter writer = WRITER.get().reset();
+        writer.beginObject().name("type").value("replay").name("data").beginObject()
+                .name("since").value(since)
+                .name("epoch").value(epoch)
+                .name("last_seq").value(lastSeq)
+                .name("first_seq").value(first)
+                .name("count").value(frames.size())
+                .name("complete").value(complete)
+                .endObject().endObject();
+        client.offer("replay", writer.toString());
+        for (int i = 0; i < frames.size(); i++) {
+            client.offer(types.get(i), frames.get(i));
+        }
+    }
+
+    /**
+     * Register a connected client, after the encoding table for binary clients
+     * and the events after {@code since} (none if negative). {@code clientEpoch}
+     * is the epoch {@code since} was seen in, or 0 if unknown.
+     */
+    void addClient(EventClient client, long since, long clientEpoch) {
+        synchronized (publishLock) {
+            if (client.isBinary()) {
+                sendEncoding(client);
+            }
+            if (since >= 0) {
+                replayTo(client, since, clientEpoch);
+            }
+            clients.put(client.getSocket(), client);
+            invalidateSubscribers();
+        }
+    }
+
+    private void invalidateSubscribers() {
+        subscriberIndex = new ConcurrentHashMap<>();
+    }
+
+    private EventClient[] subscribersOf(String type) {
+        ConcurrentHashMap<String, EventClient[]> index = subscriberIndex;
+        EventClient[] cached = index.get(type);
+        if (cached != null) {
+            return cached;
         }
+        ArrayList<EventClient> matching = new ArrayList<>();
+        for (EventClient client : clients.values()) {
+            if (client.getSubscription().matches(type)) {
+                matching.add(client);
+            }
+        }
+        EventClient[] result = matching.isEmpty() ? NO_CLIENTS : matching.toArray(new EventClient[0]);
+        index.put(type, result);
+        return result;
+    }
 
-        String text = payload.toString();
-        synchronized (clients) {
-            for (WebSocket ws : clients) {
-                try {
-                    ws.send(text);
-                } catch (Exception e) {
-                    Log.w(TAG, "Failed to send event over WebSocket", e);
+    private void onClientMessage(EventClient client, String message) {
+        try {
+            JSONObject msg = new JSONObject(message);
+            String op = msg.optString("op");
+            JSONArray typesArr = msg.optJSONArray("types");
+            List<String> types = new ArrayList<>();
+            if (typesArr != null) {
+                for (int i = 0; i < typesArr.length(); i++) {
+                    types.add(typesArr.getString(i));
                 }
             }
+
+            EventSubscription current = client.getSubscription();
+            switch (op) {
+                case "subscribe":
+                    // The implicit "everything" default is replaced by the first explicit subscription.
+                    client.setSubscription((current == EventSubscription.ALL ? EventSubscription.NONE : current)
+                            .plus(types));
+                    break;
+                case "unsubscribe":
+                    client.setSubscription(current.minus(types));
+                    break;
+                case "set":
+                    client.setSubscription(EventSubscription.NONE.plus(types));
+                    break;
+                default:
+                    Log.w(TAG, "Ignoring unknown client op '" + op + "'");
+                    return;
+            }
+            invalidateSubscribers();
+
+            JSONObject data = new JSONObject();
+            data.put("types", new JSONArray(client.getSubscription().patterns()));
+            JSONObject ack = new JSONObject();
+            ack.put("type", "subscriptions");
+            ack.put("data", data);
+            client.offer("subscriptions", ack.toString());
+        } catch (Exception e) {
+            Log.w(TAG, "Invalid client message: " + message, e);
+        }
+    }
+
+    private void removeClient(WebSocket webSocket) {
+        EventClient client = clients.remove(webSocket);
+        if (client != null) {
+            invalidateSubscribers();
+            client.close();
         }
     }
 }
@@ -0,0 +1,82 @@
+package com.robot.asus.kira;
+
+import android.util.Log;
+
+import com.koushikdutta.async.callback.DataCallback;
+import com.koushikdutta.async.http.server.AsyncHttpServer;
+import com.koushikdutta.async.http.server.AsyncHttpServerRequest;
+import com.koushikdutta.async.http.server.AsyncHttpServerResponse;
+import com.koushikdutta.async.http.server.HttpServerRequestCallback;
+
+/**
+ * AsyncHttpServer that caps request bodies.
+ *
+ * AndroidAsync buffers a whole form or JSON body in memory before the route
+ * runs. A request declaring a larger {@code Content-Length} is answered with
+ * 413 as soon as its headers arrive, and a chunked body is counted as it
+ * streams in and cut off once it passes the limit; the rest of the body is
+ * discarded unread and the route is never called.
+ */
+public class ApiHttpServer extends AsyncHttpServer {
+
+    private static final String TAG = "ApiHttpServer";
+
+    private final long maxBodyBytes;
+    private final CorsPolicy cors;
+
+    public ApiHttpServer(long maxBodyBytes, CorsPolicy cors) {
+        this.maxBodyBytes = maxBodyBytes;
+        this.cors = cors;
+    }
+
+    // Called once the headers are parsed, after the body parser is attached and before any body data.
+    @Override
+    protected boolean onRequest(AsyncHttpServerRequest request, AsyncHttpServerResponse response) {
+        long length = contentLength(request);
+        if (length > maxBodyBytes) {
+            reject(request, response, length);
+            return true;
+        }
+        if (length < 0 && request.getDataCallback() != null) {
+            DataCallback parser = request.getDataCallback();
+            long[] received = {0};
+            request.setDataCallback((emitter, data) -> {
+                received[0] += data.remaining();
+                if (received[0] > maxBodyBytes) {
+                    reject(request, response, received[0]);
+                    data.recycle();
+                } else {
+                    parser.onDataAvailable(emitter, data);
+                }
+            });
+        }
+        return false;
+    }
+
+    @Override
+    protected void onRequest(HttpServerRequestCallback callback, AsyncHttpServerRequest request,
+                             AsyncHttpServerResponse response) {
+        // Already answered by reject().
+        if (response.code() == 413) return;
+        super.onRequest(callback, request, response);
+    }
+
+    private void reject(AsyncHttpServerRequest request, AsyncHttpServerResponse response, long length) {
+        Log.w(TAG, "Rejected " + request.getMethod() + " " + request.getPath()
+                + ": body of " + length + " bytes exceeds " + maxBodyBytes);
+        // Drain what is left of the body without buffering it.
+        request.setDataCallback(new DataCallback.NullDataCallback());
+        cors.apply(request, response);
+        ApiRouter.sendError(response, 413, "Request body exceeds " + maxBodyBytes + " bytes");
+    }
+
+    private static long contentLength(AsyncHttpServerRequest request) {
+        String value = request.getHeaders().get("Content-Length");
+        if (value == null) return -1;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.robot.asus.kira;
+
+import com.koushikdutta.async.http.Multimap;
+import com.koushikdutta.async.http.body.JSONObjectBody;
+import com.koushikdutta.async.http.body.UrlEncodedFormBody;
+import com.koushikdutta.async.http.server.AsyncHttpServerRequest;
+
+import org.json.JSONObject;
+
+/**
+ * Parameter view of one API request: body fields first, then the query string.
+ *
+ * The body is either a urlencoded form or an {@code application/json} object
+ * (size-capped by {@link ApiHttpServer}). In a JSON body, strings are read as
+ * they are, numbers and booleans as their text and nested values as JSON text;
+ * {@code null} reads as absent. The body and query are resolved on the first
+ * lookup and reused by every later one, so handlers and command binders can
+ * read parameters freely.
+ */
+public final class ApiRequest implements RobotCommands.Params {
+
+    public final AsyncHttpServerRequest raw;
+
+    private boolean resolved;
+    private Multimap form;
+    private JSONObject json;
+    private Multimap query;
+
+    ApiRequest(AsyncHttpServerRequest raw) {
+        this.raw = raw;
+    }
+
+    @Override
+    public String get(String name) {
+        resolve();
+        String value = null;
+        if (form != null) {
+            value = form.getString(name);
+        } else if (json != null) {
+            Object v = json.opt(name);
+            if (v != null && v != JSONObject.NULL) {
+                value = v instanceof String ? (String) v : v.toString();
+            }
+        }
+        if (value == null && query != null) {
+            value = query.getString(name);
+        }
+        return value;
+    }
+
+    public <T> T get(Param<T> param) {
+        return param.read(this);
+    }
+
+    /** A capture group of the route pattern. */
+    public String group(int index) {
+        return raw.getMatcher().group(index);
+    }
+
+    /**
+     * The JSON object body, or null if the request has none.
+     *
+     * @throws IllegalArgumentException if the request declared a JSON body that is not an object
+     */
+    public JSONObject json() {
+        resolve();
+        return json;
+    }
+
+    /** The parsed request body (see AndroidAsync's body parsers), or null. */
+    public Object body() {
+        return raw.getBody() != null ? raw.getBody().get() : null;
+    }
+
+    private void resolve() {
+        if (resolved) return;
+        resolved = true;
+        query = raw.getQuery();
+        if (raw.getBody() instanceof UrlEncodedFormBody) {
+            form = ((UrlEncodedFormBody) raw.getBody()).get();
+        } else if (raw.getBody() instanceof JSONObjectBody) {
+            json = ((JSONObjectBody) raw.getBody()).get();
+            // AndroidAsync leaves the value null when the body is not a JSON object.
+            if (json == null && !"0".equals(raw.getHeaders().get("Content-Length"))) {
+                throw new IllegalArgumentException("Invalid JSON body, expected an object");
+            }
+        }
+    }
+}
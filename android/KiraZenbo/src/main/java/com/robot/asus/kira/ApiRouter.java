@@ -0,0 +1,93 @@
+package com.robot.asus.kira;
+
+import android.util.Log;
+
+import com.koushikdutta.async.http.server.AsyncHttpServer;
+import com.koushikdutta.async.http.server.AsyncHttpServerRequest;
+import com.koushikdutta.async.http.server.AsyncHttpServerResponse;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Registers API routes with the shared request pipeline: CORS headers (and
+ * {@code OPTIONS} preflights) from a {@link CorsPolicy}, the
+ * {@link ApiRequest} parameter view and error responses.
+ *
+ * Every routed request is timed per route pattern into
+ * {@code kira_http_request_duration_seconds}, until its response ends.
+ *
+ * A handler reports a bad request by throwing IllegalArgumentException with a
+ * client-facing message (as {@link Param#read} does), which is answered with
+ * 400 {@code {"error":...}}; a JSONException is answered with 500.
+ */
+public final class ApiRouter {
+
+    private static final String TAG = "ApiRouter";
+
+    private static final Metrics.Family<Metrics.Histogram> REQUEST_SECONDS = Metrics.histogram(
+            "kira_http_request_duration_seconds", "Time from routing an API request to the end of its response.",
+            "route", Metrics.LATENCY_BUCKETS_NANOS);
+    private static final Metrics.Family<Metrics.Counter> RESPONSES = Metrics.counter(
+            "kira_http_responses_total", "API responses by status code.", "code");
+
+    public interface Handler {
+        void handle(ApiRequest req, AsyncHttpServerResponse res) throws JSONException;
+    }
+
+    private final AsyncHttpServer server;
+    private final CorsPolicy cors;
+
+    public ApiRouter(AsyncHttpServer server, CorsPolicy cors) {
+        this.server = server;
+        this.cors = cors;
+        server.addAction("OPTIONS", "/.*", cors::preflight);
+    }
+
+    public void get(String regex, Handler handler) {
+        server.get(regex, (req, res) -> handle(regex, handler, req, res));
+    }
+
+    public void post(String regex, Handler handler) {
+        server.post(regex, (req, res) -> handle(regex, handler, req, res));
+    }
+
+    private void handle(String route, Handler handler, AsyncHttpServerRequest req, AsyncHttpServerResponse res) {
+        long start = System.nanoTime();
+        // Called once the response is written, so waiting command routes are timed to their real answer.
+        res.setClosedCallback(ex -> {
+            REQUEST_SECONDS.labels(route).observeSince(start);
+            RESPONSES.labels(String.valueOf(res.code())).inc();
+        });
+        cors.apply(req, res);
+        // A browser page from another origin must not trigger robot actions, even if it cannot read the answer.
+        String origin = req.getHeaders().get("Origin");
+        if (origin != null && !"GET".equals(req.getMethod())
+                && !CorsPolicy.isSameOrigin(req) && !cors.isAllowed(origin)) {
+            Log.w(TAG, "Rejected " + route + " from origin " + origin);
+            sendError(res, 403, "Origin not allowed");
+            return;
+        }
+        try {
+            handler.handle(new ApiRequest(req), res);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Rejected " + route + ": " + e.getMessage());
+            sendError(res, 400, e.getMessage());
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to build response for " + route, e);
+            sendError(res, 500, "Failed to build response");
+        }
+    }
+
+    // Responses
+
+    public static void sendJson(AsyncHttpServerResponse res, int code, String json) {
+        res.code(code);
+        res.getHeaders().set("Content-Type", "application/json");
+        res.send(json);
+    }
+
+    public static void sendError(AsyncHttpServerResponse res, int code, String message) {
+        sendJson(res, code, "{\"error\":" + JSONObject.quote(message) + "}");
+    }
+}
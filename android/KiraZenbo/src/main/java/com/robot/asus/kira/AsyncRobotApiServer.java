@@ -1,57 +1,93 @@
 package com.robot.asus.kira;
 
 import android.content.Context;
-import android.app.ActivityManager;
-import android.content.Intent;
-import android.content.IntentFilter;
-import android.net.ConnectivityManager;
-import android.net.Network;
-import android.net.NetworkCapabilities;
-import android.net.NetworkInfo;
-import android.os.BatteryManager;
-import android.os.Handler;
-import android.os.Looper;
-import android.os.Build;
-import android.os.Environment;
-import android.os.StatFs;
 import android.util.Log;
 
-import com.asus.robotframework.API.RobotAPI;
-import com.asus.robotframework.API.RobotFace;
-import com.asus.robotframework.API.RobotCommand;
-import com.koushikdutta.async.http.Multimap;
-import com.koushikdutta.async.http.body.UrlEncodedFormBody;
+import com.koushikdutta.async.AsyncServer;
 import com.koushikdutta.async.http.server.AsyncHttpServer;
-import com.koushikdutta.async.http.server.AsyncHttpServerRequest;
 import com.koushikdutta.async.http.server.AsyncHttpServerResponse;
-import com.koushikdutta.async.http.server.HttpServerRequestCallback;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
 
 /**
  * AsyncHttpServer-based implementation of the robot HTTP API.
  * Currently runs alongside NanoHTTPD on a separate port for testing.
+ *
+ * Routes are registered through an {@link ApiRouter}, which applies the
+ * {@link CorsPolicy} (origins from {@code R.array.cors_allowed_origins}) and
+ * turns invalid parameters into 400 responses; parameters are declared once as
+ * typed {@link Param}s.
  */
 public class AsyncRobotApiServer {
 
     private static final String TAG = "AsyncRobotApiServer";
+    private static final long DEFAULT_WAIT_TIMEOUT_MS = 10_000;
+    private static final long MAX_WAIT_TIMEOUT_MS = 60_000;
+    private static final int MAX_BATCH_SIZE = 32;
+    /** Larger form or JSON bodies are rejected with 413 before they are read. */
+    static final long MAX_BODY_BYTES = 64 * 1024;
+
+    // Parameters of the non-command routes; see RobotCommands for the command parameters.
+    private static final Param<Boolean> WAIT = Param.ofBoolean("wait");
+    /** Run a command even if it would not change the robot's face or gaze. */
+    private static final Param<Boolean> FORCE = Param.ofBoolean("force");
+    private static final Param<String> TEXT = Param.ofString("text").required();
+    private static final Param<String> LEVEL = Param.ofString("level");
+    private static final Param<Integer> PAYLOAD_SAMPLE_EVERY = Param.ofInt("payload_sample_every");
+    private static final Param<String> DISPATCH_MODE = Param.ofString("mode");
+    private static final Param<Long> STALL_THRESHOLD_MS = Param.ofLong("stall_threshold_ms");
+    private static final Param<Double> BATTERY_PERCENT_DELTA = Param.ofDouble("battery_percent_delta");
+    private static final Param<Long> MEMORY_DELTA_BYTES = Param.ofLong("memory_delta_bytes");
+    private static final Param<Long> STORAGE_DELTA_BYTES = Param.ofLong("storage_delta_bytes");
+    private static final EnumMap<TelemetrySampler.Metric, Param<Long>> INTERVALS =
+            new EnumMap<>(TelemetrySampler.Metric.class);
+
+    static {
+        for (TelemetrySampler.Metric metric : TelemetrySampler.Metric.values()) {
+            INTERVALS.put(metric, Param.ofLong(metric.key + "_interval_ms"));
+        }
+    }
 
-    private final AsyncHttpServer server = new AsyncHttpServer();
+    private final CorsPolicy cors;
+    private final AsyncHttpServer server;
     private final Context context;
-    private final RobotAPI robotAPI;
-    private final Handler mainHandler;
+    private final RobotBackend robot;
+    private final CommandDispatcher commands;
+    private final RobotExecutor robotExecutor;
+    private final RobotCommands robotCommands;
+    private final TelemetrySampler telemetry;
+    private final TelemetryEvents telemetryEvents;
+    private final StaticAssetCache assetCache;
 
     private boolean started = false;
 
-    public AsyncRobotApiServer(Context context, RobotAPI robotAPI) {
+    public AsyncRobotApiServer(Context context, RobotBackend robot, CommandDispatcher commands,
+                               RobotExecutor robotExecutor, TelemetrySampler telemetry,
+                               TelemetryEvents telemetryEvents) {
         this.context = context;
-        this.robotAPI = robotAPI;
-        this.mainHandler = new Handler(Looper.getMainLooper());
+        this.cors = new CorsPolicy(Arrays.asList(context.getResources().getStringArray(R.array.cors_allowed_origins)));
+        this.server = new ApiHttpServer(MAX_BODY_BYTES, cors);
+        this.robot = robot;
+        this.commands = commands;
+        this.robotExecutor = robotExecutor;
+        this.robotCommands = new RobotCommands(robot);
+        this.telemetry = telemetry;
+        this.telemetryEvents = telemetryEvents;
+        this.assetCache = new StaticAssetCache(context.getAssets());
+    }
+
+    /** The underlying server, e.g. to mount the {@code /events} WebSocket on the same port. */
+    public AsyncHttpServer getServer() {
+        return server;
     }
 
     public void start(int port) {
@@ -60,449 +96,110 @@ public class AsyncRobotApiServer {
             return;
         }
 
-        // Serve the single-file app index (built into assets/app/index.html) at "/".
-        server.get("/", (req, res) -> {
-            try (InputStream is = context.getAssets().open("app/index.html")) {
-                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-                byte[] data = new byte[8192];
-                int nRead;
-                while ((nRead = is.read(data, 0, data.length)) != -1) {
-                    buffer.write(data, 0, nRead);
-                }
-                buffer.flush();
-                String html = buffer.toString("UTF-8");
-                addCorsHeaders(req, res);
-                res.code(200);
-                res.getHeaders().set("Content-Type", "text/html; charset=utf-8");
-                res.send(html);
-            } catch (IOException e) {
-                Log.e(TAG, "Failed to serve app/index.html", e);
-                addCorsHeaders(req, res);
-                res.code(500);
-                res.send("Could not load app/index.html");
-            }
-        });
-
-        // Health check
-        server.get("/health", new HttpServerRequestCallback() {
-            @Override
-            public void onRequest(AsyncHttpServerRequest request, AsyncHttpServerResponse response) {
-                addCorsHeaders(request, response);
-                response.code(200);
-                response.getHeaders().set("Content-Type", "application/json");
-                response.send("{\"status\":\"ok\"}");
-            }
-        });
-
-        // System API - Battery status
-        server.get("/api/system/battery", (req, res) -> {
-            addCorsHeaders(req, res);
-
-            try {
-                IntentFilter ifilter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
-                Intent batteryStatus = context.registerReceiver(null, ifilter);
-
-                if (batteryStatus == null) {
-                    sendBadRequest(res, "Battery status unavailable");
-                    return;
-                }
-
-                int level = batteryStatus.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
-                int scale = batteryStatus.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
-                int status = batteryStatus.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
-                int plugged = batteryStatus.getIntExtra(BatteryManager.EXTRA_PLUGGED, -1);
-                int health = batteryStatus.getIntExtra(BatteryManager.EXTRA_HEALTH, -1);
-                int temperature = batteryStatus.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0); // tenths of a degree C
-                int voltage = batteryStatus.getIntExtra(BatteryManager.EXTRA_VOLTAGE, 0); // millivolts
-                boolean present = batteryStatus.getBooleanExtra(BatteryManager.EXTRA_PRESENT, false);
-                String technology = batteryStatus.getStringExtra(BatteryManager.EXTRA_TECHNOLOGY);
-
-                float percentage = -1f;
-                if (level >= 0 && scale > 0) {
-                    percentage = (level * 100f) / scale;
-                }
+        cors.allowServer(port);
+        ApiRouter router = new ApiRouter(server, cors);
 
-                JSONObject obj = new JSONObject();
-                obj.put("level", level);
-                obj.put("scale", scale);
-                obj.put("percentage", percentage);
-                obj.put("status", status);
-                obj.put("plugged", plugged);
-                obj.put("health", health);
-                obj.put("temperature_c", temperature / 10.0);
-                obj.put("voltage_mv", voltage);
-                obj.put("present", present);
-                obj.put("technology", technology != null ? technology : JSONObject.NULL);
-
-                res.code(200);
-                res.getHeaders().set("Content-Type", "application/json");
-                res.send(obj.toString());
-            } catch (JSONException e) {
-                Log.e(TAG, "Failed to build battery JSON", e);
-                res.code(500);
-                res.getHeaders().set("Content-Type", "application/json");
-                res.send("{\"error\":\"Failed to read battery status\"}");
-            } catch (Exception e) {
-                Log.e(TAG, "Unexpected error reading battery status", e);
-                res.code(500);
-                res.getHeaders().set("Content-Type", "application/json");
-                res.send("{\"error\":\"Unexpected error reading battery status\"}");
-            }
-        });
-
-        // System API - Device info
-        server.get("/api/system/device", (req, res) -> {
-            addCorsHeaders(req, res);
-            try {
-                JSONObject obj = new JSONObject();
-                obj.put("manufacturer", Build.MANUFACTURER);
-                obj.put("brand", Build.BRAND);
-                obj.put("model", Build.MODEL);
-                obj.put("device", Build.DEVICE);
-                obj.put("product", Build.PRODUCT);
-                obj.put("hardware", Build.HARDWARE);
-                obj.put("android_version", Build.VERSION.RELEASE);
-                obj.put("sdk_int", Build.VERSION.SDK_INT);
-
-                res.code(200);
-                res.getHeaders().set("Content-Type", "application/json");
-                res.send(obj.toString());
-            } catch (JSONException e) {
-                Log.e(TAG, "Failed to build device JSON", e);
-                res.code(500);
-                res.getHeaders().set("Content-Type", "application/json");
-                res.send("{\"error\":\"Failed to read device info\"}");
-            }
-        });
-
-        // System API - Connectivity
-        server.get("/api/system/connectivity", (req, res) -> {
-            addCorsHeaders(req, res);
-            try {
-                ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
-                if (cm == null) {
-                    sendBadRequest(res, "Connectivity service unavailable");
-                    return;
-                }
-
-                boolean isConnected = false;
-                String type = "none";
-                boolean isMetered = cm.isActiveNetworkMetered();
-
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                    Network activeNetwork = cm.getActiveNetwork();
-                    if (activeNetwork != null) {
-                        NetworkCapabilities caps = cm.getNetworkCapabilities(activeNetwork);
-                        if (caps != null) {
-                            isConnected = caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
-                                    && caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED);
-                            if (caps.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
-                                type = "wifi";
-                            } else if (caps.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
-                                type = "cellular";
-                            } else if (caps.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) {
-                                type = "ethernet";
-                            } else {
-                                type = "other";
-                            }
-                        }
-                    }
-                } else {
-                    NetworkInfo info = cm.getActiveNetworkInfo();
-                    if (info != null && info.isConnected()) {
-                        isConnected = true;
-                        switch (info.getType()) {
-                            case ConnectivityManager.TYPE_WIFI:
-                                type = "wifi";
-                                break;
-                            case ConnectivityManager.TYPE_MOBILE:
-                                type = "cellular";
-                                break;
-                            case ConnectivityManager.TYPE_ETHERNET:
-                                type = "ethernet";
-                                break;
-                            default:
-                                type = "other";
-                                break;
-                        }
-                    }
-                }
+        // Serve the single-file app index (built into assets/app/index.html) at "/".
+        router.get("/", (req, res) -> StaticAssetCache.send(req.raw, res, assetCache.asset("app/index.html")));
 
-                JSONObject obj = new JSONObject();
-                obj.put("connected", isConnected);
-                obj.put("type", type);
-                obj.put("metered", isMetered);
-
-                res.code(200);
-                res.getHeaders().set("Content-Type", "application/json");
-                res.send(obj.toString());
-            } catch (JSONException e) {
-                Log.e(TAG, "Failed to build connectivity JSON", e);
-                res.code(500);
-                res.getHeaders().set("Content-Type", "application/json");
-                res.send("{\"error\":\"Failed to read connectivity info\"}");
-            }
-        });
+        // API documentation: the OpenAPI spec, the legacy form and Swagger UI under /docs/.
+        router.get("/openapi.yaml", (req, res) -> StaticAssetCache.send(req.raw, res, assetCache.asset("openapi.yaml")));
+        router.get("/api_form.html", (req, res) -> StaticAssetCache.send(req.raw, res, assetCache.asset("api_form.html")));
+        router.get("/(docs/)?swagger-initializer.js", (req, res) ->
+                StaticAssetCache.send(req.raw, res, assetCache.asset("swagger-initializer.js")));
+        server.get("/docs", (req, res) -> res.redirect("/docs/"));
+        router.get("/docs/(.*)", (req, res) -> StaticAssetCache.send(req.raw, res, assetCache.swaggerUi(req.group(1))));
 
-        // System API - Memory
-        server.get("/api/system/memory", (req, res) -> {
-            addCorsHeaders(req, res);
-            try {
-                ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
-                if (am == null) {
-                    sendBadRequest(res, "Activity service unavailable");
-                    return;
-                }
+        // Health check
+        router.get("/health", (req, res) -> ApiRouter.sendJson(res, 200, "{\"status\":\"ok\"}"));
 
-                ActivityManager.MemoryInfo memInfo = new ActivityManager.MemoryInfo();
-                am.getMemoryInfo(memInfo);
-
-                JSONObject obj = new JSONObject();
-                obj.put("avail_mem", memInfo.availMem);
-                obj.put("total_mem", memInfo.totalMem);
-                obj.put("low_memory", memInfo.lowMemory);
-                obj.put("threshold", memInfo.threshold);
-
-                res.code(200);
-                res.getHeaders().set("Content-Type", "application/json");
-                res.send(obj.toString());
-            } catch (JSONException e) {
-                Log.e(TAG, "Failed to build memory JSON", e);
-                res.code(500);
-                res.getHeaders().set("Content-Type", "application/json");
-                res.send("{\"error\":\"Failed to read memory info\"}");
-            }
+        // Metrics in the Prometheus text format; see Metrics
+        router.get("/metrics", (req, res) -> {
+            res.code(200);
+            res.send("text/plain; version=0.0.4; charset=utf-8", Metrics.scrape());
         });
 
-        // System API - Storage
-        server.get("/api/system/storage", (req, res) -> {
-            addCorsHeaders(req, res);
-            try {
-                StatFs statFs = new StatFs(Environment.getDataDirectory().getAbsolutePath());
-
-                long blockSize = statFs.getBlockSizeLong();
-                long totalBlocks = statFs.getBlockCountLong();
-                long availableBlocks = statFs.getAvailableBlocksLong();
-
-                long totalBytes = totalBlocks * blockSize;
-                long availableBytes = availableBlocks * blockSize;
-
-                JSONObject obj = new JSONObject();
-                obj.put("total_bytes", totalBytes);
-                obj.put("available_bytes", availableBytes);
+        // System API - served from the latest telemetry snapshot
+        for (TelemetrySampler.Metric metric : TelemetrySampler.Metric.values()) {
+            router.get("/api/system/" + metric.key, (req, res) -> {
+                TelemetrySampler.Sample sample = telemetry.get(metric);
+                ApiRouter.sendJson(res, sample.code, sample.body);
+            });
+        }
+        router.get("/api/system/status", (req, res) -> ApiRouter.sendJson(res, 200, telemetry.getStatusJson()));
 
-                res.code(200);
-                res.getHeaders().set("Content-Type", "application/json");
-                res.send(obj.toString());
-            } catch (IllegalArgumentException e) {
-                Log.e(TAG, "Failed to read storage stats", e);
-                res.code(500);
-                res.getHeaders().set("Content-Type", "application/json");
-                res.send("{\"error\":\"Failed to read storage info\"}");
-            } catch (JSONException e) {
-                Log.e(TAG, "Failed to build storage JSON", e);
-                res.code(500);
-                res.getHeaders().set("Content-Type", "application/json");
-                res.send("{\"error\":\"Failed to serialize storage info\"}");
-            }
-        });
+        // Sampling intervals and the deltas that trigger telemetry events
+        router.get("/api/system/telemetry", (req, res) -> sendTelemetryConfig(res));
+        router.post("/api/system/telemetry", this::postTelemetryConfig);
 
         // Dialog API
-        server.post("/api/dialog/speak", (req, res) -> {
-            String text = getParam(req, "text");
-            if (text == null || text.isEmpty()) {
-                addCorsHeaders(req, res);
-                sendBadRequest(res, "Field 'text' is required");
-                return;
-            }
+        router.post("/api/dialog/speak", (req, res) -> {
+            String text = req.get(TEXT);
             // Mirror current implementation (logging only for now).
-            Log.d(TAG, "Dialog speak text=" + text);
-            addCorsHeaders(req, res);
-            sendQueued(res);
-        });
-
-        server.post("/api/dialog/start_speak_animation", (req, res) -> {
-            mainHandler.post(robotAPI.robot::startFaceSpeakAnimation);
-            addCorsHeaders(req, res);
-            sendQueued(res);
-        });
-
-        server.post("/api/dialog/stop_speak", (req, res) -> {
-            mainHandler.post(robotAPI.robot::stopSpeak);
-            addCorsHeaders(req, res);
-            sendQueued(res);
-        });
-
-        server.post("/api/dialog/voice_trigger", (req, res) -> {
-            boolean enable = getBooleanParam(req, "enable", false);
-            mainHandler.post(() -> robotAPI.robot.setVoiceTrigger(enable));
-            addCorsHeaders(req, res);
-            sendQueued(res);
-        });
-
-        server.post("/api/dialog/head_action", (req, res) -> {
-            boolean enable = getBooleanParam(req, "enable", false);
-            mainHandler.post(() -> robotAPI.robot.setPressOnHeadAction(enable));
-            addCorsHeaders(req, res);
-            sendQueued(res);
-        });
-
-        // Face API
-        server.post("/api/face/expression", (req, res) -> {
-            String expressionStr = getParam(req, "expression");
-            if (expressionStr == null || expressionStr.isEmpty()) {
-                addCorsHeaders(req, res);
-                sendBadRequest(res, "Field 'expression' is required");
-                return;
-            }
-            try {
-                final RobotFace face = RobotFace.valueOf(expressionStr);
-                Log.d(TAG, "Setting expression to " + face);
-                mainHandler.post(() -> robotAPI.robot.setExpression(face));
-                addCorsHeaders(req, res);
-                sendQueued(res);
-            } catch (IllegalArgumentException e) {
-                Log.e(TAG, "Invalid expression: " + expressionStr, e);
-                addCorsHeaders(req, res);
-                sendBadRequest(res, "Invalid 'expression' value");
-            }
+            KiraLog.d(TAG, () -> "Dialog speak text=" + text);
+            ApiRouter.sendJson(res, 200, "{\"status\":\"queued\"}");
         });
 
-        server.post("/api/face/expression_and_speak", (req, res) -> {
-            String expressionStr = getParam(req, "expression");
-            String text = getParam(req, "text");
-            if (expressionStr == null || expressionStr.isEmpty() || text == null || text.isEmpty()) {
-                addCorsHeaders(req, res);
-                sendBadRequest(res, "Fields 'expression' and 'text' are required");
-                return;
-            }
-            try {
-                final RobotFace face = RobotFace.valueOf(expressionStr);
-                mainHandler.post(() -> robotAPI.robot.setExpression(face, text));
-                addCorsHeaders(req, res);
-                sendQueued(res);
-            } catch (IllegalArgumentException e) {
-                Log.e(TAG, "Invalid expression: " + expressionStr, e);
-                addCorsHeaders(req, res);
-                sendBadRequest(res, "Invalid 'expression' value");
-            }
-        });
+        // Dialog, face and utility commands; see RobotCommands for names and parameters.
+        for (String name : robotCommands.names()) {
+            router.post("/api/" + name, (req, res) -> dispatch(req, res, robotCommands.bind(name, req)));
+        }
 
-        // Utility API
-        server.post("/api/utility/follow_face", (req, res) -> {
-            boolean enablePreview = getBooleanParam(req, "enablePreview", false);
-            boolean largePreview = getBooleanParam(req, "largePreview", false);
-            mainHandler.post(() -> robotAPI.utility.followFace(enablePreview, largePreview));
-            addCorsHeaders(req, res);
-            sendQueued(res);
-        });
+        router.post("/api/batch", this::handleBatch);
 
-        server.post("/api/utility/follow_object", (req, res) -> {
-            mainHandler.post(robotAPI.utility::followObject);
-            addCorsHeaders(req, res);
-            sendQueued(res);
+        router.get("/api/utility/get_blue_light_filter_enable", (req, res) -> {
+            // Mirror UtilityApiHandler: return current enable state as a string in "status".
+            boolean enabled = robot.getScreenBlueLightFilterEnable();
+            sendStatus(res, String.valueOf(enabled));
         });
 
-        server.post("/api/utility/stop_following", (req, res) -> {
-            mainHandler.post(() -> robotAPI.cancelCommand(RobotCommand.FOLLOW_USER));
-            addCorsHeaders(req, res);
-            sendQueued(res);
+        router.get("/api/utility/get_blue_light_filter_mode", (req, res) -> {
+            String mode = robot.getScreenBlueLightFilterMode();
+            sendStatus(res, mode != null ? mode : "");
         });
 
-        server.post("/api/utility/track_face", (req, res) -> {
-            boolean enablePreview = getBooleanParam(req, "enablePreview", false);
-            boolean largePreview = getBooleanParam(req, "largePreview", false);
-            mainHandler.post(() -> robotAPI.utility.trackFace(enablePreview, largePreview));
-            addCorsHeaders(req, res);
-            sendQueued(res);
+        // Command API - status of commands submitted through the action endpoints
+        router.get("/api/commands", (req, res) -> {
+            JSONObject obj = new JSONObject();
+            obj.put("lanes", commands.lanesToJson());
+            obj.put("coalesced", commands.coalescedToJson());
+            obj.put("commands", commands.recentToJson(50));
+            ApiRouter.sendJson(res, 200, obj.toString());
         });
 
-        server.post("/api/utility/look_at_user", (req, res) -> {
-            String doaStr = getParam(req, "doa");
-            if (doaStr == null || doaStr.isEmpty()) {
-                addCorsHeaders(req, res);
-                sendBadRequest(res, "Field 'doa' is required");
-                return;
-            }
+        router.get("/api/commands/(\\d+)", (req, res) -> {
+            CommandDispatcher.Command command;
             try {
-                final float doa = Float.parseFloat(doaStr);
-                mainHandler.post(() -> robotAPI.utility.lookAtUser(doa));
-                addCorsHeaders(req, res);
-                sendQueued(res);
+                command = commands.get(Long.parseLong(req.group(1)));
             } catch (NumberFormatException e) {
-                Log.e(TAG, "Invalid doa: " + doaStr, e);
-                addCorsHeaders(req, res);
-                sendBadRequest(res, "Invalid 'doa' value");
+                command = null;
             }
-        });
-
-        server.post("/api/utility/play_action", (req, res) -> {
-            String numberStr = getParam(req, "number");
-            if (numberStr == null || numberStr.isEmpty()) {
-                addCorsHeaders(req, res);
-                sendBadRequest(res, "Field 'number' is required");
+            if (command == null) {
+                ApiRouter.sendError(res, 404, "Unknown command");
                 return;
             }
-            try {
-                final int number = Integer.parseInt(numberStr);
-                mainHandler.post(() -> robotAPI.utility.playAction(number));
-                addCorsHeaders(req, res);
-                sendQueued(res);
-            } catch (NumberFormatException e) {
-                Log.e(TAG, "Invalid number: " + numberStr, e);
-                addCorsHeaders(req, res);
-                sendBadRequest(res, "Invalid 'number' value");
+            if (req.get(WAIT)) {
+                commands.await(command, getWaitTimeout(req), (done, timedOut) -> sendCommand(res, done, timedOut));
+            } else {
+                sendCommand(res, command, false);
             }
         });
 
-        server.post("/api/utility/play_emotional_action", (req, res) -> {
-            String faceStr = getParam(req, "face");
-            String actionStr = getParam(req, "action");
-            if (faceStr == null || faceStr.isEmpty() || actionStr == null || actionStr.isEmpty()) {
-                addCorsHeaders(req, res);
-                sendBadRequest(res, "Fields 'face' and 'action' are required");
-                return;
-            }
-            try {
-                final RobotFace face = RobotFace.valueOf(faceStr);
-                final int action = Integer.parseInt(actionStr);
-                mainHandler.post(() -> robotAPI.utility.playEmotionalAction(face, action));
-                addCorsHeaders(req, res);
-                sendQueued(res);
-            } catch (IllegalArgumentException e) {
-                Log.e(TAG, "Invalid face or action: " + faceStr + ", " + actionStr, e);
-                addCorsHeaders(req, res);
-                sendBadRequest(res, "Invalid 'face' or 'action' value");
-            }
-        });
+        // Debug API - logging level and event payload sampling
+        router.get("/api/debug/logging", (req, res) -> sendLogging(res));
+        router.post("/api/debug/logging", this::postLogging);
 
-        server.get("/api/utility/get_blue_light_filter_enable", (req, res) -> {
-            // Mirror UtilityApiHandler: return current enable state as a string in "status".
-            boolean enabled = robotAPI.utility.getScreenBlueLightFilterEnable();
-            addCorsHeaders(req, res);
-            sendStatus(res, String.valueOf(enabled));
-        });
+        // Debug API - where robot commands run and the main-looper stall threshold
+        router.get("/api/debug/dispatch", (req, res) -> sendDispatch(res));
+        router.post("/api/debug/dispatch", this::postDispatch);
 
-        server.get("/api/utility/get_blue_light_filter_mode", (req, res) -> {
-            String mode = robotAPI.utility.getScreenBlueLightFilterMode();
-            addCorsHeaders(req, res);
-            sendStatus(res, mode != null ? mode : "");
-        });
-
-        server.post("/api/utility/set_blue_light_filter_mode", (req, res) -> {
-            String mode = getParam(req, "mode");
-            if (mode == null || mode.isEmpty()) {
-                addCorsHeaders(req, res);
-                sendBadRequest(res, "Field 'mode' is required");
-                return;
-            }
-            mainHandler.post(() -> robotAPI.utility.setScreenBlueLightFilterMode(mode));
-            addCorsHeaders(req, res);
-            sendQueued(res);
-        });
+        // Debug API - GeckoView startup phases of this process
+        router.get("/api/debug/startup", (req, res) -> ApiRouter.sendJson(res, 200, StartupTrace.toJson().toString()));
 
         server.listen(port);
         started = true;
+        // Warm the SPA cache off the caller's thread so the first GeckoView load is served from memory.
+        AsyncServer.getDefault().post(() -> assetCache.asset("app/index.html"));
         Log.i(TAG, "AsyncRobotApiServer started on http://127.0.0.1:" + port);
     }
 
@@ -517,77 +214,268 @@ public class AsyncRobotApiServer {
         started = false;
     }
 
-    // Helpers
+    // Handlers
+
+    private void postTelemetryConfig(ApiRequest req, AsyncHttpServerResponse res) throws JSONException {
+        // Validate everything before applying anything.
+        EnumMap<TelemetrySampler.Metric, Long> intervals = new EnumMap<>(TelemetrySampler.Metric.class);
+        for (TelemetrySampler.Metric metric : TelemetrySampler.Metric.values()) {
+            Param<Long> param = INTERVALS.get(metric);
+            Long interval = req.get(param);
+            if (interval != null) {
+                if (!TelemetrySampler.isValidInterval(interval)) {
+                    throw new IllegalArgumentException("'" + param.name + "' must be 0 (sample once) or at least "
+                            + TelemetrySampler.MIN_INTERVAL_MS);
+                }
+                intervals.put(metric, interval);
+            }
+        }
+        Double battery = req.get(BATTERY_PERCENT_DELTA);
+        Long memory = req.get(MEMORY_DELTA_BYTES);
+        Long storage = req.get(STORAGE_DELTA_BYTES);
+        if ((battery != null && (battery < 0 || battery.isNaN()))
+                || (memory != null && memory < 0) || (storage != null && storage < 0)) {
+            throw new IllegalArgumentException("Deltas must not be negative");
+        }
 
-    private void sendQueued(AsyncHttpServerResponse res) {
-        res.code(200);
-        res.getHeaders().set("Content-Type", "application/json");
-        res.send("{\"status\":\"queued\"}");
+        for (Map.Entry<TelemetrySampler.Metric, Long> entry : intervals.entrySet()) {
+            telemetry.setInterval(entry.getKey(), entry.getValue());
+        }
+        if (battery != null) {
+            telemetryEvents.setBatteryPercentDelta(battery);
+        }
+        if (memory != null) {
+            telemetryEvents.setMemoryDeltaBytes(memory);
+        }
+        if (storage != null) {
+            telemetryEvents.setStorageDeltaBytes(storage);
+        }
+        sendTelemetryConfig(res);
     }
 
-    private void sendStatus(AsyncHttpServerResponse res, String message) {
-        res.code(200);
-        res.getHeaders().set("Content-Type", "application/json");
-        res.send("{\"status\":\"" + message + "\"}");
+    private void postLogging(ApiRequest req, AsyncHttpServerResponse res) throws JSONException {
+        // Validate everything before applying anything.
+        int level = -1;
+        String levelStr = req.get(LEVEL);
+        if (levelStr != null) {
+            level = KiraLog.parseLevel(levelStr);
+            if (level < 0) {
+                throw new IllegalArgumentException("Invalid 'level' value");
+            }
+        }
+        Integer sampleEvery = req.get(PAYLOAD_SAMPLE_EVERY);
+        if (sampleEvery != null && sampleEvery < 0) {
+            throw new IllegalArgumentException("'payload_sample_every' must not be negative");
+        }
+
+        if (level >= 0) {
+            KiraLog.setLevel(level);
+        }
+        if (sampleEvery != null) {
+            KiraLog.setPayloadSampleEvery(sampleEvery);
+        }
+        Log.i(TAG, "Logging level " + KiraLog.levelName(KiraLog.getLevel())
+                + ", payload sampling 1/" + KiraLog.getPayloadSampleEvery());
+        sendLogging(res);
     }
 
-    private void addCorsHeaders(AsyncHttpServerRequest req, AsyncHttpServerResponse res) {
-        String origin = null;
-        try {
-            origin = req.getHeaders().get("Origin");
-        } catch (Exception ignore) {
+    private void postDispatch(ApiRequest req, AsyncHttpServerResponse res) throws JSONException {
+        String modeStr = req.get(DISPATCH_MODE);
+        RobotExecutor.Mode mode = null;
+        if (modeStr != null) {
+            if (modeStr.equals("main")) {
+                mode = RobotExecutor.Mode.MAIN;
+            } else if (modeStr.equals("thread")) {
+                mode = RobotExecutor.Mode.THREAD;
+            } else {
+                throw new IllegalArgumentException("Invalid 'mode' value");
+            }
+        }
+        Long threshold = req.get(STALL_THRESHOLD_MS);
+        if (threshold != null && threshold <= 0) {
+            throw new IllegalArgumentException("Invalid 'stall_threshold_ms' value");
+        }
+        if (mode != null) {
+            robotExecutor.setMode(mode);
         }
-        if (origin == null || origin.isEmpty()) {
-            origin = "*";
+        if (threshold != null) {
+            robotExecutor.setStallThresholdMs(threshold);
         }
-        res.getHeaders().set("Access-Control-Allow-Origin", origin);
-        res.getHeaders().set("Access-Control-Allow-Credentials", "true");
-        res.getHeaders().set("Access-Control-Allow-Methods", "GET, POST, OPTIONS");
-        res.getHeaders().set("Access-Control-Allow-Headers", "Content-Type, X-Requested-With, Authorization");
+        sendDispatch(res);
     }
 
-    private void sendBadRequest(AsyncHttpServerResponse res, String error) {
-        res.code(400);
-        res.getHeaders().set("Content-Type", "application/json");
-        res.send("{\"error\":\"" + error + "\"}");
+    /**
+     * Submit a RobotAPI call through the dispatcher. Answers {@code queued} with
+     * the command id (and the ids of the queued commands it cancelled, if any),
+     * or with {@code wait=true} holds the response until the command reaches a
+     * final state or {@code timeout_ms} expires. A command skipped as
+     * redundant with one that already succeeded is answered right away, unless
+     * {@code force=true} was passed; one redundant with a command still in
+     * flight is answered like any other, as it may still have to run.
+     */
+    private void dispatch(ApiRequest req, AsyncHttpServerResponse res, CommandDispatcher.Invocation invocation) {
+        boolean wait = req.get(WAIT);
+        long timeoutMs = getWaitTimeout(req);
+        CommandDispatcher.Command command = commands.submit(invocation, !req.get(FORCE));
+        if (command.isUnchanged()) {
+            sendCommand(res, command, false);
+        } else if (wait) {
+            commands.await(command, timeoutMs, (done, timedOut) -> sendCommand(res, done, timedOut));
+        } else {
+            List<Long> cancelled = commands.cancelledBy(command);
+            ApiRouter.sendJson(res, 200, "{\"status\":\"queued\",\"id\":" + command.id
+                    + (cancelled.isEmpty() ? "" : ",\"cancelled\":" + new JSONArray(cancelled)) + "}");
+        }
     }
 
-    private String getParam(AsyncHttpServerRequest request, String name) {
-        // Try form urlencoded body first
+    /** 200 once the command is done, 202 while it is still running. */
+    private void sendCommand(AsyncHttpServerResponse res, CommandDispatcher.Command command, boolean timedOut) {
         try {
-            if (request.getBody() instanceof UrlEncodedFormBody) {
-                UrlEncodedFormBody body = (UrlEncodedFormBody) request.getBody();
-                Multimap map = body.get();
-                if (map != null) {
-                    String value = map.getString(name);
-                    if (value != null) {
-                        return value;
-                    }
-                }
+            JSONObject obj = commands.toJson(command);
+            obj.put("status", obj.getBoolean("done") ? "done" : (timedOut ? "timeout" : "pending"));
+            ApiRouter.sendJson(res, obj.getBoolean("done") ? 200 : 202, obj.toString());
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to build command JSON", e);
+            ApiRouter.sendError(res, 500, "Failed to read command");
+        }
+    }
+
+    /**
+     * Run several commands from one request. The JSON body is
+     * {@code {"mode":"sequential"|"parallel","wait":bool,"stop_on_error":bool,
+     * "timeout_ms":N,"step_timeout_ms":N,"commands":[{"command":"face/expression",
+     * "params":{"expression":"HAPPY"}},...]}}; a text/plain body may be the bare
+     * command array with the options in the query string.
+     *
+     * Every command is validated before any is submitted. {@code parallel}
+     * invokes them all in one main-looper task; {@code sequential} (the default)
+     * starts each command once the previous one is done.
+     */
+    private void handleBatch(ApiRequest req, AsyncHttpServerResponse res) {
+        JSONObject options;
+        JSONArray list;
+        try {
+            Object body = req.json() != null ? req.json() : req.body();
+            if (body instanceof String) {
+                String text = ((String) body).trim();
+                body = text.startsWith("[") ? new JSONArray(text) : new JSONObject(text);
             }
-        } catch (Exception e) {
-            Log.w(TAG, "Failed to read form body param '" + name + "'", e);
+            if (body instanceof JSONArray) {
+                options = new JSONObject();
+                list = (JSONArray) body;
+            } else if (body instanceof JSONObject) {
+                options = (JSONObject) body;
+                list = options.optJSONArray("commands");
+            } else {
+                options = null;
+                list = null;
+            }
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Invalid JSON body");
+        }
+        if (list == null || list.length() == 0) {
+            throw new IllegalArgumentException("Field 'commands' must be a non-empty array");
+        }
+        if (list.length() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("At most " + MAX_BATCH_SIZE + " commands per batch");
+        }
+
+        RobotCommands.Params batchParams = name -> options != null && options.has(name) && !options.isNull(name)
+                ? String.valueOf(options.opt(name))
+                : req.get(name);
+        String mode = batchParams.get("mode");
+        if (mode == null) mode = "sequential";
+        if (!mode.equals("sequential") && !mode.equals("parallel")) {
+            throw new IllegalArgumentException("Invalid 'mode' value");
+        }
+
+        List<CommandDispatcher.Invocation> invocations = new ArrayList<>(list.length());
+        for (int i = 0; i < list.length(); i++) {
+            JSONObject entry = list.optJSONObject(i);
+            String name = entry != null ? entry.optString("command", null) : null;
+            if (name == null || name.isEmpty()) {
+                throw new IllegalArgumentException("Command " + i + ": field 'command' is required");
+            }
+            JSONObject params = entry.optJSONObject("params");
+            try {
+                invocations.add(robotCommands.bind(name, field ->
+                        params == null || params.isNull(field) ? null : String.valueOf(params.opt(field))));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Command " + i + ": " + e.getMessage());
+            }
+        }
+
+        boolean wait = WAIT.read(batchParams);
+        boolean stopOnError = !"false".equals(batchParams.get("stop_on_error"));
+        long timeoutMs = parseTimeout(batchParams.get("timeout_ms"));
+        long stepTimeoutMs = parseTimeout(batchParams.get("step_timeout_ms"));
+
+        List<CommandDispatcher.Command> submitted = mode.equals("parallel")
+                ? commands.submitAll(invocations)
+                : commands.submitSequence(invocations, stepTimeoutMs, stopOnError);
+        String batchMode = mode;
+        if (wait) {
+            commands.awaitAll(submitted, timeoutMs, () -> sendBatch(res, batchMode, submitted, true));
+        } else {
+            sendBatch(res, batchMode, submitted, false);
         }
+    }
 
-        // Fallback to query string
+    private void sendBatch(AsyncHttpServerResponse res, String mode,
+                           List<CommandDispatcher.Command> submitted, boolean waited) {
         try {
-            Multimap query = request.getQuery();
-            if (query != null) {
-                String value = query.getString(name);
-                if (value != null) {
-                    return value;
-                }
+            JSONArray results = new JSONArray();
+            boolean allDone = true;
+            for (int i = 0; i < submitted.size(); i++) {
+                JSONObject obj = commands.toJson(submitted.get(i));
+                obj.put("index", i);
+                allDone &= obj.getBoolean("done");
+                results.put(obj);
             }
-        } catch (Exception e) {
-            Log.w(TAG, "Failed to read query param '" + name + "'", e);
+            JSONObject obj = new JSONObject();
+            obj.put("mode", mode);
+            obj.put("status", !waited ? "queued" : (allDone ? "done" : "timeout"));
+            obj.put("results", results);
+            ApiRouter.sendJson(res, waited && !allDone ? 202 : 200, obj.toString());
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to build batch JSON", e);
+            ApiRouter.sendError(res, 500, "Failed to read batch");
         }
+    }
+
+    // Helpers
+
+    private long getWaitTimeout(ApiRequest req) {
+        return parseTimeout(req.get("timeout_ms"));
+    }
+
+    /** Lenient: a missing or invalid timeout means the default. */
+    private static long parseTimeout(String raw) {
+        if (raw == null) return DEFAULT_WAIT_TIMEOUT_MS;
+        try {
+            return Math.max(0, Math.min(MAX_WAIT_TIMEOUT_MS, Long.parseLong(raw)));
+        } catch (NumberFormatException e) {
+            return DEFAULT_WAIT_TIMEOUT_MS;
+        }
+    }
+
+    private void sendTelemetryConfig(AsyncHttpServerResponse res) throws JSONException {
+        JSONObject obj = telemetryEvents.toJson();
+        for (TelemetrySampler.Metric metric : TelemetrySampler.Metric.values()) {
+            obj.put(metric.key + "_interval_ms", telemetry.getInterval(metric));
+        }
+        ApiRouter.sendJson(res, 200, obj.toString());
+    }
+
+    private void sendStatus(AsyncHttpServerResponse res, String message) {
+        ApiRouter.sendJson(res, 200, "{\"status\":" + JSONObject.quote(message) + "}");
+    }
 
-        return null;
+    private void sendDispatch(AsyncHttpServerResponse res) throws JSONException {
+        ApiRouter.sendJson(res, 200, robotExecutor.toJson().toString());
     }
 
-    private boolean getBooleanParam(AsyncHttpServerRequest request, String name, boolean defaultValue) {
-        String raw = getParam(request, name);
-        if (raw == null) return defaultValue;
-        return Boolean.parseBoolean(raw);
+    private void sendLogging(AsyncHttpServerResponse res) throws JSONException {
+        ApiRouter.sendJson(res, 200, KiraLog.toJson().toString());
     }
 }
@@ -19,6 +19,7 @@ public class BootCompletedReceiver extends BroadcastReceiver {
             // Start the foreground service so the robot API + HTTP/WS servers are available.
             Intent serviceIntent = new Intent(context, RobotApiService.class);
             ContextCompat.startForegroundService(context, serviceIntent);
+            GeckoRuntimeHolder.prewarm(context);
 
             // Also bring up the GeckoView UI so the on-device agent is ready without manual launch.
             // Use a launcher-style MAIN intent so the task is brought to the foreground.
@@ -0,0 +1,260 @@
+package com.robot.asus.kira;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Minimal reusable streaming CBOR (RFC 8949) writer for binary event frames.
+ *
+ * Maps and arrays are written with indefinite length, so nothing has to be
+ * counted up front; floats are written as float32 and doubles as float64. Like
+ * {@link JsonWriter} the buffer is kept across {@link #reset()} calls and the
+ * caller is trusted to produce well-formed nesting. The frame header is written
+ * with the raw {@code put*} methods before the body.
+ */
+public final class CborWriter implements EventWriter {
+
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1 << 5;
+    private static final int MAJOR_TEXT = 3 << 5;
+    private static final int INDEFINITE_ARRAY = 0x9f;
+    private static final int INDEFINITE_MAP = 0xbf;
+    private static final int FALSE = 0xf4;
+    private static final int TRUE = 0xf5;
+    private static final int NULL = 0xf6;
+    private static final int FLOAT32 = 0xfa;
+    private static final int FLOAT64 = 0xfb;
+    private static final int BREAK = 0xff;
+
+    private byte[] buf;
+    private int len = 0;
+
+    public CborWriter() {
+        this(512);
+    }
+
+    public CborWriter(int initialCapacity) {
+        buf = new byte[initialCapacity];
+    }
+
+    /** Discard the current content but keep the buffer. */
+    public CborWriter reset() {
+        len = 0;
+        return this;
+    }
+
+    @Override
+    public CborWriter beginObject() {
+        put(INDEFINITE_MAP);
+        return this;
+    }
+
+    @Override
+    public CborWriter endObject() {
+        put(BREAK);
+        return this;
+    }
+
+    @Override
+    public CborWriter beginArray() {
+        put(INDEFINITE_ARRAY);
+        return this;
+    }
+
+    @Override
+    public CborWriter endArray() {
+        put(BREAK);
+        return this;
+    }
+
+    @Override
+    public CborWriter name(String name) {
+        return value(name);
+    }
+
+    @Override
+    public CborWriter value(String value) {
+        if (value == null) {
+            return nullValue();
+        }
+        // ASCII fast path: names and enum values never need encoding.
+        int n = value.length();
+        boolean ascii = true;
+        for (int i = 0; i < n; i++) {
+            if (value.charAt(i) >= 0x80) {
+                ascii = false;
+                break;
+            }
+        }
+        if (ascii) {
+            head(MAJOR_TEXT, n);
+            ensure(n);
+            for (int i = 0; i < n; i++) {
+                buf[len++] = (byte) value.charAt(i);
+            }
+        } else {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            head(MAJOR_TEXT, utf8.length);
+            putBytes(utf8, 0, utf8.length);
+        }
+        return this;
+    }
+
+    @Override
+    public CborWriter value(boolean value) {
+        put(value ? TRUE : FALSE);
+        return this;
+    }
+
+    @Override
+    public CborWriter value(long value) {
+        if (value >= 0) {
+            head(MAJOR_UNSIGNED, value);
+        } else {
+            head(MAJOR_NEGATIVE, -1 - value);
+        }
+        return this;
+    }
+
+    @Override
+    public CborWriter value(float value) {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            return nullValue();
+        }
+        put(FLOAT32);
+        putInt(Float.floatToIntBits(value));
+        return this;
+    }
+
+    @Override
+    public CborWriter value(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return nullValue();
+        }
+        put(FLOAT64);
+        putLong(Double.doubleToLongBits(value));
+        return this;
+    }
+
+    @Override
+    public CborWriter nullValue() {
+        put(NULL);
+        return this;
+    }
+
+    @Override
+    public CborWriter jsonValue(Object value) {
+        if (value == null || value == JSONObject.NULL) {
+            return nullValue();
+        }
+        if (value instanceof JSONObject) {
+            JSONObject obj = (JSONObject) value;
+            beginObject();
+            Iterator<String> keys = obj.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                name(key);
+                jsonValue(obj.opt(key));
+            }
+            return endObject();
+        }
+        if (value instanceof JSONArray) {
+            JSONArray arr = (JSONArray) value;
+            beginArray();
+            for (int i = 0; i < arr.length(); i++) {
+                jsonValue(arr.opt(i));
+            }
+            return endArray();
+        }
+        if (value instanceof Boolean) {
+            return value(((Boolean) value).booleanValue());
+        }
+        if (value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte) {
+            return value(((Number) value).longValue());
+        }
+        if (value instanceof Float) {
+            return value(((Float) value).floatValue());
+        }
+        if (value instanceof Number) {
+            return value(((Number) value).doubleValue());
+        }
+        return value(value.toString());
+    }
+
+    // Raw access for the frame header.
+
+    public CborWriter put(int b) {
+        ensure(1);
+        buf[len++] = (byte) b;
+        return this;
+    }
+
+    /** Big-endian. */
+    public CborWriter putShort(int v) {
+        ensure(2);
+        buf[len++] = (byte) (v >>> 8);
+        buf[len++] = (byte) v;
+        return this;
+    }
+
+    /** Big-endian. */
+    public CborWriter putInt(int v) {
+        ensure(4);
+        buf[len++] = (byte) (v >>> 24);
+        buf[len++] = (byte) (v >>> 16);
+        buf[len++] = (byte) (v >>> 8);
+        buf[len++] = (byte) v;
+        return this;
+    }
+
+    /** Big-endian. */
+    public CborWriter putLong(long v) {
+        putInt((int) (v >>> 32));
+        return putInt((int) v);
+    }
+
+    public CborWriter putBytes(byte[] b, int off, int n) {
+        ensure(n);
+        System.arraycopy(b, off, buf, len, n);
+        len += n;
+        return this;
+    }
+
+    /** Number of bytes written so far. */
+    public int length() {
+        return len;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, len);
+    }
+
+    private void head(int major, long arg) {
+        if (arg < 24) {
+            put(major | (int) arg);
+        } else if (arg < 0x100) {
+            put(major | 24);
+            put((int) arg);
+        } else if (arg < 0x10000) {
+            put(major | 25);
+            putShort((int) arg);
+        } else if (arg < 0x100000000L) {
+            put(major | 26);
+            putInt((int) arg);
+        } else {
+            put(major | 27);
+            putLong(arg);
+        }
+    }
+
+    private void ensure(int extra) {
+        if (len + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+        }
+    }
+}
@@ -0,0 +1,741 @@
+package com.robot.asus.kira;
+
+import android.os.Bundle;
+import android.util.Log;
+
+import com.asus.robotframework.API.RobotCmdState;
+import com.asus.robotframework.API.RobotErrorCode;
+import com.koushikdutta.async.AsyncServer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs RobotAPI commands and tracks them until the robot reports a final state.
+ *
+ * Each {@link #submit} gets an id right away. The RobotAPI call runs on the
+ * robot executor (see {@link RobotExecutor}), or on the main executor if the
+ * invocation needs the main thread, and returns the serial the robot assigned;
+ * {@code onStateChange}/{@code onResult} callbacks from {@link RobotApiService}
+ * are matched to the command through that serial. Callbacks can arrive before
+ * the call has returned the serial, so unmatched states are parked briefly and
+ * applied once the serial is bound.
+ *
+ * Commands wait in priority {@link Lane}s ({@link CommandScheduler}) rather
+ * than in the looper queue, so a stop command overtakes queued gestures. An
+ * invocation that {@link Invocation#preempting preempts} a kind of command
+ * cancels every command of that kind that has not started yet; they finish
+ * as CANCELLED with {@code cancelled_by} set to the stop command's id, and
+ * the stop command lists their ids in {@code cancelled}.
+ *
+ * Invocations can also name a state key and value ({@link Invocation#coalescing}).
+ * A single {@link #submit} whose value is redundant with the latest command
+ * under the same key (an unchanged expression, a nearly equal DOA) finishes
+ * as UNCHANGED with {@code same_as} once that command has succeeded, right
+ * away if it already has; if that command fails or is cancelled instead, the
+ * redundant one runs after all. One that arrives while the previous command
+ * of the same name is still queued replaces it, and the queued one finishes
+ * as MERGED with {@code merged_into}. Batches and
+ * {@code submit(invocation, false)} bypass this but still update the state.
+ *
+ * Waiters registered with {@link #await} are called on the AsyncServer thread,
+ * either when the command reaches REJECTED, FAILED, SUCCEED or PREEMPTED (or
+ * is cancelled) or when the timeout expires. Only the last {@link #HISTORY_SIZE} commands are kept.
+ * Round-trip times from submit to the final state are recorded per command
+ * in {@code kira_command_duration_seconds}.
+ */
+public class CommandDispatcher {
+
+    private static final String TAG = "CommandDispatcher";
+
+    static final int HISTORY_SIZE = 256;
+    private static final int MAX_PARKED_STATES = 64;
+
+    private static final Metrics.Family<Metrics.Histogram> COMMAND_SECONDS = Metrics.histogram(
+            "kira_command_duration_seconds", "Time from submitting a robot command to its final state.",
+            "command", Metrics.COMMAND_BUCKETS_NANOS);
+    private static final Metrics.Family<Metrics.Counter> COMMANDS = Metrics.counter(
+            "kira_commands_total", "Finished robot commands by final state.", "state");
+    private static final Metrics.Family<Metrics.Counter> COALESCED = Metrics.counter(
+            "kira_commands_coalesced_total", "Commands skipped as unchanged or merged into a newer one.", "result");
+    private static final Metrics.Counter UNCHANGED = COALESCED.labels("unchanged");
+    private static final Metrics.Counter MERGED = COALESCED.labels("merged");
+
+    /** A RobotAPI call; returns the command serial. Runs on the robot executor. */
+    public interface RobotCall {
+        int invoke();
+    }
+
+    /** Priority lanes, highest first; within a lane commands run in submission order. */
+    public enum Lane {
+        /** Stop and cancel commands. */
+        STOP,
+        /** Short commands a user is waiting for, e.g. expressions and speech (the default). */
+        INTERACTIVE,
+        /** Long gestures and settings. */
+        BACKGROUND
+    }
+
+    /** A validated command ready to be submitted. */
+    public static final class Invocation {
+        public final String name;
+        /** False for settings calls that never report a state; these are done once invoked. */
+        public final boolean tracked;
+        /** Whether the call must run on the main looper even when robot calls run on a background thread. */
+        public final boolean mainThread;
+        public final Lane lane;
+        /** What a stop command can cancel, e.g. {@code speech}; null if nothing. */
+        public final String kind;
+        /** Kinds whose unstarted commands this one cancels. */
+        final Set<String> preempts;
+        /** State this command sets, e.g. {@code face}, and its value; null if none. */
+        final String stateKey;
+        final Object value;
+        /** Null if the command is never redundant (it still updates the state). */
+        final Redundancy<Object> redundancy;
+        final RobotCall call;
+
+        public Invocation(String name, boolean tracked, RobotCall call) {
+            this(name, tracked, false, call);
+        }
+
+        public Invocation(String name, boolean tracked, boolean mainThread, RobotCall call) {
+            this(name, tracked, mainThread, Lane.INTERACTIVE, null, Collections.emptySet(), null, null, null, call);
+        }
+
+        private Invocation(String name, boolean tracked, boolean mainThread, Lane lane, String kind,
+                           Set<String> preempts, String stateKey, Object value, Redundancy<Object> redundancy,
+                           RobotCall call) {
+            this.name = name;
+            this.tracked = tracked;
+            this.mainThread = mainThread;
+            this.lane = lane;
+            this.kind = kind;
+            this.preempts = preempts;
+            this.stateKey = stateKey;
+            this.value = value;
+            this.redundancy = redundancy;
+            this.call = call;
+        }
+
+        public Invocation inLane(Lane lane) {
+            return new Invocation(name, tracked, mainThread, lane, kind, preempts, stateKey, value, redundancy, call);
+        }
+
+        public Invocation ofKind(String kind) {
+            return new Invocation(name, tracked, mainThread, lane, kind, preempts, stateKey, value, redundancy, call);
+        }
+
+        /** Runs in {@link Lane#STOP} and cancels the unstarted commands of the given kinds when submitted. */
+        public Invocation preempting(String... kinds) {
+            return new Invocation(name, tracked, mainThread, Lane.STOP, kind,
+                    new HashSet<>(Arrays.asList(kinds)), stateKey, value, redundancy, call);
+        }
+
+        /**
+         * Sets {@code value} as the state {@code key}; see the class comment.
+         *
+         * @param redundancy null if the command must always run
+         */
+        @SuppressWarnings("unchecked")
+        public <T> Invocation coalescing(String key, T value, Redundancy<T> redundancy) {
+            return new Invocation(name, tracked, mainThread, lane, kind, preempts, key, value,
+                    (Redundancy<Object>) redundancy, call);
+        }
+    }
+
+    /** Whether a command would change nothing, given the latest value submitted under the same state key. */
+    public interface Redundancy<T> {
+        boolean isRedundant(T last, T next, long ageMs);
+    }
+
+    /** Called once per {@link #await}, on the AsyncServer thread. */
+    public interface Waiter {
+        void onDone(Command command, boolean timedOut);
+    }
+
+    public static final class Command {
+        public final long id;
+        public final String name;
+        /** False for settings calls that never report a state; these are done once invoked. */
+        public final boolean tracked;
+        public final Lane lane;
+        final String kind;
+        final Object value;
+        final long submittedAtMs = System.currentTimeMillis();
+        final long submittedNanos = System.nanoTime();
+
+        // Guarded by the dispatcher.
+        int serial = -1;
+        boolean dispatched;
+        /** When the RobotAPI call started, after waiting in the executor's queue. */
+        long startedNanos;
+        RobotCmdState state;
+        RobotErrorCode error;
+        String result;
+        String failure;
+        boolean skipped;
+        /** Id of the stop command that cancelled this one before it started, or 0. */
+        long cancelledBy;
+        /** Ids of the commands this one cancelled, or null. */
+        List<Long> cancelled;
+        /** Id of the command that made this one redundant, or 0. */
+        long sameAs;
+        /** Id of the newer command that replaced this one while it was queued, or 0. */
+        long mergedInto;
+        long doneNanos;
+        List<Waiter> waiters;
+
+        Command(long id, Invocation invocation) {
+            this.id = id;
+            this.name = invocation.name;
+            this.tracked = invocation.tracked;
+            this.lane = invocation.lane;
+            this.kind = invocation.kind;
+            this.value = invocation.value;
+        }
+
+        /** Skipped because it would not have changed the robot's state; set before {@link #submit} returns. */
+        public boolean isUnchanged() {
+            return sameAs != 0;
+        }
+
+        boolean isDone() {
+            return doneNanos != 0;
+        }
+
+        boolean isFailed() {
+            return failure != null || cancelledBy != 0 || state == RobotCmdState.FAILED
+                    || state == RobotCmdState.REJECTED || state == RobotCmdState.PREEMPTED;
+        }
+    }
+
+    private static final class ParkedState {
+        final RobotErrorCode error;
+        final RobotCmdState state;
+
+        ParkedState(RobotErrorCode error, RobotCmdState state) {
+            this.error = error;
+            this.state = state;
+        }
+    }
+
+    private final CommandScheduler robotScheduler;
+    private final CommandScheduler mainScheduler;
+    private final AsyncServer callbackServer;
+
+    // All state below is guarded by this.
+    private long nextId = 1;
+    private final LinkedHashMap<Long, Command> history = new LinkedHashMap<Long, Command>(HISTORY_SIZE, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Command> eldest) {
+            if (size() > HISTORY_SIZE) {
+                Command evicted = eldest.getValue();
+                if (bySerial.get(evicted.serial) == evicted) {
+                    bySerial.remove(evicted.serial);
+                }
+                return true;
+            }
+            return false;
+        }
+    };
+    private final HashMap<Integer, Command> bySerial = new HashMap<>();
+    /** State key -> latest command that set it. */
+    private final HashMap<String, Command> latest = new HashMap<>();
+    private final LinkedHashMap<Integer, ParkedState> parkedStates = new LinkedHashMap<Integer, ParkedState>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, ParkedState> eldest) {
+            return size() > MAX_PARKED_STATES;
+        }
+    };
+
+    public CommandDispatcher(Executor robotExecutor) {
+        this(robotExecutor, robotExecutor, AsyncServer.getDefault());
+    }
+
+    /** @param mainExecutor runs the invocations that need the main thread */
+    public CommandDispatcher(Executor robotExecutor, Executor mainExecutor) {
+        this(robotExecutor, mainExecutor, AsyncServer.getDefault());
+    }
+
+    public CommandDispatcher(Executor robotExecutor, Executor mainExecutor, AsyncServer callbackServer) {
+        this.robotScheduler = new CommandScheduler(robotExecutor);
+        this.mainScheduler = mainExecutor == robotExecutor ? robotScheduler : new CommandScheduler(mainExecutor);
+        this.callbackServer = callbackServer;
+    }
+
+    public Command submit(Invocation invocation) {
+        return submit(invocation, true);
+    }
+
+    /** @param coalesce false to run the command even if it is redundant */
+    public Command submit(Invocation invocation, boolean coalesce) {
+        Command command;
+        Command merged = null;
+        List<Waiter> mergedWaiters = null;
+        synchronized (this) {
+            Command last = invocation.stateKey != null ? latest.get(invocation.stateKey) : null;
+            command = create(invocation);
+            if (coalesce && invocation.redundancy != null && last != null && !last.isFailed()
+                    && (!last.isDone() || succeeded(last))) {
+                long ageMs = (command.submittedNanos - last.submittedNanos) / 1_000_000;
+                if (invocation.redundancy.isRedundant(last.value, invocation.value, ageMs)) {
+                    // The latest state stays `last`, so a debounce window stays anchored at the last real change.
+                    latest.put(invocation.stateKey, last);
+                    if (last.isDone()) {
+                        command.sameAs = last.id;
+                        UNCHANGED.inc();
+                        markDone(command);
+                    } else {
+                        // Only unchanged if `last` gets there; settled when it is done.
+                        if (last.waiters == null) {
+                            last.waiters = new ArrayList<>(1);
+                        }
+                        last.waiters.add(new Follower(command, invocation));
+                    }
+                    return command;
+                }
+                if (last.startedNanos == 0 && !last.isDone() && last.name.equals(command.name)) {
+                    last.mergedInto = command.id;
+                    MERGED.inc();
+                    merged = last;
+                    mergedWaiters = markDone(last);
+                }
+            }
+        }
+        if (merged != null) {
+            notifyDone(merged, mergedWaiters);
+        }
+        preempt(Collections.singletonList(command), Collections.singletonList(invocation));
+        schedulerFor(invocation).schedule(invocation.lane, () -> invoke(command, invocation.call));
+        return command;
+    }
+
+    /**
+     * Invoke all commands in order from a single executor task, without waiting
+     * between them; on the main executor if any of them needs the main thread,
+     * and in the highest lane of any of them.
+     */
+    public List<Command> submitAll(List<Invocation> invocations) {
+        List<Command> commands = new ArrayList<>(invocations.size());
+        CommandScheduler scheduler = robotScheduler;
+        Lane lane = Lane.BACKGROUND;
+        for (Invocation invocation : invocations) {
+            commands.add(create(invocation));
+            if (invocation.mainThread) {
+                scheduler = mainScheduler;
+            }
+            if (invocation.lane.ordinal() < lane.ordinal()) {
+                lane = invocation.lane;
+            }
+        }
+        preempt(commands, invocations);
+        scheduler.schedule(lane, () -> {
+            for (int i = 0; i < commands.size(); i++) {
+                invoke(commands.get(i), invocations.get(i).call);
+            }
+        });
+        return commands;
+    }
+
+    /**
+     * Invoke each command once the previous one is done, or after
+     * {@code stepTimeoutMs} if it never reports. With {@code stopOnError} the
+     * commands after a failed one are skipped.
+     */
+    public List<Command> submitSequence(List<Invocation> invocations, long stepTimeoutMs, boolean stopOnError) {
+        List<Command> commands = new ArrayList<>(invocations.size());
+        for (Invocation invocation : invocations) {
+            commands.add(create(invocation));
+        }
+        preempt(commands, invocations);
+        runStep(commands, invocations, 0, stepTimeoutMs, stopOnError);
+        return commands;
+    }
+
+    public synchronized Command get(long id) {
+        return history.get(id);
+    }
+
+    /**
+     * Call {@code waiter} once the command is done, or after {@code timeoutMs}
+     * with {@code timedOut} set.
+     */
+    public void await(Command command, long timeoutMs, Waiter waiter) {
+        synchronized (this) {
+            if (!command.isDone()) {
+                if (command.waiters == null) {
+                    command.waiters = new ArrayList<>(1);
+                }
+                command.waiters.add(waiter);
+                callbackServer.postDelayed(() -> expire(command, waiter), timeoutMs);
+                return;
+            }
+        }
+        callbackServer.post(() -> waiter.onDone(command, false));
+    }
+
+    /** Like {@link #await} for several commands; {@code timedOut} is set if any was still running. */
+    public void awaitAll(List<Command> commands, long timeoutMs, Runnable onDone) {
+        if (commands.isEmpty()) {
+            callbackServer.post(onDone);
+            return;
+        }
+        int[] remaining = {commands.size()};
+        for (Command command : commands) {
+            // Waiters all run on the callback server thread, so the counter needs no lock.
+            await(command, timeoutMs, (done, timedOut) -> {
+                if (--remaining[0] == 0) {
+                    onDone.run();
+                }
+            });
+        }
+    }
+
+    public void onStateChange(int serial, RobotErrorCode error, RobotCmdState state) {
+        Command command;
+        List<Waiter> done;
+        synchronized (this) {
+            command = bySerial.get(serial);
+            if (command == null) {
+                parkedStates.put(serial, new ParkedState(error, state));
+                return;
+            }
+            done = applyState(command, error, state);
+        }
+        notifyDone(command, done);
+    }
+
+    public synchronized void onResult(int serial, RobotErrorCode error, Bundle result) {
+        Command command = bySerial.get(serial);
+        if (command == null) return;
+        if (error != null && error != RobotErrorCode.NO_ERROR) {
+            command.error = error;
+        }
+        if (result != null) {
+            command.result = result.toString();
+        }
+    }
+
+    public synchronized JSONArray recentToJson(int limit) throws JSONException {
+        ArrayList<Command> commands = new ArrayList<>(history.values());
+        JSONArray arr = new JSONArray();
+        for (int i = commands.size() - 1; i >= 0 && arr.length() < limit; i--) {
+            arr.put(toJsonLocked(commands.get(i)));
+        }
+        return arr;
+    }
+
+    public synchronized JSONObject toJson(Command command) throws JSONException {
+        return toJsonLocked(command);
+    }
+
+    /** Ids of the commands {@code command} cancelled when it was submitted; empty if none. */
+    public synchronized List<Long> cancelledBy(Command command) {
+        return command.cancelled != null ? new ArrayList<>(command.cancelled) : Collections.emptyList();
+    }
+
+    /** {@code {"unchanged":N,"merged":N}} since the service started. */
+    public JSONObject coalescedToJson() throws JSONException {
+        JSONObject obj = new JSONObject();
+        obj.put("unchanged", UNCHANGED.get());
+        obj.put("merged", MERGED.get());
+        return obj;
+    }
+
+    /** Commands not started yet in each lane, e.g. {@code {"stop":0,"interactive":2,"background":5}}. */
+    public synchronized JSONObject lanesToJson() throws JSONException {
+        int[] queued = new int[Lane.values().length];
+        for (Command command : history.values()) {
+            if (command.startedNanos == 0 && !command.isDone()) {
+                queued[command.lane.ordinal()]++;
+            }
+        }
+        JSONObject obj = new JSONObject();
+        for (Lane lane : Lane.values()) {
+            obj.put(lane.name().toLowerCase(Locale.ROOT), queued[lane.ordinal()]);
+        }
+        return obj;
+    }
+
+    private synchronized Command create(Invocation invocation) {
+        Command command = new Command(nextId++, invocation);
+        history.put(command.id, command);
+        if (invocation.stateKey != null) {
+            latest.put(invocation.stateKey, command);
+        }
+        return command;
+    }
+
+    /**
+     * Cancel the unstarted commands of the kinds the new commands preempt.
+     * Commands submitted together are never cancelled by each other.
+     */
+    private void preempt(List<Command> submitted, List<Invocation> invocations) {
+        List<Command> cancelled = null;
+        List<List<Waiter>> waiters = null;
+        synchronized (this) {
+            for (int i = 0; i < submitted.size(); i++) {
+                Invocation invocation = invocations.get(i);
+                if (invocation.preempts.isEmpty()) continue;
+                Command stop = submitted.get(i);
+                for (Command queued : history.values()) {
+                    if (queued.startedNanos != 0 || queued.isDone() || queued.kind == null
+                            || !invocation.preempts.contains(queued.kind) || submitted.contains(queued)) {
+                        continue;
+                    }
+                    queued.cancelledBy = stop.id;
+                    if (stop.cancelled == null) {
+                        stop.cancelled = new ArrayList<>();
+                    }
+                    stop.cancelled.add(queued.id);
+                    if (cancelled == null) {
+                        cancelled = new ArrayList<>();
+                        waiters = new ArrayList<>();
+                    }
+                    cancelled.add(queued);
+                    waiters.add(markDone(queued));
+                }
+                if (stop.cancelled != null) {
+                    Log.i(TAG, stop.name + " (" + stop.id + ") cancelled queued commands " + stop.cancelled);
+                }
+            }
+        }
+        if (cancelled == null) return;
+        for (int i = 0; i < cancelled.size(); i++) {
+            notifyDone(cancelled.get(i), waiters.get(i));
+        }
+    }
+
+    private void runStep(List<Command> commands, List<Invocation> invocations, int index,
+                         long stepTimeoutMs, boolean stopOnError) {
+        if (index >= commands.size()) return;
+        Command command = commands.get(index);
+        Invocation invocation = invocations.get(index);
+        schedulerFor(invocation).schedule(invocation.lane, () -> invoke(command, invocation.call));
+        await(command, stepTimeoutMs, (done, timedOut) -> {
+            if (stopOnError && done.isFailed()) {
+                for (int i = index + 1; i < commands.size(); i++) {
+                    skip(commands.get(i));
+                }
+                return;
+            }
+            runStep(commands, invocations, index + 1, stepTimeoutMs, stopOnError);
+        });
+    }
+
+    private void skip(Command command) {
+        List<Waiter> done;
+        synchronized (this) {
+            command.skipped = true;
+            done = markDone(command);
+        }
+        notifyDone(command, done);
+    }
+
+    private CommandScheduler schedulerFor(Invocation invocation) {
+        return invocation.mainThread ? mainScheduler : robotScheduler;
+    }
+
+    private void invoke(Command command, RobotCall call) {
+        synchronized (this) {
+            // Cancelled (or skipped) while it was queued.
+            if (command.isDone()) return;
+            command.startedNanos = System.nanoTime();
+        }
+        int serial;
+        try {
+            serial = call.invoke();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Command " + command.name + " failed", e);
+            List<Waiter> done;
+            synchronized (this) {
+                command.failure = e.toString();
+                command.state = RobotCmdState.FAILED;
+                done = markDone(command);
+            }
+            notifyDone(command, done);
+            return;
+        }
+
+        List<Waiter> done = null;
+        synchronized (this) {
+            command.serial = serial;
+            command.dispatched = true;
+            if (!command.tracked) {
+                done = markDone(command);
+            } else {
+                bySerial.put(serial, command);
+                ParkedState parked = parkedStates.remove(serial);
+                if (parked != null) {
+                    done = applyState(command, parked.error, parked.state);
+                }
+            }
+        }
+        notifyDone(command, done);
+    }
+
+    // Caller holds this.
+    private List<Waiter> applyState(Command command, RobotErrorCode error, RobotCmdState state) {
+        command.state = state;
+        if (error != null && error != RobotErrorCode.NO_ERROR) {
+            command.error = error;
+        }
+        if (state == RobotCmdState.SUCCEED || state == RobotCmdState.FAILED
+                || state == RobotCmdState.REJECTED || state == RobotCmdState.PREEMPTED) {
+            bySerial.remove(command.serial);
+            return markDone(command);
+        }
+        return null;
+    }
+
+    // Caller holds this.
+    private List<Waiter> markDone(Command command) {
+        if (command.isDone()) return null;
+        command.doneNanos = System.nanoTime();
+        COMMANDS.labels(stateName(command)).inc();
+        if (command.startedNanos != 0) {
+            COMMAND_SECONDS.labels(command.name).observeNanos(command.doneNanos - command.submittedNanos);
+        }
+        List<Waiter> waiters = command.waiters;
+        command.waiters = null;
+        return waiters;
+    }
+
+    private void notifyDone(Command command, List<Waiter> waiters) {
+        if (waiters == null) return;
+        List<Waiter> posted = new ArrayList<>(waiters.size());
+        for (Waiter waiter : waiters) {
+            if (waiter instanceof Follower) {
+                waiter.onDone(command, false);
+            } else {
+                posted.add(waiter);
+            }
+        }
+        if (posted.isEmpty()) return;
+        // Commands finish on RobotAPI callback threads; responses go out on the server thread.
+        callbackServer.post(() -> {
+            for (Waiter waiter : posted) {
+                waiter.onDone(command, false);
+            }
+        });
+    }
+
+    /** Whether a done command did what it was asked: the robot reported SUCCEED, or an untracked call returned. */
+    private static boolean succeeded(Command command) {
+        return command.state == RobotCmdState.SUCCEED
+                || (!command.tracked && command.dispatched && command.failure == null);
+    }
+
+    /**
+     * A command that was redundant with one still in flight. Settled inline (not on
+     * the callback server) when that one is done: UNCHANGED if it succeeded, MERGED
+     * if it was replaced, and otherwise scheduled to run after all.
+     */
+    private final class Follower implements Waiter {
+        final Command command;
+        final Invocation invocation;
+
+        Follower(Command command, Invocation invocation) {
+            this.command = command;
+            this.invocation = invocation;
+        }
+
+        @Override
+        public void onDone(Command last, boolean timedOut) {
+            List<Waiter> done = null;
+            boolean run = false;
+            synchronized (CommandDispatcher.this) {
+                // Cancelled by a stop command while it waited.
+                if (command.isDone()) return;
+                if (succeeded(last)) {
+                    command.sameAs = last.id;
+                    UNCHANGED.inc();
+                    done = markDone(command);
+                } else if (last.mergedInto != 0) {
+                    command.mergedInto = last.mergedInto;
+                    MERGED.inc();
+                    done = markDone(command);
+                } else {
+                    if (latest.get(invocation.stateKey) == last) {
+                        latest.put(invocation.stateKey, command);
+                    }
+                    run = true;
+                }
+            }
+            if (run) {
+                schedulerFor(invocation).schedule(invocation.lane, () -> invoke(command, invocation.call));
+            } else {
+                notifyDone(command, done);
+            }
+        }
+    }
+
+    private void expire(Command command, Waiter waiter) {
+        synchronized (this) {
+            if (command.waiters == null || !command.waiters.remove(waiter)) {
+                return;
+            }
+        }
+        waiter.onDone(command, true);
+    }
+
+    // Caller holds this.
+    private JSONObject toJsonLocked(Command command) throws JSONException {
+        JSONObject obj = new JSONObject();
+        obj.put("id", command.id);
+        obj.put("command", command.name);
+        obj.put("serial", command.serial >= 0 ? command.serial : JSONObject.NULL);
+        obj.put("state", stateName(command));
+        obj.put("lane", command.lane.name().toLowerCase(Locale.ROOT));
+        obj.put("done", command.isDone());
+        obj.put("err_code", command.error != null ? command.error.name() : JSONObject.NULL);
+        if (command.result != null) {
+            obj.put("result", command.result);
+        }
+        if (command.failure != null) {
+            obj.put("failure", command.failure);
+        }
+        if (command.cancelledBy != 0) {
+            obj.put("cancelled_by", command.cancelledBy);
+        }
+        if (command.cancelled != null) {
+            obj.put("cancelled", new JSONArray(command.cancelled));
+        }
+        if (command.sameAs != 0) {
+            obj.put("same_as", command.sameAs);
+        }
+        if (command.mergedInto != 0) {
+            obj.put("merged_into", command.mergedInto);
+        }
+        obj.put("submitted_at", command.submittedAtMs);
+        if (command.startedNanos != 0) {
+            obj.put("queue_ms", (command.startedNanos - command.submittedNanos) / 1_000_000);
+        }
+        long end = command.isDone() ? command.doneNanos : System.nanoTime();
+        obj.put("elapsed_ms", (end - command.submittedNanos) / 1_000_000);
+        return obj;
+    }
+
+    private static String stateName(Command command) {
+        if (command.skipped) return "SKIPPED";
+        if (command.cancelledBy != 0) return "CANCELLED";
+        if (command.sameAs != 0) return "UNCHANGED";
+        if (command.mergedInto != 0) return "MERGED";
+        if (command.state != null) return command.state.name();
+        return command.dispatched ? "DISPATCHED" : "QUEUED";
+    }
+}
@@ -0,0 +1,91 @@
+package com.robot.asus.kira;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Priority lanes in front of a robot executor.
+ *
+ * Tasks wait here rather than in the looper's FIFO queue: at most one drain
+ * task is posted to the executor at a time, and each run takes the oldest
+ * task of the highest-priority non-empty {@link CommandDispatcher.Lane}, then
+ * posts itself again if more are waiting. A stop command submitted during a
+ * burst therefore runs after at most the command that is already running.
+ */
+final class CommandScheduler {
+
+    private static final String TAG = "CommandScheduler";
+
+    private final Executor executor;
+    /** Iterated in {@link CommandDispatcher.Lane} order, highest priority first. */
+    private final EnumMap<CommandDispatcher.Lane, ArrayDeque<Runnable>> lanes =
+            new EnumMap<>(CommandDispatcher.Lane.class);
+
+    // Guarded by this.
+    private boolean drainPosted = false;
+
+    CommandScheduler(Executor executor) {
+        this.executor = executor;
+        for (CommandDispatcher.Lane lane : CommandDispatcher.Lane.values()) {
+            lanes.put(lane, new ArrayDeque<>());
+        }
+    }
+
+    void schedule(CommandDispatcher.Lane lane, Runnable task) {
+        synchronized (this) {
+            lanes.get(lane).addLast(task);
+            if (drainPosted) return;
+            drainPosted = true;
+        }
+        executor.execute(this::drain);
+    }
+
+    private void drain() {
+        Runnable task;
+        synchronized (this) {
+            task = poll();
+            if (task == null) {
+                drainPosted = false;
+                return;
+            }
+        }
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            // Tasks report their own failures; one that escapes must not stall the lanes behind it.
+            Log.e(TAG, "Scheduled task failed", e);
+        }
+        synchronized (this) {
+            if (isEmpty()) {
+                drainPosted = false;
+                return;
+            }
+        }
+        // One task per post, so the looper can interleave other work and newer stop commands.
+        executor.execute(this::drain);
+    }
+
+    // Caller holds this.
+    private Runnable poll() {
+        for (ArrayDeque<Runnable> lane : lanes.values()) {
+            Runnable task = lane.pollFirst();
+            if (task != null) {
+                return task;
+            }
+        }
+        return null;
+    }
+
+    // Caller holds this.
+    private boolean isEmpty() {
+        for (ArrayDeque<Runnable> lane : lanes.values()) {
+            if (!lane.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
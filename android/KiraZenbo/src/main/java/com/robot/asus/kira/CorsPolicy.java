@@ -0,0 +1,98 @@
+package com.robot.asus.kira;
+
+import com.koushikdutta.async.http.Headers;
+import com.koushikdutta.async.http.server.AsyncHttpServerRequest;
+import com.koushikdutta.async.http.server.AsyncHttpServerResponse;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * CORS for the HTTP API: an origin allowlist and direct answers to preflights.
+ *
+ * An allowed {@code Origin} is echoed back (credentials are allowed, so it
+ * cannot be {@code *}); other origins get no CORS headers, so the browser
+ * blocks the response, and {@link ApiRouter} refuses their POSTs unless they are
+ * same-origin ({@link #isSameOrigin}). {@code OPTIONS} preflights are answered with 204 and
+ * {@code Access-Control-Max-Age}, so a browser asks once per origin and URL
+ * instead of before every JSON POST. All header values except the echoed
+ * origin are constants.
+ */
+public final class CorsPolicy {
+
+    static final String ALLOW_METHODS = "GET, POST, OPTIONS";
+    static final String ALLOW_HEADERS = "Content-Type, X-Requested-With, Authorization";
+    /** Chrome caps the preflight cache at 2 hours, Firefox at 24. */
+    static final String MAX_AGE_SECONDS = "7200";
+
+    private final Set<String> origins = new HashSet<>();
+    private final boolean allowAny;
+
+    /** @param allowedOrigins e.g. {@code http://localhost:5173}; {@code *} allows any origin */
+    public CorsPolicy(Collection<String> allowedOrigins) {
+        boolean any = false;
+        for (String origin : allowedOrigins) {
+            if ("*".equals(origin)) {
+                any = true;
+            } else {
+                origins.add(origin);
+            }
+        }
+        this.allowAny = any;
+    }
+
+    /** Also allow the server's own origins, which pages it serves use when they address it by the other host name. */
+    public void allowServer(int port) {
+        origins.add("http://127.0.0.1:" + port);
+        origins.add("http://localhost:" + port);
+    }
+
+    public boolean isAllowed(String origin) {
+        return origin != null && (allowAny || origins.contains(origin));
+    }
+
+    /**
+     * Whether the request comes from a page this server served itself, e.g. Swagger UI
+     * opened at {@code http://<robot-ip>:8787/docs/}. Browsers send {@code Origin} on
+     * same-origin POSTs too; those are always allowed, whatever host name was used.
+     */
+    public static boolean isSameOrigin(AsyncHttpServerRequest req) {
+        String origin = req.getHeaders().get("Origin");
+        String host = req.getHeaders().get("Host");
+        return origin != null && host != null && origin.equalsIgnoreCase("http://" + host);
+    }
+
+    /** Headers for an actual (non-preflight) response. */
+    public void apply(AsyncHttpServerRequest req, AsyncHttpServerResponse res) {
+        String origin = req.getHeaders().get("Origin");
+        Headers headers = res.getHeaders();
+        headers.set("Vary", "Origin");
+        if (!isAllowed(origin)) return;
+        headers.set("Access-Control-Allow-Origin", origin);
+        headers.set("Access-Control-Allow-Credentials", "true");
+    }
+
+    /** Answer an {@code OPTIONS} request: 204 for an allowed origin, 403 otherwise. */
+    public void preflight(AsyncHttpServerRequest req, AsyncHttpServerResponse res) {
+        String origin = req.getHeaders().get("Origin");
+        Headers headers = res.getHeaders();
+        headers.set("Vary", "Origin");
+        if (!isAllowed(origin)) {
+            res.code(403);
+            res.end();
+            return;
+        }
+        headers.set("Access-Control-Allow-Origin", origin);
+        headers.set("Access-Control-Allow-Credentials", "true");
+        headers.set("Access-Control-Allow-Methods", ALLOW_METHODS);
+        headers.set("Access-Control-Allow-Headers", ALLOW_HEADERS);
+        headers.set("Access-Control-Max-Age", MAX_AGE_SECONDS);
+        // Chrome's Private Network Access check for pages on a public address.
+        if ("true".equals(req.getHeaders().get("Access-Control-Request-Private-Network"))) {
+            headers.set("Access-Control-Allow-Private-Network", "true");
+        }
+        res.code(204);
+        res.end();
+    }
+}
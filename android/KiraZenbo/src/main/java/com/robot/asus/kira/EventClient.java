@@ -0,0 +1,289 @@
+package com.robot.asus.kira;
+
+import android.util.Log;
+
+import com.koushikdutta.async.http.WebSocket;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One connected /events WebSocket client with its own bounded outbound queue.
+ *
+ * Producers (RobotAPI callback threads) only enqueue; frames are written by a
+ * drain loop on the socket's AsyncServer reactor, which backs off while the
+ * socket is still flushing earlier data. A client that falls behind fills its
+ * queue and is handled by its {@link OverflowPolicy} instead of stalling the
+ * other clients or the callers.
+ */
+public class EventClient {
+
+    private static final String TAG = "EventClient";
+
+    /** What to do when a frame arrives and the client's queue is full. */
+    public enum OverflowPolicy {
+        /** Drop the oldest queued frame. */
+        DROP_OLDEST,
+        /**
+         * Drop the oldest queued frame whose type is in the droppable set; if there is
+         * none, drop the incoming frame when it is droppable, else the oldest frame.
+         */
+        DROP_BY_TYPE,
+        /** Close the connection; the client is expected to reconnect. */
+        DISCONNECT
+    }
+
+    /** Immutable queue settings shared by all clients of a server. */
+    public static final class Config {
+        final int capacity;
+        final OverflowPolicy policy;
+        final Set<String> droppableTypes;
+
+        public Config(int capacity, OverflowPolicy policy, Set<String> droppableTypes) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("capacity must be positive");
+            }
+            this.capacity = capacity;
+            this.policy = policy;
+            this.droppableTypes = droppableTypes != null
+                    ? Collections.unmodifiableSet(droppableTypes)
+                    : Collections.<String>emptySet();
+        }
+    }
+
+    /** Holds either a text (JSON) or a binary (CBOR) frame. */
+    private static final class Frame {
+        final String type;
+        final String text;
+        final byte[] bytes;
+
+        Frame(String type, String text, byte[] bytes) {
+            this.type = type;
+            this.text = text;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final AtomicLong NEXT_ID = new AtomicLong(1);
+
+    private static final Metrics.Counter DROPPED_TOTAL = Metrics.counter(
+            "kira_event_frames_dropped_total", "Frames dropped because a client's send queue was full.");
+
+    private final long id = NEXT_ID.getAndIncrement();
+    private final WebSocket socket;
+    private final Config config;
+    private final boolean binary;
+    private final long connectedAt = System.currentTimeMillis();
+
+    // Guarded by queue.
+    private final ArrayDeque<Frame> queue;
+    private boolean drainScheduled = false;
+    private int maxDepth = 0;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean closed = false;
+    private volatile EventSubscription subscription;
+
+    public EventClient(WebSocket socket, Config config, EventSubscription subscription) {
+        this(socket, config, subscription, false);
+    }
+
+    /** @param binary whether events are sent as binary frames (control frames stay text) */
+    public EventClient(WebSocket socket, Config config, EventSubscription subscription, boolean binary) {
+        this.socket = socket;
+        this.config = config;
+        this.binary = binary;
+        this.subscription = subscription;
+        this.queue = new ArrayDeque<>(Math.min(config.capacity, 64));
+    }
+
+    public WebSocket getSocket() {
+        return socket;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    public EventSubscription getSubscription() {
+        return subscription;
+    }
+
+    public void setSubscription(EventSubscription subscription) {
+        this.subscription = subscription;
+    }
+
+    /**
+     * Queue a text frame for sending. Never blocks on the network.
+     *
+     * @return false if the frame (or the connection) was dropped
+     */
+    public boolean offer(String type, String text) {
+        return offer(new Frame(type, text, null));
+    }
+
+    /** Queue a binary frame for sending; see {@link #offer(String, String)}. */
+    public boolean offer(String type, byte[] bytes) {
+        return offer(new Frame(type, null, bytes));
+    }
+
+    private boolean offer(Frame frame) {
+        if (closed) return false;
+        String type = frame.type;
+        boolean accepted = true;
+        boolean disconnect = false;
+        boolean schedule = false;
+        synchronized (queue) {
+            if (queue.size() >= config.capacity) {
+                switch (config.policy) {
+                    case DROP_OLDEST:
+                        queue.pollFirst();
+                        break;
+                    case DROP_BY_TYPE:
+                        if (!removeOldestDroppable()) {
+                            if (config.droppableTypes.contains(type)) {
+                                accepted = false;
+                            } else {
+                                queue.pollFirst();
+                            }
+                        }
+                        break;
+                    case DISCONNECT:
+                        queue.clear();
+                        disconnect = true;
+                        break;
+                }
+                onDropped();
+            }
+            if (!disconnect && accepted) {
+                queue.addLast(frame);
+                maxDepth = Math.max(maxDepth, queue.size());
+                if (!drainScheduled) {
+                    drainScheduled = true;
+                    schedule = true;
+                }
+            }
+        }
+
+        if (disconnect) {
+            Log.w(TAG, "Client " + id + " fell behind, disconnecting");
+            close();
+            return false;
+        }
+        if (schedule) {
+            socket.getServer().post(this::drain);
+        }
+        return accepted;
+    }
+
+    /** Stop accepting frames and close the socket. Safe to call more than once. */
+    public void close() {
+        if (closed) return;
+        closed = true;
+        synchronized (queue) {
+            queue.clear();
+        }
+        socket.getServer().post(() -> {
+            try {
+                socket.close();
+            } catch (Exception e) {
+                Log.w(TAG, "Error closing WebSocket", e);
+            }
+        });
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int getQueueDepth() {
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    public JSONObject toJson() throws JSONException {
+        JSONObject obj = new JSONObject();
+        int depth;
+        int max;
+        synchronized (queue) {
+            depth = queue.size();
+            max = maxDepth;
+        }
+        obj.put("id", id);
+        obj.put("connected_at", connectedAt);
+        obj.put("queue_depth", depth);
+        obj.put("queue_max_depth", max);
+        obj.put("queue_capacity", config.capacity);
+        obj.put("format", binary ? "cbor" : "json");
+        obj.put("sent", sent.get());
+        obj.put("dropped", dropped.get());
+        obj.put("types", new JSONArray(subscription.patterns()));
+        return obj;
+    }
+
+    // Runs on the socket's AsyncServer thread.
+    private void drain() {
+        while (!closed) {
+            if (socket.isBuffering()) {
+                // Resume once the socket has flushed what it already holds.
+                socket.setWriteableCallback(this::drain);
+                return;
+            }
+            Frame frame;
+            synchronized (queue) {
+                frame = queue.pollFirst();
+                if (frame == null) {
+                    drainScheduled = false;
+                    return;
+                }
+            }
+            try {
+                if (frame.bytes != null) {
+                    socket.send(frame.bytes);
+                } else {
+                    socket.send(frame.text);
+                }
+                sent.incrementAndGet();
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to send event over WebSocket", e);
+            }
+        }
+    }
+
+    // Caller holds queue.
+    private boolean removeOldestDroppable() {
+        Iterator<Frame> it = queue.iterator();
+        while (it.hasNext()) {
+            if (config.droppableTypes.contains(it.next().type)) {
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void onDropped() {
+        DROPPED_TOTAL.inc();
+        long count = dropped.incrementAndGet();
+        if (count == 1 || count % 1000 == 0) {
+            Log.w(TAG, "Client " + id + " is lagging; dropped " + count + " frames so far");
+        }
+    }
+}
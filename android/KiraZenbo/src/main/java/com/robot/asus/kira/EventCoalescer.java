@@ -0,0 +1,224 @@
+package com.robot.asus.kira;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latest-value conflation for high-frequency event streams.
+ *
+ * Event types with a configured rate are limited to one frame per interval and
+ * per stream, where a stream is the event type plus its {@code cmd}/{@code serial}
+ * when the event carries them (see {@link #streamKey}). The first value of a window goes out at once;
+ * values arriving inside the window replace each other and only the latest is
+ * flushed when the window ends. Types without a rate are not touched, so
+ * discrete events such as {@code onSpeakComplete} are always delivered exactly.
+ */
+public class EventCoalescer {
+
+    /** Receives the values that survive conflation. */
+    public interface Sink {
+        void publish(String type, EventData data);
+    }
+
+    /** Idle streams are forgotten after this many intervals. */
+    private static final int IDLE_INTERVALS = 50;
+    private static final int PURGE_THRESHOLD = 64;
+
+    private static final class Stream {
+        final String type;
+        final long intervalNanos;
+        long lastEmitNanos;
+        EventData pending;
+        boolean hasPending;
+        boolean flushScheduled;
+
+        /** @param nowNanos the time of the first offer, which is then emitted at once */
+        Stream(String type, long intervalNanos, long nowNanos) {
+            this.type = type;
+            this.intervalNanos = intervalNanos;
+            this.lastEmitNanos = nowNanos - intervalNanos;
+        }
+    }
+
+    private final Sink sink;
+    private final ConcurrentHashMap<String, Long> intervals = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicLong> coalesced = new ConcurrentHashMap<>();
+    // Guarded by streams.
+    private final HashMap<String, Stream> streams = new HashMap<>();
+    // Guarded by streams; created on first use and released by shutdown().
+    private ScheduledExecutorService scheduler;
+
+    public EventCoalescer(Sink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Limit an event type to {@code hz} frames per second per stream.
+     * A rate of zero or less turns conflation off for the type.
+     */
+    public void setRate(String type, float hz) {
+        if (hz <= 0f) {
+            intervals.remove(type);
+        } else {
+            intervals.put(type, (long) (TimeUnit.SECONDS.toNanos(1) / hz));
+        }
+    }
+
+    public boolean isCoalesced(String type) {
+        return intervals.containsKey(type);
+    }
+
+    /** Key of a command-scoped stream; events without a cmd/serial use their type as key. */
+    public static String streamKey(String type, int cmd, int serial) {
+        return type + ':' + cmd + ':' + serial;
+    }
+
+    /**
+     * Offer an event. Returns false without doing anything if the type is not
+     * conflated; the caller then delivers it directly.
+     *
+     * @param streamKey stream within the type, or null for a single stream per type
+     */
+    public boolean offer(String type, String streamKey, EventData data) {
+        Long interval = intervals.get(type);
+        if (interval == null) {
+            return false;
+        }
+
+        String key = streamKey != null ? streamKey : type;
+        long now = System.nanoTime();
+        boolean emitNow = false;
+        ScheduledExecutorService flushScheduler = null;
+        long delayNanos = 0;
+        synchronized (streams) {
+            Stream stream = streams.get(key);
+            if (stream == null) {
+                if (streams.size() >= PURGE_THRESHOLD) {
+                    purgeIdle(now);
+                }
+                stream = new Stream(type, interval, now);
+                streams.put(key, stream);
+            }
+            if (!stream.hasPending && now - stream.lastEmitNanos >= stream.intervalNanos) {
+                stream.lastEmitNanos = now;
+                emitNow = true;
+            } else {
+                if (stream.hasPending) {
+                    counter(type).incrementAndGet();
+                }
+                stream.pending = data;
+                stream.hasPending = true;
+                if (!stream.flushScheduled) {
+                    stream.flushScheduled = true;
+                    flushScheduler = scheduler();
+                    delayNanos = Math.max(0, stream.lastEmitNanos + stream.intervalNanos - now);
+                }
+            }
+        }
+
+        if (emitNow) {
+            sink.publish(type, data);
+        } else if (flushScheduler != null) {
+            try {
+                flushScheduler.schedule(() -> flush(key), delayNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException ignore) {
+                // Shut down concurrently; the pending value is discarded with the rest.
+            }
+        }
+        return true;
+    }
+
+    /** Number of events replaced by a newer value, per event type. */
+    public JSONObject getCoalescedCounts() {
+        JSONObject obj = new JSONObject();
+        for (Map.Entry<String, AtomicLong> e : coalesced.entrySet()) {
+            try {
+                obj.put(e.getKey(), e.getValue().get());
+            } catch (JSONException ignore) {
+            }
+        }
+        return obj;
+    }
+
+    public long getCoalescedTotal() {
+        long total = 0;
+        for (AtomicLong count : coalesced.values()) {
+            total += count.get();
+        }
+        return total;
+    }
+
+    /** Drop pending values and stop the flush thread. The coalescer can be used again afterwards. */
+    public void shutdown() {
+        synchronized (streams) {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+                scheduler = null;
+            }
+            streams.clear();
+        }
+    }
+
+    private void flush(String key) {
+        String type;
+        EventData data;
+        synchronized (streams) {
+            Stream stream = streams.get(key);
+            if (stream == null || !stream.hasPending) {
+                return;
+            }
+            type = stream.type;
+            data = stream.pending;
+            stream.pending = null;
+            stream.hasPending = false;
+            stream.flushScheduled = false;
+            stream.lastEmitNanos = System.nanoTime();
+        }
+        sink.publish(type, data);
+    }
+
+    // Caller holds streams.
+    private ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "EventCoalescer");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return scheduler;
+    }
+
+    // Caller holds streams.
+    private void purgeIdle(long now) {
+        Iterator<Stream> it = streams.values().iterator();
+        while (it.hasNext()) {
+            Stream stream = it.next();
+            if (!stream.hasPending && now - stream.lastEmitNanos > stream.intervalNanos * IDLE_INTERVALS) {
+                it.remove();
+            }
+        }
+    }
+
+    private AtomicLong counter(String type) {
+        AtomicLong count = coalesced.get(type);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = coalesced.putIfAbsent(type, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        return count;
+    }
+}
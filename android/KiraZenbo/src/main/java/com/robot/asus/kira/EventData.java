@@ -0,0 +1,15 @@
+package com.robot.asus.kira;
+
+/**
+ * The {@code data} part of an /events message, written lazily.
+ *
+ * The event server calls {@link #writeTo} at most once per delivered event and
+ * frame format (JSON text or CBOR binary), and only when a client needs that
+ * format, so producers can hand over their raw RobotAPI results instead of
+ * building JSON up front.
+ */
+public interface EventData {
+
+    /** Write exactly one value. May be called once per frame format. */
+    void writeTo(EventWriter writer);
+}
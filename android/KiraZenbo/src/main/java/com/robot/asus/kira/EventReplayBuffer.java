@@ -0,0 +1,103 @@
+package com.robot.asus.kira;
+
+import java.util.List;
+
+/**
+ * Fixed-size history of serialized event frames, indexed by sequence number.
+ *
+ * The slot arrays are allocated once; an event with sequence {@code n} lives
+ * in slot {@code n & (capacity - 1)} until it is overwritten {@code capacity}
+ * events later. Not thread-safe: the event server calls it under its publish lock.
+ */
+final class EventReplayBuffer {
+
+    private final long[] seqs;
+    private final String[] types;
+    private final String[] frames;
+    private final int mask;
+    private long lastSeq = 0;
+
+    /** @param capacity rounded up to a power of two */
+    EventReplayBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        seqs = new long[size];
+        types = new String[size];
+        frames = new String[size];
+        mask = size - 1;
+    }
+
+    int capacity() {
+        return frames.length;
+    }
+
+    /** Sequence number of the next event. Numbers start at 1 and are never reused. */
+    long nextSeq() {
+        return lastSeq + 1;
+    }
+
+    long lastSeq() {
+        return lastSeq;
+    }
+
+    /** Oldest sequence number still stored, or {@code lastSeq + 1} when empty. */
+    long oldestSeq() {
+        return Math.max(1, lastSeq - frames.length + 1);
+    }
+
+    /** Record the frame of event {@code seq}; also advances {@link #lastSeq()} for unrecorded events. */
+    void add(long seq, String type, String frame) {
+        int slot = (int) (seq & mask);
+        seqs[slot] = seq;
+        types[slot] = type;
+        frames[slot] = frame;
+        lastSeq = seq;
+    }
+
+    /** Account for an event that is broadcast but not kept. */
+    void skip(long seq) {
+        lastSeq = seq;
+    }
+
+    /**
+     * Append the stored frames after {@code since} that match {@code subscription},
+     * oldest first and at most the newest {@code max} of them.
+     *
+     * @return the sequence number of the first frame appended, or 0 if none
+     */
+    long collect(long since, EventSubscription subscription, int max, List<String> types, List<String> out) {
+        long from = Math.max(since + 1, oldestSeq());
+        // Walk backwards to find where the newest `max` matching frames start.
+        long start = lastSeq + 1;
+        int count = 0;
+        for (long seq = lastSeq; seq >= from && count < max; seq--) {
+            int slot = (int) (seq & mask);
+            if (seqs[slot] == seq && subscription.matches(this.types[slot])) {
+                start = seq;
+                count++;
+            }
+        }
+        long first = 0;
+        for (long seq = start; seq <= lastSeq && count > 0; seq++) {
+            int slot = (int) (seq & mask);
+            if (seqs[slot] == seq && subscription.matches(this.types[slot])) {
+                if (first == 0) first = seq;
+                types.add(this.types[slot]);
+                out.add(frames[slot]);
+                count--;
+            }
+        }
+        return first;
+    }
+
+    /** Whether a stored frame after {@code since} and before {@code before} matches {@code subscription}. */
+    boolean hasMatchBetween(long since, long before, EventSubscription subscription) {
+        long from = Math.max(since + 1, oldestSeq());
+        for (long seq = Math.min(before, lastSeq + 1) - 1; seq >= from; seq--) {
+            int slot = (int) (seq & mask);
+            if (seqs[slot] == seq && subscription.matches(types[slot])) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,107 @@
+package com.robot.asus.kira;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable set of event-type patterns a client is subscribed to.
+ *
+ * A pattern is either an exact event type ({@code onSpeakComplete}), a prefix
+ * ending in {@code *} ({@code onTracking*}) or {@code *} for every event.
+ * Changes produce a new instance, so matching needs no locking.
+ */
+public final class EventSubscription {
+
+    public static final EventSubscription ALL = new EventSubscription(
+            true, Collections.<String>emptySet(), Collections.<String>emptyList());
+    public static final EventSubscription NONE = new EventSubscription(
+            false, Collections.<String>emptySet(), Collections.<String>emptyList());
+
+    private final boolean all;
+    private final Set<String> exact;
+    private final List<String> prefixes;
+
+    private EventSubscription(boolean all, Set<String> exact, List<String> prefixes) {
+        this.all = all;
+        this.exact = exact;
+        this.prefixes = prefixes;
+    }
+
+    /** Parse a comma separated pattern list such as {@code onSpeakComplete,onTracking*}. */
+    public static EventSubscription parse(String patterns) {
+        if (patterns == null) {
+            return ALL;
+        }
+        List<String> list = new ArrayList<>();
+        for (String p : patterns.split(",")) {
+            list.add(p);
+        }
+        return NONE.plus(list);
+    }
+
+    public boolean matches(String type) {
+        if (all || exact.contains(type)) {
+            return true;
+        }
+        for (int i = 0; i < prefixes.size(); i++) {
+            if (type.startsWith(prefixes.get(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public EventSubscription plus(Collection<String> patterns) {
+        boolean newAll = all;
+        Set<String> newExact = new HashSet<>(exact);
+        List<String> newPrefixes = new ArrayList<>(prefixes);
+        for (String raw : patterns) {
+            String p = raw.trim();
+            if (p.isEmpty()) continue;
+            if (p.equals("*")) {
+                newAll = true;
+            } else if (p.endsWith("*")) {
+                String prefix = p.substring(0, p.length() - 1);
+                if (!newPrefixes.contains(prefix)) newPrefixes.add(prefix);
+            } else {
+                newExact.add(p);
+            }
+        }
+        return new EventSubscription(newAll, Collections.unmodifiableSet(newExact),
+                Collections.unmodifiableList(newPrefixes));
+    }
+
+    public EventSubscription minus(Collection<String> patterns) {
+        boolean newAll = all;
+        Set<String> newExact = new HashSet<>(exact);
+        List<String> newPrefixes = new ArrayList<>(prefixes);
+        for (String raw : patterns) {
+            String p = raw.trim();
+            if (p.equals("*")) {
+                // Unsubscribing from everything clears the subscription.
+                return NONE;
+            } else if (p.endsWith("*")) {
+                newPrefixes.remove(p.substring(0, p.length() - 1));
+            } else {
+                newExact.remove(p);
+            }
+        }
+        return new EventSubscription(newAll, Collections.unmodifiableSet(newExact),
+                Collections.unmodifiableList(newPrefixes));
+    }
+
+    /** The subscription as a list of patterns, in the syntax accepted by {@link #parse}. */
+    public List<String> patterns() {
+        List<String> list = new ArrayList<>();
+        if (all) list.add("*");
+        list.addAll(exact);
+        for (String prefix : prefixes) {
+            list.add(prefix + "*");
+        }
+        return list;
+    }
+}
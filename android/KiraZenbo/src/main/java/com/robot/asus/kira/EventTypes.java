@@ -0,0 +1,75 @@
+package com.robot.asus.kira;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+
+/**
+ * Stable numeric ids of the /events types, used in the binary frame header.
+ *
+ * Ids are part of the wire format (see {@code assets/events_binary_format.md}):
+ * append new types, never renumber. Types without an id are sent with id 0
+ * and their name in the header.
+ */
+public final class EventTypes {
+
+    public static final int UNKNOWN = 0;
+
+    private static final String[] NAMES = {
+            null,
+            "initComplete",             // 1
+            "onResult",                 // 2
+            "onStateChange",            // 3
+            "onVoiceDetect",            // 4
+            "onSpeakComplete",          // 5
+            "onEventUserUtterance",     // 6
+            "onDsdResult",              // 7
+            "onRetry",                  // 8
+            "onFinishRegister",         // 9
+            "onDetectFaceResult",       // 10
+            "onDetectPersonResult",     // 11
+            "onFaceResult",             // 12
+            "onFaceResultWithCmd",      // 13
+            "onGesturePoint",           // 14
+            "onRecognizePersonResult",  // 15
+            "onTrackingResult",         // 16
+            "onTrackingResultWithCmd",  // 17
+            "onBatteryChanged",         // 18
+            "onConnectivityChanged",    // 19
+            "onMemoryChanged",          // 20
+            "onStorageChanged",         // 21
+            "onLooperStall",            // 22
+    };
+
+    private static final HashMap<String, Integer> IDS = new HashMap<>();
+
+    static {
+        for (int i = 1; i < NAMES.length; i++) {
+            IDS.put(NAMES[i], i);
+        }
+    }
+
+    private EventTypes() {
+    }
+
+    /** The id of {@code type}, or {@link #UNKNOWN}. */
+    public static int idOf(String type) {
+        Integer id = IDS.get(type);
+        return id != null ? id : UNKNOWN;
+    }
+
+    /** The type with the given id, or null. */
+    public static String nameOf(int id) {
+        return id > 0 && id < NAMES.length ? NAMES[id] : null;
+    }
+
+    /** {@code {"1":"initComplete",...}}, sent to binary clients when they connect. */
+    public static JSONObject toJson() throws JSONException {
+        JSONObject obj = new JSONObject();
+        for (int i = 1; i < NAMES.length; i++) {
+            obj.put(String.valueOf(i), NAMES[i]);
+        }
+        return obj;
+    }
+}
@@ -0,0 +1,39 @@
+package com.robot.asus.kira;
+
+import org.json.JSONObject;
+
+/**
+ * Streaming writer for event data, implemented by {@link JsonWriter} for text
+ * frames and {@link CborWriter} for binary frames.
+ *
+ * Callers produce well-formed nesting; {@link #name} is only valid inside an object.
+ */
+public interface EventWriter {
+
+    EventWriter beginObject();
+
+    EventWriter endObject();
+
+    EventWriter beginArray();
+
+    EventWriter endArray();
+
+    EventWriter name(String name);
+
+    EventWriter value(String value);
+
+    EventWriter value(boolean value);
+
+    EventWriter value(long value);
+
+    /** Non-finite values are written as null. */
+    EventWriter value(float value);
+
+    /** Non-finite values are written as null. */
+    EventWriter value(double value);
+
+    EventWriter nullValue();
+
+    /** Write an org.json value (object, array, string, number, boolean or null). */
+    EventWriter jsonValue(Object value);
+}
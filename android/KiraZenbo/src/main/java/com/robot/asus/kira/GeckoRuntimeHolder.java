@@ -1,18 +1,125 @@
 package com.robot.asus.kira;
 
 import android.content.Context;
+import android.os.Looper;
+import android.util.Log;
+
+import org.mozilla.geckoview.ContentBlocking;
 import org.mozilla.geckoview.GeckoRuntime;
 import org.mozilla.geckoview.GeckoRuntimeSettings;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * The process-wide GeckoRuntime. Its settings come from the {@link Profile}
+ * named by {@code R.string.gecko_runtime_profile}. {@link #prewarm} creates it
+ * before the UI asks for it, so the first page load does not wait for Gecko.
+ */
 public class GeckoRuntimeHolder {
+
+    private static final String TAG = "GeckoRuntimeHolder";
+
+    /** Gecko prefs of the production profile; GeckoView reads them from a file. */
+    private static final String PRODUCTION_CONFIG_ASSET = "geckoview-production.yaml";
+
+    public enum Profile {
+        /** Console output, debug logging, remote debugging and about:config. */
+        DEBUG,
+        /** No debug output; cache and memory prefs from {@link #PRODUCTION_CONFIG_ASSET}. */
+        PRODUCTION;
+
+        /** {@code auto} picks DEBUG for debuggable builds. */
+        static Profile select(Context context) {
+            String name = context.getString(R.string.gecko_runtime_profile);
+            if ("auto".equals(name)) {
+                return BuildConfig.DEBUG ? DEBUG : PRODUCTION;
+            }
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Unknown GeckoRuntime profile '" + name + "', using production");
+                return PRODUCTION;
+            }
+        }
+    }
+
     private static GeckoRuntime sGeckoRuntime;
+    private static boolean sPrewarmQueued;
 
     public static synchronized GeckoRuntime get(Context context) {
         if (sGeckoRuntime == null) {
-            GeckoRuntimeSettings.Builder settingsBuilder = new GeckoRuntimeSettings.Builder()
-                    .aboutConfigEnabled(true).consoleOutput(true).debugLogging(true).remoteDebuggingEnabled(true);
-            sGeckoRuntime = GeckoRuntime.create(context.getApplicationContext(), settingsBuilder.build());
+            create(context.getApplicationContext(), false);
         }
         return sGeckoRuntime;
     }
+
+    /**
+     * Create the runtime the next time the main thread is idle, if
+     * {@code R.bool.prewarm_gecko_runtime} is set. GeckoView must be created on
+     * the main thread; Gecko itself then starts on its own threads.
+     */
+    public static void prewarm(Context context) {
+        Context app = context.getApplicationContext();
+        if (!app.getResources().getBoolean(R.bool.prewarm_gecko_runtime)) return;
+        synchronized (GeckoRuntimeHolder.class) {
+            if (sGeckoRuntime != null || sPrewarmQueued) return;
+            sPrewarmQueued = true;
+        }
+        Looper.getMainLooper().getQueue().addIdleHandler(() -> {
+            synchronized (GeckoRuntimeHolder.class) {
+                if (sGeckoRuntime == null) {
+                    create(app, true);
+                }
+            }
+            return false;
+        });
+    }
+
+    // Caller holds the class lock.
+    private static void create(Context app, boolean prewarm) {
+        Profile profile = Profile.select(app);
+        StartupTrace.mark(StartupTrace.Phase.RUNTIME_CREATE_START);
+        sGeckoRuntime = GeckoRuntime.create(app, settings(app, profile).build());
+        StartupTrace.runtimeCreated(profile.name().toLowerCase(Locale.ROOT), prewarm);
+        Log.i(TAG, "GeckoRuntime created with the " + profile + " profile" + (prewarm ? " ahead of the UI" : ""));
+    }
+
+    private static GeckoRuntimeSettings.Builder settings(Context app, Profile profile) {
+        GeckoRuntimeSettings.Builder builder = new GeckoRuntimeSettings.Builder();
+        if (profile == Profile.DEBUG) {
+            return builder.aboutConfigEnabled(true).consoleOutput(true).debugLogging(true).remoteDebuggingEnabled(true);
+        }
+        builder.aboutConfigEnabled(false).consoleOutput(false).debugLogging(false).remoteDebuggingEnabled(false)
+                // Only the app on 127.0.0.1 is loaded; skip fetching and checking Safe Browsing lists.
+                .contentBlocking(new ContentBlocking.Settings.Builder()
+                        .safeBrowsing(ContentBlocking.SafeBrowsing.NONE)
+                        .build());
+        File config = copyConfig(app);
+        if (config != null) {
+            builder.configFilePath(config.getAbsolutePath());
+        }
+        return builder;
+    }
+
+    /** The prefs asset copied to app storage (rewritten on every start, so app updates apply), or null. */
+    private static File copyConfig(Context app) {
+        File file = new File(app.getFilesDir(), PRODUCTION_CONFIG_ASSET);
+        try (InputStream in = app.getAssets().open(PRODUCTION_CONFIG_ASSET);
+             OutputStream out = new FileOutputStream(file)) {
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return file;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write " + file + ", using Gecko's default prefs", e);
+            return null;
+        }
+    }
 }
@@ -0,0 +1,215 @@
+package com.robot.asus.kira;
+
+import org.json.JSONObject;
+
+/**
+ * Minimal reusable streaming JSON writer.
+ *
+ * Unlike {@code org.json.JSONObject} it builds no intermediate object graph:
+ * values are appended straight into one growable buffer that is kept across
+ * {@link #reset()} calls, so a writer per thread serializes events without
+ * per-field garbage beyond number formatting and the final String. The writer trusts its caller to
+ * produce well-formed nesting; it only inserts commas and colons.
+ */
+public final class JsonWriter implements EventWriter {
+
+    private static final int MAX_DEPTH = 32;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final StringBuilder sb;
+    // first[depth] is true until the first element of the current container is written.
+    private final boolean[] first = new boolean[MAX_DEPTH];
+    private int depth = 0;
+    private boolean afterName = false;
+
+    public JsonWriter() {
+        this(512);
+    }
+
+    public JsonWriter(int initialCapacity) {
+        sb = new StringBuilder(initialCapacity);
+    }
+
+    /** Discard the current content but keep the buffer. */
+    public JsonWriter reset() {
+        sb.setLength(0);
+        depth = 0;
+        afterName = false;
+        return this;
+    }
+
+    @Override
+    public JsonWriter beginObject() {
+        beforeValue();
+        sb.append('{');
+        push();
+        return this;
+    }
+
+    @Override
+    public JsonWriter endObject() {
+        depth--;
+        sb.append('}');
+        return this;
+    }
+
+    @Override
+    public JsonWriter beginArray() {
+        beforeValue();
+        sb.append('[');
+        push();
+        return this;
+    }
+
+    @Override
+    public JsonWriter endArray() {
+        depth--;
+        sb.append(']');
+        return this;
+    }
+
+    @Override
+    public JsonWriter name(String name) {
+        separator();
+        appendString(name);
+        sb.append(':');
+        afterName = true;
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(String value) {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        appendString(value);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(boolean value) {
+        beforeValue();
+        sb.append(value);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(long value) {
+        beforeValue();
+        sb.append(value);
+        return this;
+    }
+
+    /** Non-finite values have no JSON representation and are written as null. */
+    @Override
+    public JsonWriter value(float value) {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            return nullValue();
+        }
+        beforeValue();
+        sb.append(value);
+        return this;
+    }
+
+    /** Non-finite values have no JSON representation and are written as null. */
+    @Override
+    public JsonWriter value(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return nullValue();
+        }
+        beforeValue();
+        sb.append(value);
+        return this;
+    }
+
+    @Override
+    public JsonWriter nullValue() {
+        beforeValue();
+        sb.append("null");
+        return this;
+    }
+
+    /** Writes the value's JSON text verbatim. */
+    @Override
+    public JsonWriter jsonValue(Object value) {
+        if (value == null || value == JSONObject.NULL) {
+            return nullValue();
+        }
+        if (value instanceof String) {
+            return value((String) value);
+        }
+        return rawValue(value.toString());
+    }
+
+    /** Append an already serialized JSON value verbatim. */
+    public JsonWriter rawValue(String json) {
+        beforeValue();
+        sb.append(json);
+        return this;
+    }
+
+    /** Number of characters written so far. */
+    public int length() {
+        return sb.length();
+    }
+
+    @Override
+    public String toString() {
+        return sb.toString();
+    }
+
+    private void push() {
+        if (depth == MAX_DEPTH) {
+            throw new IllegalStateException("JSON nesting too deep");
+        }
+        first[depth++] = true;
+    }
+
+    private void beforeValue() {
+        if (afterName) {
+            afterName = false;
+        } else {
+            separator();
+        }
+    }
+
+    private void separator() {
+        if (depth == 0) return;
+        if (first[depth - 1]) {
+            first[depth - 1] = false;
+        } else {
+            sb.append(',');
+        }
+    }
+
+    private void appendString(String s) {
+        sb.append('"');
+        int start = 0;
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029') {
+                continue;
+            }
+            sb.append(s, start, i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                case '\b': sb.append("\\b"); break;
+                case '\f': sb.append("\\f"); break;
+                default:
+                    sb.append("\\u")
+                            .append(HEX[(c >> 12) & 0xf]).append(HEX[(c >> 8) & 0xf])
+                            .append(HEX[(c >> 4) & 0xf]).append(HEX[c & 0xf]);
+                    break;
+            }
+            start = i + 1;
+        }
+        sb.append(s, start, len);
+        sb.append('"');
+    }
+}
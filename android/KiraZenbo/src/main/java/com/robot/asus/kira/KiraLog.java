@@ -0,0 +1,146 @@
+package com.robot.asus.kira;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Debug/trace logging with a compile-time and a runtime guard.
+ *
+ * {@link #COMPILED} comes from {@code BuildConfig.TRACE_LOGGING}; when it is
+ * false every {@code if (KiraLog.COMPILED && ...)} block is removed by the
+ * compiler. At runtime only messages at or above {@link #getLevel()} are
+ * written, and the default level is {@code INFO}, so debug and verbose calls
+ * cost a volatile read. Hot paths guard with {@link #isLoggable(int)} before
+ * building a message; elsewhere the {@link Supplier} overloads keep the
+ * message lazy.
+ *
+ * Event payloads are logged separately through {@link #samplePayload()}: with
+ * sampling set to N, one frame in N is logged from the already serialized
+ * String. Warnings and errors keep using {@link Log} directly.
+ *
+ * The level can be raised with {@code adb shell setprop log.tag.Kira DEBUG}
+ * before the service starts, or at runtime through {@code /api/debug/logging}.
+ */
+public final class KiraLog {
+
+    public static final boolean COMPILED = BuildConfig.TRACE_LOGGING;
+
+    /** Tag checked by {@link #initFromSystemProperties()}. */
+    public static final String PROPERTY_TAG = "Kira";
+
+    private static volatile int level = Log.INFO;
+    private static volatile int payloadSampleEvery = 0;
+    private static final AtomicLong payloadCounter = new AtomicLong();
+
+    private KiraLog() {
+    }
+
+    public static boolean isLoggable(int priority) {
+        return COMPILED && priority >= level;
+    }
+
+    public static void d(String tag, String msg) {
+        if (isLoggable(Log.DEBUG)) {
+            Log.d(tag, msg);
+        }
+    }
+
+    public static void d(String tag, Supplier<String> msg) {
+        if (isLoggable(Log.DEBUG)) {
+            Log.d(tag, msg.get());
+        }
+    }
+
+    public static void v(String tag, String msg) {
+        if (isLoggable(Log.VERBOSE)) {
+            Log.v(tag, msg);
+        }
+    }
+
+    public static void v(String tag, Supplier<String> msg) {
+        if (isLoggable(Log.VERBOSE)) {
+            Log.v(tag, msg.get());
+        }
+    }
+
+    /**
+     * Whether the caller should log the payload it is about to send. Returns
+     * false without touching the counter while sampling is off.
+     */
+    public static boolean samplePayload() {
+        if (!COMPILED) return false;
+        int every = payloadSampleEvery;
+        if (every <= 0) return false;
+        return payloadCounter.getAndIncrement() % every == 0;
+    }
+
+    public static void payload(String tag, String type, String payload) {
+        Log.d(tag, "Event '" + type + "' payload: " + payload);
+    }
+
+    public static int getLevel() {
+        return level;
+    }
+
+    public static void setLevel(int priority) {
+        level = priority;
+    }
+
+    public static int getPayloadSampleEvery() {
+        return payloadSampleEvery;
+    }
+
+    /** Log one event payload in {@code every}; zero or less turns payload logging off. */
+    public static void setPayloadSampleEvery(int every) {
+        payloadSampleEvery = Math.max(0, every);
+        payloadCounter.set(0);
+    }
+
+    /** Pick up a level set with {@code setprop log.tag.Kira <LEVEL>}. */
+    public static void initFromSystemProperties() {
+        for (int priority = Log.VERBOSE; priority < Log.INFO; priority++) {
+            if (Log.isLoggable(PROPERTY_TAG, priority)) {
+                level = priority;
+                return;
+            }
+        }
+    }
+
+    /** Parse {@code verbose}, {@code debug}, {@code info}, {@code warn} or {@code error}; -1 if unknown. */
+    public static int parseLevel(String name) {
+        if (name == null) return -1;
+        switch (name.trim().toLowerCase(Locale.ROOT)) {
+            case "verbose": return Log.VERBOSE;
+            case "debug": return Log.DEBUG;
+            case "info": return Log.INFO;
+            case "warn": return Log.WARN;
+            case "error": return Log.ERROR;
+            default: return -1;
+        }
+    }
+
+    public static String levelName(int priority) {
+        switch (priority) {
+            case Log.VERBOSE: return "verbose";
+            case Log.DEBUG: return "debug";
+            case Log.INFO: return "info";
+            case Log.WARN: return "warn";
+            case Log.ERROR: return "error";
+            default: return String.valueOf(priority);
+        }
+    }
+
+    public static JSONObject toJson() throws JSONException {
+        JSONObject obj = new JSONObject();
+        obj.put("compiled", COMPILED);
+        obj.put("level", levelName(level));
+        obj.put("payload_sample_every", payloadSampleEvery);
+        return obj;
+    }
+}
@@ -25,9 +25,18 @@ public class MainActivity extends Activity implements GeckoSession.PermissionDel
     private GeckoSession mGeckoSession;
     private GeckoRuntime mGeckoRuntime;
 
+    // Read by RobotApiService to skip relaunching the UI while it is already in front.
+    private static volatile boolean sResumed = false;
+
+    /** Whether MainActivity is resumed, i.e. in front and interactive. */
+    public static boolean isInFront() {
+        return sResumed;
+    }
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        StartupTrace.mark(StartupTrace.Phase.ACTIVITY_CREATED);
         setContentView(R.layout.activity_main);
 
         // Request notification permission on Android 13+
@@ -45,12 +54,49 @@ public class MainActivity extends Activity implements GeckoSession.PermissionDel
         mGeckoSession = new GeckoSession();
 
         mGeckoSession.setPermissionDelegate(this);
+        // Only the first page load of the process is recorded; StartupTrace ignores repeats.
+        mGeckoSession.setProgressDelegate(new GeckoSession.ProgressDelegate() {
+            @Override
+            public void onPageStart(@NonNull GeckoSession session, @NonNull String url) {
+                StartupTrace.mark(StartupTrace.Phase.PAGE_STARTED);
+            }
+
+            @Override
+            public void onPageStop(@NonNull GeckoSession session, boolean success) {
+                StartupTrace.pageStopped(success);
+            }
+        });
+        mGeckoSession.setContentDelegate(new GeckoSession.ContentDelegate() {
+            @Override
+            public void onFirstComposite(@NonNull GeckoSession session) {
+                StartupTrace.mark(StartupTrace.Phase.FIRST_COMPOSITE);
+            }
+
+            @Override
+            public void onFirstContentfulPaint(@NonNull GeckoSession session) {
+                StartupTrace.mark(StartupTrace.Phase.FIRST_CONTENTFUL_PAINT);
+            }
+        });
 
         mGeckoRuntime = GeckoRuntimeHolder.get(this);
 
         mGeckoSession.open(mGeckoRuntime);
+        StartupTrace.mark(StartupTrace.Phase.SESSION_OPENED);
         mGeckoView.setSession(mGeckoSession);
         mGeckoSession.loadUri("http://127.0.0.1:8787/");
+        StartupTrace.mark(StartupTrace.Phase.LOAD_REQUESTED);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        sResumed = true;
+    }
+
+    @Override
+    protected void onPause() {
+        sResumed = false;
+        super.onPause();
     }
 
     private void startRobotService() {
@@ -0,0 +1,254 @@
+package com.robot.asus.kira;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide metrics registry, served in the Prometheus text format at
+ * {@code /metrics}.
+ *
+ * Metrics are declared once, usually as static fields next to the code they
+ * measure, and recording never takes a lock: counters are {@link LongAdder}s
+ * and histograms have fixed bucket bounds with one atomic slot per bucket.
+ * A labeled metric ({@link Family}) has a single label; its children are
+ * created on first use and kept for the life of the process, so label values
+ * must come from a small fixed set (route patterns, event types, command names).
+ *
+ * Durations are recorded in nanoseconds and exported in seconds.
+ */
+public final class Metrics {
+
+    /** HTTP routes and main-looper delays: 0.5 ms to 10 s. */
+    public static final long[] LATENCY_BUCKETS_NANOS = millis(0.5, 1, 2.5, 5, 10, 25, 50, 100, 250, 500,
+            1000, 2500, 5000, 10000);
+    /** Robot commands, which run for seconds: 10 ms to 60 s. */
+    public static final long[] COMMAND_BUCKETS_NANOS = millis(10, 50, 100, 250, 500, 1000, 2500, 5000, 10000,
+            30000, 60000);
+
+    private interface Collector {
+        void writeTo(StringBuilder out);
+    }
+
+    // Registration order is the scrape order; registering a name again replaces the metric.
+    private static final Map<String, Collector> collectors = new LinkedHashMap<>();
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name, String help) {
+        Counter counter = new Counter();
+        register(name, out -> {
+            header(out, name, help, "counter");
+            counter.writeTo(out, name, null, null);
+        });
+        return counter;
+    }
+
+    public static Family<Counter> counter(String name, String help, String label) {
+        Family<Counter> family = new Family<>(Counter::new);
+        register(name, out -> {
+            header(out, name, help, "counter");
+            for (Map.Entry<String, Counter> child : family.sorted().entrySet()) {
+                child.getValue().writeTo(out, name, label, child.getKey());
+            }
+        });
+        return family;
+    }
+
+    public static Histogram histogram(String name, String help, long[] bucketsNanos) {
+        Histogram histogram = new Histogram(bucketsNanos);
+        register(name, out -> {
+            header(out, name, help, "histogram");
+            histogram.writeTo(out, name, null, null);
+        });
+        return histogram;
+    }
+
+    public static Family<Histogram> histogram(String name, String help, String label, long[] bucketsNanos) {
+        Family<Histogram> family = new Family<>(() -> new Histogram(bucketsNanos));
+        register(name, out -> {
+            header(out, name, help, "histogram");
+            for (Map.Entry<String, Histogram> child : family.sorted().entrySet()) {
+                child.getValue().writeTo(out, name, label, child.getKey());
+            }
+        });
+        return family;
+    }
+
+    /** A value read at scrape time, e.g. the number of connected clients. */
+    public static void gauge(String name, String help, LongSupplier value) {
+        register(name, out -> {
+            header(out, name, help, "gauge");
+            out.append(name).append(' ').append(value.getAsLong()).append('\n');
+        });
+    }
+
+    /** All metrics in the Prometheus text exposition format (version 0.0.4). */
+    public static String scrape() {
+        List<Collector> snapshot;
+        synchronized (collectors) {
+            snapshot = new ArrayList<>(collectors.values());
+        }
+        StringBuilder out = new StringBuilder(4096);
+        for (Collector collector : snapshot) {
+            collector.writeTo(out);
+        }
+        return out.toString();
+    }
+
+    private static void register(String name, Collector collector) {
+        synchronized (collectors) {
+            collectors.put(name, collector);
+        }
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void labels(StringBuilder out, String label, String value, String le) {
+        if (label == null && le == null) return;
+        out.append('{');
+        if (label != null) {
+            out.append(label).append("=\"");
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '\\' || c == '"') {
+                    out.append('\\').append(c);
+                } else if (c == '\n') {
+                    out.append("\\n");
+                } else {
+                    out.append(c);
+                }
+            }
+            out.append('"');
+            if (le != null) out.append(',');
+        }
+        if (le != null) {
+            out.append("le=\"").append(le).append('"');
+        }
+        out.append('}');
+    }
+
+    private static long[] millis(double... bounds) {
+        long[] nanos = new long[bounds.length];
+        for (int i = 0; i < bounds.length; i++) {
+            nanos[i] = (long) (bounds[i] * 1_000_000);
+        }
+        return nanos;
+    }
+
+    private static String seconds(long nanos) {
+        return BigDecimal.valueOf(nanos).movePointLeft(9).stripTrailingZeros().toPlainString();
+    }
+
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void inc() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+
+        void writeTo(StringBuilder out, String name, String label, String labelValue) {
+            out.append(name);
+            labels(out, label, labelValue, null);
+            out.append(' ').append(value.sum()).append('\n');
+        }
+    }
+
+    public static final class Histogram {
+        private final long[] bounds;
+        private final String[] le;
+        // One slot per bound plus +Inf; not cumulative until written.
+        private final AtomicLongArray counts;
+        private final LongAdder sumNanos = new LongAdder();
+
+        Histogram(long[] boundsNanos) {
+            bounds = boundsNanos;
+            le = new String[bounds.length];
+            for (int i = 0; i < bounds.length; i++) {
+                le[i] = seconds(bounds[i]);
+            }
+            counts = new AtomicLongArray(bounds.length + 1);
+        }
+
+        public void observeNanos(long nanos) {
+            int i = 0;
+            while (i < bounds.length && nanos > bounds[i]) {
+                i++;
+            }
+            counts.incrementAndGet(i);
+            sumNanos.add(nanos);
+        }
+
+        /** Observe the time elapsed since {@code startNanos} (a {@link System#nanoTime()} value). */
+        public void observeSince(long startNanos) {
+            observeNanos(System.nanoTime() - startNanos);
+        }
+
+        void writeTo(StringBuilder out, String name, String label, String labelValue) {
+            // Buckets are read one by one, so a concurrent observation may show up in _count but not yet in
+            // _sum; Prometheus tolerates that.
+            long cumulative = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                cumulative += counts.get(i);
+                out.append(name).append("_bucket");
+                labels(out, label, labelValue, le[i]);
+                out.append(' ').append(cumulative).append('\n');
+            }
+            cumulative += counts.get(bounds.length);
+            out.append(name).append("_bucket");
+            labels(out, label, labelValue, "+Inf");
+            out.append(' ').append(cumulative).append('\n');
+            out.append(name).append("_sum");
+            labels(out, label, labelValue, null);
+            out.append(' ').append(sumNanos.sum() / 1e9).append('\n');
+            out.append(name).append("_count");
+            labels(out, label, labelValue, null);
+            out.append(' ').append(cumulative).append('\n');
+        }
+    }
+
+    /** A metric with one label; {@link #labels} returns the child for a label value. */
+    public static final class Family<T> {
+        private interface Factory<T> {
+            T create();
+        }
+
+        private final Factory<T> factory;
+        private final ConcurrentHashMap<String, T> children = new ConcurrentHashMap<>();
+
+        private Family(Factory<T> factory) {
+            this.factory = factory;
+        }
+
+        public T labels(String value) {
+            T child = children.get(value);
+            if (child == null) {
+                child = children.computeIfAbsent(value, v -> factory.create());
+            }
+            return child;
+        }
+
+        TreeMap<String, T> sorted() {
+            return new TreeMap<>(children);
+        }
+    }
+}
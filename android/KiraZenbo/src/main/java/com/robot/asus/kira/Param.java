@@ -0,0 +1,122 @@
+package com.robot.asus.kira;
+
+import java.util.HashMap;
+
+/**
+ * A typed request parameter, declared once per endpoint and shared by every request.
+ *
+ * {@link #read} converts the raw value and reports a missing or invalid value
+ * as an IllegalArgumentException with a client-facing message, which the
+ * {@link ApiRouter} turns into a 400. An absent or empty value reads as the
+ * default (null unless set with {@link #withDefault}). Enum values are looked
+ * up in a map built when the parameter is declared.
+ */
+public final class Param<T> {
+
+    private interface Parser<T> {
+        /** Returns null if {@code raw} is not a valid value. */
+        T parse(String raw);
+    }
+
+    public final String name;
+    private final Parser<T> parser;
+    private final boolean required;
+    private final T defaultValue;
+
+    private Param(String name, Parser<T> parser, boolean required, T defaultValue) {
+        this.name = name;
+        this.parser = parser;
+        this.required = required;
+        this.defaultValue = defaultValue;
+    }
+
+    public static Param<String> ofString(String name) {
+        return new Param<>(name, raw -> raw, false, null);
+    }
+
+    /** {@code true} (any case) is true, anything else false. */
+    public static Param<Boolean> ofBoolean(String name) {
+        return new Param<>(name, raw -> "true".equalsIgnoreCase(raw), false, Boolean.FALSE);
+    }
+
+    public static Param<Integer> ofInt(String name) {
+        return new Param<>(name, raw -> {
+            try {
+                return Integer.parseInt(raw);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }, false, null);
+    }
+
+    public static Param<Long> ofLong(String name) {
+        return new Param<>(name, raw -> {
+            try {
+                return Long.parseLong(raw);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }, false, null);
+    }
+
+    public static Param<Float> ofFloat(String name) {
+        return new Param<>(name, raw -> {
+            try {
+                return Float.parseFloat(raw);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }, false, null);
+    }
+
+    public static Param<Double> ofDouble(String name) {
+        return new Param<>(name, raw -> {
+            try {
+                return Double.parseDouble(raw);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }, false, null);
+    }
+
+    /** Matches the constant names exactly, e.g. {@code HAPPY} for {@code RobotFace.HAPPY}. */
+    public static <E extends Enum<E>> Param<E> ofEnum(String name, Class<E> type) {
+        HashMap<String, E> byName = new HashMap<>();
+        for (E constant : type.getEnumConstants()) {
+            byName.put(constant.name(), constant);
+        }
+        return new Param<>(name, byName::get, false, null);
+    }
+
+    public Param<T> required() {
+        return new Param<>(name, parser, true, defaultValue);
+    }
+
+    public Param<T> withDefault(T value) {
+        return new Param<>(name, parser, required, value);
+    }
+
+    /** Whether the parameter is present and non-empty. */
+    public boolean isPresent(RobotCommands.Params params) {
+        String raw = params.get(name);
+        return raw != null && !raw.isEmpty();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the parameter is required and absent, or invalid
+     */
+    public T read(RobotCommands.Params params) {
+        String raw = params.get(name);
+        if (raw == null || raw.isEmpty()) {
+            if (required) {
+                throw new IllegalArgumentException("Field '" + name + "' is required");
+            }
+            return defaultValue;
+        }
+        T value = parser.parse(raw);
+        if (value == null) {
+            throw new IllegalArgumentException("Invalid '" + name + "' value");
+        }
+        return value;
+    }
+}
@@ -9,11 +9,11 @@ import android.app.PendingIntent;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.core.app.NotificationCompat;
 
-import com.asus.robotframework.API.RobotAPI;
 import com.asus.robotframework.API.RobotCallback;
 import com.asus.robotframework.API.RobotCmdState;
 import com.asus.robotframework.API.RobotErrorCode;
@@ -30,6 +30,7 @@ import org.json.JSONObject;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class RobotApiService extends Service {
 
@@ -37,16 +38,41 @@ public class RobotApiService extends Service {
     private static final int NOTIFICATION_ID = 1;
     private static final String CHANNEL_ID = "RobotApiServiceChannel";
 
-    private RobotAPI robotAPI;
+    private static final Metrics.Family<Metrics.Counter> CALLBACKS = Metrics.counter(
+            "kira_robot_callbacks_total", "RobotAPI callbacks received, by event name.", "callback");
+    private static final Metrics.Family<Metrics.Counter> FOREGROUND_LAUNCHES = Metrics.counter(
+            "kira_ui_foreground_requests_total",
+            "Requests to bring the UI to the front: launched, or skipped as resumed or in cooldown.", "result");
+
+    private RobotBackend robot;
     private AndroidAsyncEventServer asyncEventServer;
     private AsyncRobotApiServer asyncRobotApiServer;
+    private RobotExecutor robotExecutor;
+    private CommandDispatcher commandDispatcher;
+    private TelemetrySampler telemetrySampler;
+    private TelemetryEvents telemetryEvents;
+    private long foregroundCooldownMs;
+    private final AtomicLong lastForegroundLaunchMs = new AtomicLong(Long.MIN_VALUE / 2);
 
     /**
      * Bring the GeckoView UI (MainActivity) to the foreground.
      * This is called in response to user voice activity so that the
      * agent UI is ready when the user starts talking to the robot.
+     * Nothing is done while MainActivity is resumed, and at most one launch
+     * happens per {@code foreground_launch_cooldown_ms}.
      */
     private void bringUiToForeground() {
+        if (MainActivity.isInFront()) {
+            FOREGROUND_LAUNCHES.labels("resumed").inc();
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        long last = lastForegroundLaunchMs.get();
+        if (now - last < foregroundCooldownMs || !lastForegroundLaunchMs.compareAndSet(last, now)) {
+            FOREGROUND_LAUNCHES.labels("cooldown").inc();
+            return;
+        }
+        FOREGROUND_LAUNCHES.labels("launched").inc();
         Intent activityIntent = new Intent(this, MainActivity.class);
         activityIntent.setAction(Intent.ACTION_MAIN);
         activityIntent.addCategory(Intent.CATEGORY_LAUNCHER);
@@ -56,30 +82,54 @@ public class RobotApiService extends Service {
         startActivity(activityIntent);
     }
 
+    /** Report a main-looper stall found by {@link RobotExecutor} as an {@code onLooperStall} event. */
+    private void onLooperStall(long delayMs, long thresholdMs, String source) {
+        JSONObject obj = new JSONObject();
+        try {
+            obj.put("delay_ms", delayMs);
+            obj.put("threshold_ms", thresholdMs);
+            obj.put("source", source);
+        } catch (JSONException e) {
+            Log.e(TAG, "onLooperStall: JSONException", e);
+        }
+        sendEvent("onLooperStall", obj);
+    }
+
+    /**
+     * Whether any /events client is subscribed to this event type. High-rate
+     * callbacks check this before building their payload.
+     */
+    private boolean hasSubscribers(String event) {
+        return asyncEventServer != null && asyncEventServer.hasSubscribers(event);
+    }
+
     private void sendEvent(String event, JSONObject data) {
-        Log.d(TAG, "Sending event '" + event + "' with data: " + data.toString());
+        if (KiraLog.COMPILED && KiraLog.isLoggable(Log.DEBUG)) {
+            Log.d(TAG, "Sending event '" + event + "'");
+        }
         if (asyncEventServer != null) {
             asyncEventServer.sendEvent(event, data);
         }
     }
 
-    private void sendEvent(String event, String data) {
-        try {
-            JSONObject obj = new JSONObject();
-            obj.put("data", data);
-            Log.d(TAG, "Sending event '" + event + "' with data: " + obj.toString());
-            if (asyncEventServer != null) {
-                asyncEventServer.sendEvent(event, obj);
-            }
-        } catch (JSONException e) {
-            Log.e(TAG, "sendEvent: JSONException", e);
+    /** Send an event whose data is written straight into the outgoing frame. */
+    private void sendEvent(String event, String streamKey, EventData data) {
+        if (KiraLog.COMPILED && KiraLog.isLoggable(Log.DEBUG)) {
+            Log.d(TAG, "Sending event '" + event + "'");
+        }
+        if (asyncEventServer != null) {
+            asyncEventServer.sendEvent(event, streamKey, data);
         }
     }
 
-
     @Override
     public void onCreate() {
         super.onCreate();
+        StartupTrace.mark(StartupTrace.Phase.SERVICE_CREATED);
+        KiraLog.initFromSystemProperties();
+        // Start Gecko while the robot and servers come up, so the UI's first load does not wait for it.
+        GeckoRuntimeHolder.prewarm(this);
+        foregroundCooldownMs = getResources().getInteger(R.integer.foreground_launch_cooldown_ms);
 
         createNotificationChannel();
 
@@ -109,16 +159,32 @@ public class RobotApiService extends Service {
 
         startForeground(NOTIFICATION_ID, notification);
 
+        robotExecutor = new RobotExecutor();
+        robotExecutor.setStallListener(this::onLooperStall);
+        robotExecutor.startWatchdog();
+        commandDispatcher = new CommandDispatcher(robotExecutor, robotExecutor::executeOnMain);
+        telemetrySampler = new TelemetrySampler(this);
+        telemetryEvents = new TelemetryEvents(this::sendEvent);
+        telemetrySampler.setListener(telemetryEvents);
+        telemetrySampler.start();
+
         RobotCallback robotCallback = new RobotCallback() {
             @Override
             public void initComplete() {
                 super.initComplete();
+                CALLBACKS.labels("initComplete").inc();
                 Log.i(TAG, "RobotAPI initialized, starting async servers.");
+                asyncRobotApiServer = new AsyncRobotApiServer(getApplicationContext(), robot, commandDispatcher,
+                        robotExecutor, telemetrySampler, telemetryEvents);
                 asyncEventServer = new AndroidAsyncEventServer();
-                asyncEventServer.start(8790);
-
-                    // Start AsyncHttpServer-based API on the legacy HTTP port (8787).
-                    asyncRobotApiServer = new AsyncRobotApiServer(getApplicationContext(), robotAPI);
+                int eventPort = getResources().getInteger(R.integer.event_server_port);
+                if (eventPort > 0) {
+                    asyncEventServer.start(eventPort);
+                } else {
+                    // One server and port for the API and /events, so the UI reuses its origin.
+                    asyncEventServer.attach(asyncRobotApiServer.getServer());
+                }
+                // Start AsyncHttpServer-based API on the legacy HTTP port (8787).
                 asyncRobotApiServer.start(8787);
 
                 sendEvent("initComplete", new JSONObject());
@@ -127,50 +193,62 @@ public class RobotApiService extends Service {
             @Override
             public void onDetectFaceResult(List<DetectFaceResult> resultList) {
                 super.onDetectFaceResult(resultList);
-                sendEvent("onDetectFaceResult", resultList.toString());
+                CALLBACKS.labels("onDetectFaceResult").inc();
+                if (!hasSubscribers("onDetectFaceResult")) return;
+                sendEvent("onDetectFaceResult", null,
+                        w -> RobotResultEncoder.writeDetectFaceResults(w, resultList));
             }
 
             @Override
             public void onDetectPersonResult(List<DetectPersonResult> resultList) {
                 super.onDetectPersonResult(resultList);
-                sendEvent("onDetectPersonResult", resultList.toString());
+                CALLBACKS.labels("onDetectPersonResult").inc();
+                if (!hasSubscribers("onDetectPersonResult")) return;
+                sendEvent("onDetectPersonResult", null,
+                        w -> RobotResultEncoder.writeDetectPersonResults(w, resultList));
             }
 
             @Override
             public void onFaceResult(List<FaceResult> resultList) {
                 super.onFaceResult(resultList);
-                sendEvent("onFaceResult", resultList.toString());
+                CALLBACKS.labels("onFaceResult").inc();
+                if (!hasSubscribers("onFaceResult")) return;
+                sendEvent("onFaceResult", null,
+                        w -> RobotResultEncoder.writeFaceResults(w, resultList));
             }
 
             @Override
             public void onFaceResult(int cmd, int serial, List<FaceResult> resultList) {
                 super.onFaceResult(cmd, serial, resultList);
-                JSONObject obj = new JSONObject();
-                try {
-                    obj.put("cmd", cmd);
-                    obj.put("serial", serial);
-                    obj.put("resultList", resultList.toString());
-                } catch (JSONException e) {
-                    Log.e(TAG, "onFaceResult: JSONException", e);
-                }
-                sendEvent("onFaceResultWithCmd", obj);
+                CALLBACKS.labels("onFaceResultWithCmd").inc();
+                if (!hasSubscribers("onFaceResultWithCmd")) return;
+                sendEvent("onFaceResultWithCmd", EventCoalescer.streamKey("onFaceResultWithCmd", cmd, serial),
+                        w -> RobotResultEncoder.writeFaceResults(w, cmd, serial, resultList));
             }
 
             @Override
             public void onGesturePoint(GesturePointResult result) {
                 super.onGesturePoint(result);
-                sendEvent("onGesturePoint", result.toString());
+                CALLBACKS.labels("onGesturePoint").inc();
+                if (!hasSubscribers("onGesturePoint")) return;
+                sendEvent("onGesturePoint", null,
+                        w -> RobotResultEncoder.writeGesturePointResult(w, result));
             }
 
             @Override
             public void onRecognizePersonResult(List<RecognizePersonResult> resultList) {
                 super.onRecognizePersonResult(resultList);
-                sendEvent("onRecognizePersonResult", resultList.toString());
+                CALLBACKS.labels("onRecognizePersonResult").inc();
+                if (!hasSubscribers("onRecognizePersonResult")) return;
+                sendEvent("onRecognizePersonResult", null,
+                        w -> RobotResultEncoder.writeRecognizePersonResults(w, resultList));
             }
 
             @Override
             public void onResult(int cmd, int serial, RobotErrorCode err_code, Bundle result) {
                 super.onResult(cmd, serial, err_code, result);
+                CALLBACKS.labels("onResult").inc();
+                commandDispatcher.onResult(serial, err_code, result);
                 JSONObject obj = new JSONObject();
                 try {
                     obj.put("cmd", cmd);
@@ -186,6 +264,8 @@ public class RobotApiService extends Service {
             @Override
             public void onStateChange(int cmd, int serial, RobotErrorCode err_code, RobotCmdState state) {
                 super.onStateChange(cmd, serial, err_code, state);
+                CALLBACKS.labels("onStateChange").inc();
+                commandDispatcher.onStateChange(serial, err_code, state);
                 JSONObject obj = new JSONObject();
                 try {
                     obj.put("cmd", cmd);
@@ -201,32 +281,32 @@ public class RobotApiService extends Service {
             @Override
             public void onTrackingResult(List<TrackingResult> resultList) {
                 super.onTrackingResult(resultList);
-                sendEvent("onTrackingResult", resultList.toString());
+                CALLBACKS.labels("onTrackingResult").inc();
+                if (!hasSubscribers("onTrackingResult")) return;
+                sendEvent("onTrackingResult", null,
+                        w -> RobotResultEncoder.writeTrackingResults(w, resultList));
             }
 
             @Override
             public void onTrackingResult(int cmd, int serial, List<TrackingResult> resultList) {
                 super.onTrackingResult(cmd, serial, resultList);
-                JSONObject obj = new JSONObject();
-                try {
-                    obj.put("cmd", cmd);
-                    obj.put("serial", serial);
-                    obj.put("resultList", resultList.toString());
-                } catch (JSONException e) {
-                    Log.e(TAG, "onTrackingResult: JSONException", e);
-                }
-                sendEvent("onTrackingResultWithCmd", obj);
+                CALLBACKS.labels("onTrackingResultWithCmd").inc();
+                if (!hasSubscribers("onTrackingResultWithCmd")) return;
+                sendEvent("onTrackingResultWithCmd", EventCoalescer.streamKey("onTrackingResultWithCmd", cmd, serial),
+                        w -> RobotResultEncoder.writeTrackingResults(w, cmd, serial, resultList));
             }
         };
 
         RobotCallback.Listen listenCallback = new RobotCallback.Listen() {
             @Override
             public void onFinishRegister() {
+                CALLBACKS.labels("onFinishRegister").inc();
                 sendEvent("onFinishRegister", new JSONObject());
             }
 
             @Override
             public void onVoiceDetect(JSONObject jsonObject) {
+                CALLBACKS.labels("onVoiceDetect").inc();
                 sendEvent("onVoiceDetect", jsonObject);
                 // User just made a sound; bring the UI to the foreground so the agent is ready.
                 bringUiToForeground();
@@ -234,6 +314,7 @@ public class RobotApiService extends Service {
 
             @Override
             public void onSpeakComplete(String s, String s1) {
+                CALLBACKS.labels("onSpeakComplete").inc();
                 JSONObject obj = new JSONObject();
                 try {
                     obj.put("utterance", s);
@@ -246,24 +327,41 @@ public class RobotApiService extends Service {
 
             @Override
             public void onEventUserUtterance(JSONObject jsonObject) {
+                CALLBACKS.labels("onEventUserUtterance").inc();
                 sendEvent("onEventUserUtterance", jsonObject);
             }
 
             @Override
             public void onResult(JSONObject jsonObject) {
+                CALLBACKS.labels("onDsdResult").inc();
                 sendEvent("onDsdResult", jsonObject);
             }
 
             @Override
             public void onRetry(JSONObject jsonObject) {
+                CALLBACKS.labels("onRetry").inc();
                 sendEvent("onRetry", jsonObject);
             }
         };
 
-        robotAPI = new RobotAPI(getApplicationContext(), robotCallback);
-        robotAPI.robot.registerListenCallback(listenCallback);
-        robotAPI.robot.setPressOnHeadAction(false);
-        robotAPI.robot.setVoiceTrigger(false);
+        robot = createBackend(robotCallback, listenCallback);
+        robot.setPressOnHeadAction(false);
+        robot.setVoiceTrigger(false);
+    }
+
+    /** The Zenbo RobotAPI, or the simulator when {@code use_robot_simulator} is set. */
+    private RobotBackend createBackend(RobotCallback callback, RobotCallback.Listen listen) {
+        if (!getResources().getBoolean(R.bool.use_robot_simulator)) {
+            return new ZenboRobotBackend(getApplicationContext(), callback, listen);
+        }
+        SimulatedRobotBackend.Config config;
+        try {
+            config = SimulatedRobotBackend.Config.parse(getString(R.string.robot_simulator_config));
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Bad robot_simulator_config, using defaults", e);
+            config = SimulatedRobotBackend.Config.DEFAULT;
+        }
+        return new SimulatedRobotBackend(config, callback, listen);
     }
 
     private void createNotificationChannel() {
@@ -278,6 +376,22 @@ public class RobotApiService extends Service {
         }
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (telemetrySampler != null) {
+            telemetrySampler.refreshSoon(TelemetrySampler.Metric.MEMORY);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        if (telemetrySampler != null) {
+            telemetrySampler.refreshSoon(TelemetrySampler.Metric.MEMORY);
+        }
+    }
+
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         return START_STICKY;
@@ -294,8 +408,14 @@ public class RobotApiService extends Service {
             asyncRobotApiServer.stop();
             asyncRobotApiServer = null;
         }
-        if (robotAPI != null) {
-            robotAPI.release();
+        if (telemetrySampler != null) {
+            telemetrySampler.stop();
+        }
+        if (robotExecutor != null) {
+            robotExecutor.quit();
+        }
+        if (robot != null) {
+            robot.release();
         }
     }
 
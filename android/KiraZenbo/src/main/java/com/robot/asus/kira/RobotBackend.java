@@ -0,0 +1,55 @@
+package com.robot.asus.kira;
+
+import com.asus.robotframework.API.RobotFace;
+
+/**
+ * The RobotAPI calls the HTTP routes issue, so the servers can run against the
+ * real robot ({@link ZenboRobotBackend}) or a {@link SimulatedRobotBackend}.
+ *
+ * Command methods return the serial the robot assigned; tracked commands then
+ * report {@code onStateChange} for that serial through the backend's
+ * {@link com.asus.robotframework.API.RobotCallback}. Calls are made from the
+ * robot executor (see {@link RobotExecutor}).
+ */
+public interface RobotBackend {
+
+    // Dialog
+
+    int startFaceSpeakAnimation();
+
+    int stopSpeak();
+
+    int setVoiceTrigger(boolean enable);
+
+    int setPressOnHeadAction(boolean enable);
+
+    int setExpression(RobotFace face);
+
+    int setExpression(RobotFace face, String text);
+
+    // Utility
+
+    int followFace(boolean enablePreview, boolean largePreview);
+
+    int followObject();
+
+    int trackFace(boolean enablePreview, boolean largePreview);
+
+    /** Cancel {@link #followFace}, {@link #followObject} or {@link #trackFace}. */
+    int stopFollowing();
+
+    int lookAtUser(float doa);
+
+    int playAction(int number);
+
+    int playEmotionalAction(RobotFace face, int action);
+
+    int setScreenBlueLightFilterMode(String mode);
+
+    boolean getScreenBlueLightFilterEnable();
+
+    String getScreenBlueLightFilterMode();
+
+    /** Stop delivering callbacks and free the connection to the robot. */
+    void release();
+}
@@ -0,0 +1,176 @@
+package com.robot.asus.kira;
+
+import com.asus.robotframework.API.RobotFace;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The RobotAPI commands exposed over HTTP, keyed by their route name
+ * ({@code face/expression} is served at {@code /api/face/expression}).
+ *
+ * Parameters are declared once as typed {@link Param}s. Binding reads and
+ * validates them and returns a ready-to-run invocation, so the single-command
+ * routes and {@code /api/batch} accept the same names, parameters and error
+ * messages.
+ *
+ * Each command also declares its dispatcher lane and kind: the stop commands
+ * run in {@link CommandDispatcher.Lane#STOP} and cancel the queued commands of
+ * the kind they stop, long gestures and settings run in the background lane.
+ * Commands that set the face or the gaze declare that state, so an unchanged
+ * expression or a nearly identical {@code doa} is skipped (see
+ * {@link CommandDispatcher#submit(CommandDispatcher.Invocation, boolean)}).
+ */
+public class RobotCommands {
+
+    /** Parameter lookup; returns null when the parameter is absent. */
+    public interface Params {
+        String get(String name);
+    }
+
+    private interface Binder {
+        CommandDispatcher.Invocation bind(String name, Params params);
+    }
+
+    // Parameters, declared once and shared by every request.
+    private static final Param<Boolean> ENABLE = Param.ofBoolean("enable");
+    private static final Param<Boolean> ENABLE_PREVIEW = Param.ofBoolean("enablePreview");
+    private static final Param<Boolean> LARGE_PREVIEW = Param.ofBoolean("largePreview");
+    private static final Param<RobotFace> EXPRESSION = Param.ofEnum("expression", RobotFace.class).required();
+    private static final Param<String> TEXT = Param.ofString("text").required();
+    private static final Param<Float> DOA = Param.ofFloat("doa").required();
+    private static final Param<Integer> NUMBER = Param.ofInt("number").required();
+    private static final Param<RobotFace> FACE = Param.ofEnum("face", RobotFace.class).required();
+    private static final Param<Integer> ACTION = Param.ofInt("action").required();
+    private static final Param<String> MODE = Param.ofString("mode").required();
+
+    // Kinds of commands a stop command cancels while they are still queued.
+    static final String SPEECH = "speech";
+    static final String FOLLOW = "follow";
+    private static final CommandDispatcher.Lane BACKGROUND = CommandDispatcher.Lane.BACKGROUND;
+
+    // State keys for deduplication: the face shown and the direction the robot looks at.
+    static final String FACE_STATE = "face";
+    static final String DOA_STATE = "doa";
+    /** An unchanged expression is only skipped this long after it was set, in case the robot reset its face. */
+    static final long EXPRESSION_HOLD_MS = 30_000;
+    /** A look_at_user within this angle of the previous one, and this soon after it, is skipped. */
+    static final float DOA_TOLERANCE = 5f;
+    static final long DOA_WINDOW_MS = 1_000;
+
+    private final Map<String, Binder> binders = new LinkedHashMap<>();
+
+    public RobotCommands(RobotBackend robot) {
+        // Dialog
+        binders.put("dialog/start_speak_animation", (name, p) ->
+                tracked(name, robot::startFaceSpeakAnimation).ofKind(SPEECH));
+        binders.put("dialog/stop_speak", (name, p) ->
+                tracked(name, robot::stopSpeak).preempting(SPEECH));
+        binders.put("dialog/voice_trigger", (name, p) -> {
+            boolean enable = ENABLE.read(p);
+            return untracked(name, () -> robot.setVoiceTrigger(enable)).inLane(BACKGROUND);
+        });
+        binders.put("dialog/head_action", (name, p) -> {
+            boolean enable = ENABLE.read(p);
+            return untracked(name, () -> robot.setPressOnHeadAction(enable))
+                    .inLane(BACKGROUND);
+        });
+
+        // Face
+        binders.put("face/expression", (name, p) -> {
+            RobotFace face = EXPRESSION.read(p);
+            return tracked(name, () -> robot.setExpression(face))
+                    .coalescing(FACE_STATE, face, (last, next, ageMs) -> last == next && ageMs < EXPRESSION_HOLD_MS);
+        });
+        binders.put("face/expression_and_speak", (name, p) -> {
+            requireAll(p, "Fields 'expression' and 'text' are required", EXPRESSION, TEXT);
+            RobotFace face = EXPRESSION.read(p);
+            String text = TEXT.read(p);
+            return tracked(name, () -> robot.setExpression(face, text)).ofKind(SPEECH)
+                    .coalescing(FACE_STATE, face, null);
+        });
+
+        // Utility
+        binders.put("utility/follow_face", (name, p) -> {
+            boolean enablePreview = ENABLE_PREVIEW.read(p);
+            boolean largePreview = LARGE_PREVIEW.read(p);
+            return tracked(name, enablePreview, () -> robot.followFace(enablePreview, largePreview))
+                    .ofKind(FOLLOW);
+        });
+        binders.put("utility/follow_object", (name, p) ->
+                tracked(name, robot::followObject).ofKind(FOLLOW));
+        binders.put("utility/stop_following", (name, p) ->
+                untracked(name, robot::stopFollowing).preempting(FOLLOW));
+        binders.put("utility/track_face", (name, p) -> {
+            boolean enablePreview = ENABLE_PREVIEW.read(p);
+            boolean largePreview = LARGE_PREVIEW.read(p);
+            return tracked(name, enablePreview, () -> robot.trackFace(enablePreview, largePreview))
+                    .ofKind(FOLLOW);
+        });
+        binders.put("utility/look_at_user", (name, p) -> {
+            float doa = DOA.read(p);
+            return tracked(name, () -> robot.lookAtUser(doa))
+                    .coalescing(DOA_STATE, doa, (last, next, ageMs) ->
+                            ageMs < DOA_WINDOW_MS && Math.abs(last - next) <= DOA_TOLERANCE);
+        });
+        binders.put("utility/play_action", (name, p) -> {
+            int number = NUMBER.read(p);
+            return tracked(name, () -> robot.playAction(number)).inLane(BACKGROUND);
+        });
+        binders.put("utility/play_emotional_action", (name, p) -> {
+            requireAll(p, "Fields 'face' and 'action' are required", FACE, ACTION);
+            RobotFace face = FACE.read(p);
+            int action = ACTION.read(p);
+            return tracked(name, () -> robot.playEmotionalAction(face, action))
+                    .inLane(BACKGROUND).coalescing(FACE_STATE, face, null);
+        });
+        binders.put("utility/set_blue_light_filter_mode", (name, p) -> {
+            String mode = MODE.read(p);
+            return untracked(name, () -> robot.setScreenBlueLightFilterMode(mode))
+                    .inLane(BACKGROUND);
+        });
+    }
+
+    public Set<String> names() {
+        return Collections.unmodifiableSet(binders.keySet());
+    }
+
+    /**
+     * Validate the parameters of a command.
+     *
+     * @throws IllegalArgumentException with a client-facing message if the
+     *                                  command is unknown or a parameter is missing or invalid
+     */
+    public CommandDispatcher.Invocation bind(String name, Params params) {
+        Binder binder = binders.get(name);
+        if (binder == null) {
+            throw new IllegalArgumentException("Unknown command '" + name + "'");
+        }
+        return binder.bind(name, params);
+    }
+
+    private static CommandDispatcher.Invocation tracked(String name, CommandDispatcher.RobotCall call) {
+        return new CommandDispatcher.Invocation(name, true, call);
+    }
+
+    // Calls that open the camera preview window stay on the main thread in RobotExecutor.Mode.THREAD.
+    private static CommandDispatcher.Invocation tracked(String name, boolean mainThread,
+                                                        CommandDispatcher.RobotCall call) {
+        return new CommandDispatcher.Invocation(name, true, mainThread, call);
+    }
+
+    // Settings calls that never report a state.
+    private static CommandDispatcher.Invocation untracked(String name, CommandDispatcher.RobotCall call) {
+        return new CommandDispatcher.Invocation(name, false, call);
+    }
+
+    private static void requireAll(Params p, String message, Param<?>... params) {
+        for (Param<?> param : params) {
+            if (!param.isPresent(p)) {
+                throw new IllegalArgumentException(message);
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.robot.asus.kira;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs RobotAPI calls on the main looper or on a dedicated "RobotDispatch"
+ * HandlerThread, and watches the main looper for stalls.
+ *
+ * GeckoView and the UI share the main looper with the robot commands, so a
+ * long frame or GC pause delays every queued command. Every task posted
+ * through this executor is stamped and its queue delay recorded in
+ * {@code kira_main_looper_delay_seconds} or
+ * {@code kira_robot_thread_delay_seconds}. Independently of command traffic,
+ * a probe is posted to the main looper from the dispatch thread every
+ * {@link #PROBE_INTERVAL_MS}. A probe or command that waited longer than the
+ * stall threshold is reported to the {@link StallListener} (at most once per
+ * {@link #MIN_REPORT_INTERVAL_MS}) and counted in
+ * {@code kira_main_looper_stalls_total}.
+ *
+ * In {@link Mode#THREAD} commands run on the dispatch thread, except those
+ * submitted through {@link #executeOnMain}; tasks on different loopers are not
+ * ordered with respect to each other.
+ */
+public class RobotExecutor implements Executor {
+
+    private static final String TAG = "RobotExecutor";
+
+    static final long DEFAULT_STALL_THRESHOLD_MS = 200;
+    static final long PROBE_INTERVAL_MS = 1000;
+    static final long MIN_REPORT_INTERVAL_MS = 1000;
+
+    private static final Metrics.Histogram MAIN_DELAY = Metrics.histogram(
+            "kira_main_looper_delay_seconds", "Time robot commands and probes wait on the main looper before they run.",
+            Metrics.LATENCY_BUCKETS_NANOS);
+    private static final Metrics.Histogram THREAD_DELAY = Metrics.histogram(
+            "kira_robot_thread_delay_seconds", "Time robot commands wait on the RobotDispatch thread before they run.",
+            Metrics.LATENCY_BUCKETS_NANOS);
+    private static final Metrics.Counter STALLS = Metrics.counter(
+            "kira_main_looper_stalls_total", "Main-looper tasks that waited longer than the stall threshold.");
+
+    public enum Mode {
+        /** Every RobotAPI call runs on the main looper (the default). */
+        MAIN,
+        /** RobotAPI calls run on the RobotDispatch thread unless they need the main thread. */
+        THREAD
+    }
+
+    /** Called on the main looper once a stalled task finally runs. */
+    public interface StallListener {
+        void onStall(long delayMs, long thresholdMs, String source);
+    }
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final HandlerThread thread = new HandlerThread("RobotDispatch", Process.THREAD_PRIORITY_FOREGROUND);
+    private final Handler threadHandler;
+    private final AtomicLong stallCount = new AtomicLong();
+
+    private volatile Mode mode = Mode.MAIN;
+    private volatile long stallThresholdMs = DEFAULT_STALL_THRESHOLD_MS;
+    private volatile StallListener listener;
+    private volatile boolean probing = false;
+    private volatile long lastStallMs = 0;
+    // Only touched on the main looper.
+    private long lastReportUptimeMs = -MIN_REPORT_INTERVAL_MS;
+
+    public RobotExecutor() {
+        thread.start();
+        threadHandler = new Handler(thread.getLooper());
+    }
+
+    public void setStallListener(StallListener listener) {
+        this.listener = listener;
+    }
+
+    /** Start posting main-looper probes. */
+    public void startWatchdog() {
+        if (probing) return;
+        probing = true;
+        threadHandler.post(this::probe);
+    }
+
+    /** Stop the probes and the dispatch thread; tasks still queued on it are dropped. */
+    public void quit() {
+        probing = false;
+        thread.quitSafely();
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setMode(Mode mode) {
+        if (this.mode != mode) {
+            Log.i(TAG, "Robot commands now run on " + (mode == Mode.MAIN ? "the main looper" : "RobotDispatch"));
+        }
+        this.mode = mode;
+    }
+
+    public long getStallThresholdMs() {
+        return stallThresholdMs;
+    }
+
+    public void setStallThresholdMs(long thresholdMs) {
+        stallThresholdMs = thresholdMs;
+    }
+
+    /** Run a RobotAPI call on the looper selected by the current {@link Mode}. */
+    @Override
+    public void execute(Runnable task) {
+        if (mode == Mode.THREAD) {
+            long postedNanos = System.nanoTime();
+            threadHandler.post(() -> {
+                THREAD_DELAY.observeSince(postedNanos);
+                task.run();
+            });
+        } else {
+            executeOnMain(task);
+        }
+    }
+
+    /** Run a RobotAPI call on the main looper whatever the mode, e.g. one that opens a preview window. */
+    public void executeOnMain(Runnable task) {
+        long postedNanos = System.nanoTime();
+        mainHandler.post(() -> {
+            onMainDelay(System.nanoTime() - postedNanos, "command");
+            task.run();
+        });
+    }
+
+    public JSONObject toJson() throws JSONException {
+        JSONObject obj = new JSONObject();
+        obj.put("mode", mode.name().toLowerCase(Locale.ROOT));
+        obj.put("stall_threshold_ms", stallThresholdMs);
+        obj.put("stalls", stallCount.get());
+        obj.put("last_stall_ms", lastStallMs);
+        return obj;
+    }
+
+    // Runs on the dispatch thread; the next probe is posted only after this one ran, so probes never pile up.
+    private void probe() {
+        if (!probing) return;
+        long postedNanos = System.nanoTime();
+        mainHandler.post(() -> {
+            onMainDelay(System.nanoTime() - postedNanos, "probe");
+            threadHandler.postDelayed(this::probe, PROBE_INTERVAL_MS);
+        });
+    }
+
+    // Runs on the main looper.
+    private void onMainDelay(long delayNanos, String source) {
+        MAIN_DELAY.observeNanos(delayNanos);
+        long delayMs = delayNanos / 1_000_000;
+        long thresholdMs = stallThresholdMs;
+        if (delayMs < thresholdMs) return;
+
+        STALLS.inc();
+        stallCount.incrementAndGet();
+        lastStallMs = delayMs;
+        // Commands queued behind the same stall would each report it.
+        long now = SystemClock.uptimeMillis();
+        if (now - lastReportUptimeMs < MIN_REPORT_INTERVAL_MS) return;
+        lastReportUptimeMs = now;
+        Log.w(TAG, "Main looper stalled: a " + source + " waited " + delayMs + " ms");
+        StallListener l = listener;
+        if (l != null) {
+            l.onStall(delayMs, thresholdMs, source);
+        }
+    }
+}
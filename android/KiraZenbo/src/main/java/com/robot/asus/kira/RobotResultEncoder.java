@@ -0,0 +1,315 @@
+package com.robot.asus.kira;
+
+import android.graphics.PointF;
+
+import com.asus.robotframework.API.results.BBox3D;
+import com.asus.robotframework.API.results.DetectFaceResult;
+import com.asus.robotframework.API.results.DetectPersonResult;
+import com.asus.robotframework.API.results.FaceResult;
+import com.asus.robotframework.API.results.GesturePointResult;
+import com.asus.robotframework.API.results.PointF3D;
+import com.asus.robotframework.API.results.RecognizePersonResult;
+import com.asus.robotframework.API.results.Rectangle2D;
+import com.asus.robotframework.API.results.TrackingResult;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Field-by-field JSON encoding of the RobotAPI vision result types.
+ *
+ * The SDK result classes do not override {@code toString()}, so the event
+ * payloads used to carry strings like {@code [DetectFaceResult@1a2b3c]}. These
+ * encoders write the actual getters into an {@link EventWriter} (JSON or CBOR). List events are
+ * encoded as {@code {"resultList":[...]}}, with {@code cmd} and {@code serial}
+ * added for the command-scoped variants, and gestures as {@code {"result":{...}}}.
+ */
+public final class RobotResultEncoder {
+
+    private RobotResultEncoder() {
+    }
+
+    // Event bodies
+
+    public static void writeDetectFaceResults(EventWriter w, List<DetectFaceResult> list) {
+        w.beginObject().name("resultList").beginArray();
+        if (list != null) {
+            for (int i = 0; i < list.size(); i++) {
+                writeDetectFace(w, list.get(i));
+            }
+        }
+        w.endArray().endObject();
+    }
+
+    public static void writeDetectPersonResults(EventWriter w, List<DetectPersonResult> list) {
+        w.beginObject().name("resultList").beginArray();
+        if (list != null) {
+            for (int i = 0; i < list.size(); i++) {
+                writeDetectPerson(w, list.get(i));
+            }
+        }
+        w.endArray().endObject();
+    }
+
+    public static void writeRecognizePersonResults(EventWriter w, List<RecognizePersonResult> list) {
+        w.beginObject().name("resultList").beginArray();
+        if (list != null) {
+            for (int i = 0; i < list.size(); i++) {
+                writeRecognizePerson(w, list.get(i));
+            }
+        }
+        w.endArray().endObject();
+    }
+
+    public static void writeFaceResults(EventWriter w, List<FaceResult> list) {
+        w.beginObject();
+        writeFaceList(w, list);
+        w.endObject();
+    }
+
+    public static void writeFaceResults(EventWriter w, int cmd, int serial, List<FaceResult> list) {
+        w.beginObject().name("cmd").value(cmd).name("serial").value(serial);
+        writeFaceList(w, list);
+        w.endObject();
+    }
+
+    public static void writeTrackingResults(EventWriter w, List<TrackingResult> list) {
+        w.beginObject();
+        writeTrackingList(w, list);
+        w.endObject();
+    }
+
+    public static void writeTrackingResults(EventWriter w, int cmd, int serial, List<TrackingResult> list) {
+        w.beginObject().name("cmd").value(cmd).name("serial").value(serial);
+        writeTrackingList(w, list);
+        w.endObject();
+    }
+
+    public static void writeGesturePointResult(EventWriter w, GesturePointResult r) {
+        w.beginObject().name("result");
+        if (r == null) {
+            w.nullValue();
+        } else {
+            w.beginObject();
+            w.name("hasValue").value(r.getHasValue());
+            w.name("trackId").value(r.getTrackId());
+            w.name("point3D");
+            writePoint(w, r.getPoint3D());
+            w.name("vector3D");
+            writePoint(w, r.getVector3D());
+            w.name("point2D");
+            writePoint(w, r.getPoint2D());
+            w.name("vector2D");
+            writePoint(w, r.getVector2D());
+            w.name("groundPt");
+            writePoint(w, r.getGroundPt());
+            w.endObject();
+        }
+        w.endObject();
+    }
+
+    // Result objects
+
+    public static void writeDetectFace(EventWriter w, DetectFaceResult r) {
+        if (r == null) {
+            w.nullValue();
+            return;
+        }
+        w.beginObject();
+        w.name("uuid").value(r.getUuid());
+        w.name("trackId").value(r.getTrackID());
+        w.name("faceLoc");
+        writePoint(w, r.getFaceLoc());
+        w.name("faceBox");
+        writeBox(w, r.getFaceBox());
+        w.name("faceLocCam");
+        writeRect(w, r.getFaceLocCam());
+        w.name("faceAngle");
+        writePoint(w, r.getFaceAngle());
+        w.name("hasValidDepth").value(r.hasValidDepth());
+        w.name("hasValidHeadROI").value(r.hasValidHeadROI());
+        w.name("isCandidateObj").value(r.isCandidateObj());
+        w.name("headGazeDirection").value(r.getHeadGazeDirection() != null ? r.getHeadGazeDirection().name() : null);
+        w.name("headPoseConfidence").value(r.getHeadPoseConfidence());
+        w.name("faceEmotion").value(r.getFaceEmotion());
+        w.endObject();
+    }
+
+    public static void writeRecognizePerson(EventWriter w, RecognizePersonResult r) {
+        if (r == null) {
+            w.nullValue();
+            return;
+        }
+        w.beginObject();
+        w.name("uuid").value(r.getUuid());
+        w.name("trackId").value(r.getTrackID());
+        w.name("faceLoc");
+        writePoint(w, r.getFaceLoc());
+        w.name("faceBox");
+        writeBox(w, r.getFaceBox());
+        w.name("faceLocCam");
+        writeRect(w, r.getFaceLocCam());
+        w.name("faceAngle");
+        writePoint(w, r.getFaceAngle());
+        w.name("hasValidDepth").value(r.hasValidDepth());
+        w.name("hasValidHeadROI").value(r.hasValidHeadROI());
+        w.name("isCandidateObj").value(r.isCandidateObj());
+        w.name("headGazeDirection").value(r.getHeadGazeDirection() != null ? r.getHeadGazeDirection().name() : null);
+        w.name("headPoseConfidence").value(r.getHeadPoseConfidence());
+        w.name("faceEmotion").value(r.getFaceEmotion());
+        w.endObject();
+    }
+
+    public static void writeFace(EventWriter w, FaceResult r) {
+        if (r == null) {
+            w.nullValue();
+            return;
+        }
+        w.beginObject();
+        w.name("uuid").value(r.getUuid());
+        w.name("trackId").value(r.getTrackID());
+        w.name("faceLoc");
+        writePoint(w, r.getFaceLoc());
+        w.name("faceBox");
+        writeBox(w, r.getFaceBox());
+        w.name("faceLocCam");
+        writeRect(w, r.getFaceLocCam());
+        w.name("faceAngle");
+        writePoint(w, r.getFaceAngle());
+        w.name("hasValidDepth").value(r.hasValidDepth());
+        w.name("hasValidHeadROI").value(r.hasValidHeadROI());
+        w.name("isCandidateObj").value(r.isCandidateObj());
+        w.name("headGazeDirection").value(r.getHeadGazeDirection() != null ? r.getHeadGazeDirection().name() : null);
+        w.name("headPoseConfidence").value(r.getHeadPoseConfidence());
+        w.name("faceEmotion").value(r.getFaceEmotion());
+        w.name("faceRecognitionScore");
+        Map<String, Float> scores = r.getFaceRecognitionScore();
+        if (scores == null) {
+            w.nullValue();
+        } else {
+            w.beginObject();
+            for (Map.Entry<String, Float> e : scores.entrySet()) {
+                w.name(e.getKey());
+                if (e.getValue() == null) {
+                    w.nullValue();
+                } else {
+                    w.value(e.getValue().floatValue());
+                }
+            }
+            w.endObject();
+        }
+        w.endObject();
+    }
+
+    public static void writeDetectPerson(EventWriter w, DetectPersonResult r) {
+        if (r == null) {
+            w.nullValue();
+            return;
+        }
+        w.beginObject();
+        w.name("trackId").value(r.getTrackID());
+        w.name("bodyLoc");
+        writePoint(w, r.getBodyLoc());
+        w.name("bodyBox");
+        writeBox(w, r.getBodyBox());
+        w.name("bodyLocCam");
+        writeRect(w, r.getBodyLocCam());
+        w.name("trackConf").value(r.getTrackConf());
+        w.name("trackerTimeDelta").value(r.getTrackerTimeDelta());
+        w.name("hasValidDepth").value(r.hasValidDepth());
+        w.endObject();
+    }
+
+    public static void writeTracking(EventWriter w, TrackingResult r) {
+        if (r == null) {
+            w.nullValue();
+            return;
+        }
+        w.beginObject();
+        w.name("uuid").value(r.getUuid());
+        w.name("trackId").value(r.getTrackID());
+        w.name("bodyLoc");
+        writePoint(w, r.getBodyLoc());
+        w.name("bodyBox");
+        writeBox(w, r.getBodyBox());
+        w.name("bodyLocCam");
+        writeRect(w, r.getBodyLocCam());
+        w.name("faceBox2D");
+        writeRect(w, r.getFaceBox2D());
+        w.name("trackConf").value(r.getTrackConf());
+        w.name("bodyOrientation").value(r.getBodyOrientation() != null ? r.getBodyOrientation().name() : null);
+        w.name("hasValidDepth").value(r.hasValidDepth());
+        w.name("hasValidHeadROI").value(r.hasValidHeadROI());
+        w.endObject();
+    }
+
+    // Geometry
+
+    public static void writePoint(EventWriter w, PointF3D p) {
+        if (p == null) {
+            w.nullValue();
+            return;
+        }
+        w.beginObject().name("x").value(p.x).name("y").value(p.y).name("z").value(p.z).endObject();
+    }
+
+    public static void writePoint(EventWriter w, PointF p) {
+        if (p == null) {
+            w.nullValue();
+            return;
+        }
+        w.beginObject().name("x").value(p.x).name("y").value(p.y).endObject();
+    }
+
+    public static void writeRect(EventWriter w, Rectangle2D r) {
+        if (r == null) {
+            w.nullValue();
+            return;
+        }
+        w.beginObject()
+                .name("x").value(r.x)
+                .name("y").value(r.y)
+                .name("h_width").value(r.h_width)
+                .name("h_height").value(r.h_height)
+                .endObject();
+    }
+
+    public static void writeBox(EventWriter w, BBox3D b) {
+        if (b == null) {
+            w.nullValue();
+            return;
+        }
+        w.beginObject();
+        w.name("lookAt");
+        writePoint(w, b.lookAt);
+        w.name("faceUp");
+        writePoint(w, b.faceUp);
+        w.name("left").value(b.left);
+        w.name("top").value(b.top);
+        w.name("right").value(b.right);
+        w.name("bottom").value(b.bottom);
+        w.endObject();
+    }
+
+    // Helpers
+
+    private static void writeFaceList(EventWriter w, List<FaceResult> list) {
+        w.name("resultList").beginArray();
+        if (list != null) {
+            for (int i = 0; i < list.size(); i++) {
+                writeFace(w, list.get(i));
+            }
+        }
+        w.endArray();
+    }
+
+    private static void writeTrackingList(EventWriter w, List<TrackingResult> list) {
+        w.name("resultList").beginArray();
+        if (list != null) {
+            for (int i = 0; i < list.size(); i++) {
+                writeTracking(w, list.get(i));
+            }
+        }
+        w.endArray();
+    }
+}
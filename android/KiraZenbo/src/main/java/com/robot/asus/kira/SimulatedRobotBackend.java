@@ -0,0 +1,444 @@
+package com.robot.asus.kira;
+
+import android.util.Log;
+
+import com.asus.robotframework.API.RobotCallback;
+import com.asus.robotframework.API.RobotCmdState;
+import com.asus.robotframework.API.RobotCommand;
+import com.asus.robotframework.API.RobotErrorCode;
+import com.asus.robotframework.API.RobotFace;
+import com.asus.robotframework.API.results.BBox3D;
+import com.asus.robotframework.API.results.DetectFaceResult;
+import com.asus.robotframework.API.results.HeadGazeDirection;
+import com.asus.robotframework.API.results.PointF3D;
+import com.asus.robotframework.API.results.Rectangle2D;
+import com.asus.robotframework.API.results.TrackingResult;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link RobotBackend} without a robot, for running the HTTP and event
+ * servers against realistic callback traffic.
+ *
+ * Accepts every command the HTTP routes issue. Tracked commands report
+ * {@code onStateChange} ACTIVE after the configured command latency, then
+ * SUCCEED once their duration has passed, or PREEMPTED when a newer command
+ * takes the same channel (speech, motion, follow) or a stop command cancels
+ * it. Follow and track commands run until stopped and report
+ * {@code onTrackingResult(cmd, serial, ...)} while active. Independently, a
+ * person is tracked at {@link Config#trackingHz} and faces are detected in
+ * bursts. All callbacks arrive on a single "RobotSimulator" thread.
+ */
+public class SimulatedRobotBackend implements RobotBackend {
+
+    private static final String TAG = "SimulatedRobot";
+
+    private static final int FIRST_SERIAL = 1000;
+
+    /** Rates and latencies of the simulated robot. */
+    public static final class Config {
+        /** {@code onTrackingResult} rate; 0 disables the stream. */
+        public final float trackingHz;
+        /** Time between the starts of two face-detection bursts; 0 disables them. */
+        public final long faceBurstIntervalMs;
+        public final int faceBurstFrames;
+        public final float faceBurstHz;
+        /** Delay before a command reports ACTIVE. */
+        public final long commandLatencyMs;
+        /** Up to this much is added to each command latency at random. */
+        public final long commandJitterMs;
+        /** How long play_action, play_emotional_action and look_at_user stay ACTIVE. */
+        public final long motionMs;
+        /** Speaking time per character of text. */
+        public final long speakMsPerChar;
+
+        public static final Config DEFAULT = new Config(15f, 5_000, 20, 10f, 300, 100, 1_500, 60);
+
+        public Config(float trackingHz, long faceBurstIntervalMs, int faceBurstFrames, float faceBurstHz,
+                      long commandLatencyMs, long commandJitterMs, long motionMs, long speakMsPerChar) {
+            this.trackingHz = trackingHz;
+            this.faceBurstIntervalMs = faceBurstIntervalMs;
+            this.faceBurstFrames = faceBurstFrames;
+            this.faceBurstHz = faceBurstHz;
+            this.commandLatencyMs = commandLatencyMs;
+            this.commandJitterMs = commandJitterMs;
+            this.motionMs = motionMs;
+            this.speakMsPerChar = speakMsPerChar;
+        }
+
+        /**
+         * Parse comma-separated {@code key=value} pairs over {@link #DEFAULT},
+         * e.g. {@code "tracking_hz=30,command_latency_ms=50"}.
+         *
+         * @throws IllegalArgumentException on an unknown key or a malformed value
+         */
+        public static Config parse(String spec) {
+            Map<String, String> values = new HashMap<>();
+            if (spec != null) {
+                for (String pair : spec.split(",")) {
+                    if (pair.trim().isEmpty()) continue;
+                    int eq = pair.indexOf('=');
+                    if (eq < 0) {
+                        throw new IllegalArgumentException("Expected key=value: " + pair.trim());
+                    }
+                    values.put(pair.substring(0, eq).trim(), pair.substring(eq + 1).trim());
+                }
+            }
+            try {
+                Config d = DEFAULT;
+                Config config = new Config(
+                        Float.parseFloat(take(values, "tracking_hz", d.trackingHz)),
+                        Long.parseLong(take(values, "face_burst_interval_ms", d.faceBurstIntervalMs)),
+                        Integer.parseInt(take(values, "face_burst_frames", d.faceBurstFrames)),
+                        Float.parseFloat(take(values, "face_burst_hz", d.faceBurstHz)),
+                        Long.parseLong(take(values, "command_latency_ms", d.commandLatencyMs)),
+                        Long.parseLong(take(values, "command_jitter_ms", d.commandJitterMs)),
+                        Long.parseLong(take(values, "motion_ms", d.motionMs)),
+                        Long.parseLong(take(values, "speak_ms_per_char", d.speakMsPerChar)));
+                if (!values.isEmpty()) {
+                    throw new IllegalArgumentException("Unknown simulator settings: " + values.keySet());
+                }
+                return config;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed simulator setting: " + e.getMessage(), e);
+            }
+        }
+
+        private static String take(Map<String, String> values, String key, Object fallback) {
+            String value = values.remove(key);
+            return value != null ? value : String.valueOf(fallback);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "tracking_hz=%s,face_burst_interval_ms=%d,face_burst_frames=%d,"
+                            + "face_burst_hz=%s,command_latency_ms=%d,command_jitter_ms=%d,motion_ms=%d,"
+                            + "speak_ms_per_char=%d",
+                    trackingHz, faceBurstIntervalMs, faceBurstFrames, faceBurstHz, commandLatencyMs,
+                    commandJitterMs, motionMs, speakMsPerChar);
+        }
+    }
+
+    private static final String SPEECH = "speech";
+    private static final String MOTION = "motion";
+    private static final String FOLLOW = "follow";
+
+    /** A tracked command that has not reached a final state. */
+    private static final class Running {
+        final RobotCommand cmd;
+        final int serial;
+        final Runnable onSucceed;
+        boolean active = false;
+        ScheduledFuture<?> completion;
+
+        Running(RobotCommand cmd, int serial, Runnable onSucceed) {
+            this.cmd = cmd;
+            this.serial = serial;
+            this.onSucceed = onSucceed;
+        }
+    }
+
+    private final Config config;
+    private final RobotCallback callback;
+    private final RobotCallback.Listen listen;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "RobotSimulator");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicInteger serials = new AtomicInteger(FIRST_SERIAL);
+    private final Random random = new Random();
+    private final long startNanos = System.nanoTime();
+
+    // Only touched on the simulator thread.
+    private final Map<String, Running> channels = new HashMap<>();
+    // Commands waiting out their latency, in submission order; guarded by this.
+    private final ArrayDeque<Runnable> pending = new ArrayDeque<>();
+    private long lastDueNanos = Long.MIN_VALUE;
+
+    private volatile boolean blueLightFilterEnabled = false;
+    private volatile String blueLightFilterMode = "auto";
+
+    public SimulatedRobotBackend(Config config, RobotCallback callback, RobotCallback.Listen listen) {
+        this.config = config;
+        this.callback = callback;
+        this.listen = listen;
+        Log.i(TAG, "Simulating the robot: " + config);
+
+        scheduler.execute(() -> {
+            callback.initComplete();
+            listen.onFinishRegister();
+        });
+        if (config.trackingHz > 0) {
+            long periodMicros = (long) (1_000_000 / config.trackingHz);
+            scheduler.scheduleAtFixedRate(guarded(this::emitTracking), periodMicros, periodMicros,
+                    TimeUnit.MICROSECONDS);
+        }
+        if (config.faceBurstIntervalMs > 0 && config.faceBurstFrames > 0 && config.faceBurstHz > 0) {
+            scheduler.scheduleAtFixedRate(guarded(this::startFaceBurst), config.faceBurstIntervalMs,
+                    config.faceBurstIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public Config getConfig() {
+        return config;
+    }
+
+    // Dialog
+
+    @Override
+    public int startFaceSpeakAnimation() {
+        return start(RobotCommand.SPEAK, SPEECH, -1, null);
+    }
+
+    @Override
+    public int stopSpeak() {
+        int serial = start(RobotCommand.STOP_SPEAK, null, 0, null);
+        cancelLater(SPEECH);
+        return serial;
+    }
+
+    @Override
+    public int setVoiceTrigger(boolean enable) {
+        return serials.incrementAndGet();
+    }
+
+    @Override
+    public int setPressOnHeadAction(boolean enable) {
+        return serials.incrementAndGet();
+    }
+
+    @Override
+    public int setExpression(RobotFace face) {
+        return start(RobotCommand.SET_EXPRESSION, null, 0, null);
+    }
+
+    @Override
+    public int setExpression(RobotFace face, String text) {
+        long speakMs = text == null ? 0 : text.length() * config.speakMsPerChar;
+        return start(RobotCommand.SPEAK, SPEECH, speakMs, () -> listen.onSpeakComplete(text, "0"));
+    }
+
+    // Utility
+
+    @Override
+    public int followFace(boolean enablePreview, boolean largePreview) {
+        return start(RobotCommand.TRACK_USER, FOLLOW, -1, null);
+    }
+
+    @Override
+    public int followObject() {
+        return start(RobotCommand.FOLLOW_USER, FOLLOW, -1, null);
+    }
+
+    @Override
+    public int trackFace(boolean enablePreview, boolean largePreview) {
+        return start(RobotCommand.TRACK_USER, FOLLOW, -1, null);
+    }
+
+    @Override
+    public int stopFollowing() {
+        cancelLater(FOLLOW);
+        return serials.incrementAndGet();
+    }
+
+    @Override
+    public int lookAtUser(float doa) {
+        return start(RobotCommand.MOVE_HEAD, MOTION, config.motionMs, null);
+    }
+
+    @Override
+    public int playAction(int number) {
+        return start(RobotCommand.MOTION_PLAY_ACTION, MOTION, config.motionMs, null);
+    }
+
+    @Override
+    public int playEmotionalAction(RobotFace face, int action) {
+        return start(RobotCommand.PLAY_EMOTIONAL_ACTION, MOTION, config.motionMs, null);
+    }
+
+    @Override
+    public int setScreenBlueLightFilterMode(String mode) {
+        blueLightFilterEnabled = true;
+        blueLightFilterMode = mode;
+        return serials.incrementAndGet();
+    }
+
+    @Override
+    public boolean getScreenBlueLightFilterEnable() {
+        return blueLightFilterEnabled;
+    }
+
+    @Override
+    public String getScreenBlueLightFilterMode() {
+        return blueLightFilterMode;
+    }
+
+    @Override
+    public void release() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Start a tracked command: ACTIVE after the command latency, SUCCEED after
+     * {@code durationMs} more (never if negative). A command on a channel
+     * preempts the one already there once it becomes active.
+     */
+    private int start(RobotCommand cmd, String channel, long durationMs, Runnable onSucceed) {
+        int serial = serials.incrementAndGet();
+        Running running = new Running(cmd, serial, onSucceed);
+        afterLatency(() -> {
+            if (channel != null) {
+                Running previous = channels.put(channel, running);
+                if (previous != null) {
+                    finish(previous, RobotErrorCode.COMMAND_OVERRIDE, RobotCmdState.PREEMPTED);
+                }
+            }
+            running.active = true;
+            stateChange(running, RobotErrorCode.NO_ERROR, RobotCmdState.ACTIVE);
+            if (durationMs < 0) return;
+            running.completion = scheduler.schedule(guarded(() -> {
+                if (channel != null) channels.remove(channel, running);
+                finish(running, RobotErrorCode.NO_ERROR, RobotCmdState.SUCCEED);
+            }), durationMs, TimeUnit.MILLISECONDS);
+        });
+        return serial;
+    }
+
+    /** Preempt the command on a channel, after every command submitted before now has become active. */
+    private void cancelLater(String channel) {
+        afterLatency(() -> {
+            Running running = channels.remove(channel);
+            if (running != null) {
+                finish(running, RobotErrorCode.USER_CANCELED, RobotCmdState.PREEMPTED);
+            }
+        });
+    }
+
+    // Runs on the simulator thread.
+    private void finish(Running running, RobotErrorCode err, RobotCmdState state) {
+        if (!running.active) return;
+        running.active = false;
+        if (running.completion != null) {
+            running.completion.cancel(false);
+        }
+        stateChange(running, err, state);
+        if (state == RobotCmdState.SUCCEED && running.onSucceed != null) {
+            running.onSucceed.run();
+        }
+    }
+
+    private void stateChange(Running running, RobotErrorCode err, RobotCmdState state) {
+        callback.onStateChange(running.cmd.getValue(), running.serial, err, state);
+    }
+
+    /**
+     * Run a step on the simulator thread after the command latency plus
+     * jitter, but never before a step submitted earlier: the robot runs its
+     * queue in order.
+     */
+    private void afterLatency(Runnable step) {
+        long delayNanos;
+        synchronized (this) {
+            pending.addLast(step);
+            long now = System.nanoTime();
+            long jitterMs = config.commandJitterMs > 0 ? (long) (random.nextDouble() * config.commandJitterMs) : 0;
+            long due = now + TimeUnit.MILLISECONDS.toNanos(config.commandLatencyMs + jitterMs);
+            if (lastDueNanos != Long.MIN_VALUE && due - lastDueNanos < 0) {
+                due = lastDueNanos;
+            }
+            lastDueNanos = due;
+            delayNanos = due - now;
+        }
+        // Each timer runs the oldest pending step, so timers firing out of order cannot reorder steps.
+        scheduler.schedule(guarded(() -> {
+            Runnable next;
+            synchronized (this) {
+                next = pending.pollFirst();
+            }
+            if (next != null) next.run();
+        }), delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // Runs on the simulator thread.
+    private void emitTracking() {
+        List<TrackingResult> results = Collections.singletonList(trackedPerson());
+        callback.onTrackingResult(results);
+        Running follow = channels.get(FOLLOW);
+        if (follow != null && follow.active) {
+            callback.onTrackingResult(follow.cmd.getValue(), follow.serial, results);
+        }
+    }
+
+    // Runs on the simulator thread.
+    private void startFaceBurst() {
+        long periodMicros = (long) (1_000_000 / config.faceBurstHz);
+        int trackId = serials.get();
+        for (int i = 0; i < config.faceBurstFrames; i++) {
+            scheduler.schedule(guarded(() -> callback.onDetectFaceResult(
+                    Collections.singletonList(detectedFace(trackId)))), i * periodMicros, TimeUnit.MICROSECONDS);
+        }
+    }
+
+    /** A person slowly walking left and right about two metres away. */
+    private TrackingResult trackedPerson() {
+        double t = (System.nanoTime() - startNanos) / 1e9;
+        float x = (float) (0.6 * Math.sin(t / 4));
+        float z = (float) (2.0 + 0.3 * Math.cos(t / 6));
+        JSONObject o = new JSONObject();
+        try {
+            o.put("uuid", "simulated-person");
+            o.put("tid", 1);
+            o.put("bodyLoc", String.format(Locale.US, "{\"x\":%.3f,\"y\":0.1,\"z\":%.3f}", x, z));
+            o.put("bodyBox", String.format(Locale.US,
+                    "{\"left\":%.3f,\"top\":0.9,\"right\":%.3f,\"bottom\":-0.9}", x - 0.3f, x + 0.3f));
+            o.put("bodyLocCam", String.format(Locale.US,
+                    "{\"x\":%.1f,\"y\":200.0,\"h_width\":80.0,\"h_height\":160.0}", 320 + x * 400));
+            o.put("faceBox2D", String.format(Locale.US,
+                    "{\"x\":%.1f,\"y\":90.0,\"h_width\":30.0,\"h_height\":36.0}", 320 + x * 400));
+            o.put("bodyOrientation", 1);
+            o.put("trackConfidence", 0.9);
+            o.put("validDepth", true);
+            o.put("validHeadROI", true);
+        } catch (JSONException e) {
+            Log.e(TAG, "trackedPerson: JSONException", e);
+        }
+        return new TrackingResult(o.toString());
+    }
+
+    private DetectFaceResult detectedFace(int trackId) {
+        double t = (System.nanoTime() - startNanos) / 1e9;
+        float x = (float) (0.6 * Math.sin(t / 4));
+        return new DetectFaceResult("simulated-face-" + trackId, trackId,
+                new PointF3D(x, 0.25f, 1.4f),
+                new BBox3D(new PointF3D(0f, 0f, 1f), new PointF3D(0f, 1f, 0f), x - 0.1f, 0.2f, x + 0.1f, -0.2f),
+                new Rectangle2D(320f + x * 400, 240f, 40f, 52f),
+                new PointF3D(2.5f, -4f, 0.5f),
+                true, true, false, HeadGazeDirection.GAZE_FRONTAL, 85 + random.nextInt(10));
+    }
+
+    /** Keep a throwing callback from cancelling a periodic stream. */
+    private static Runnable guarded(Runnable task) {
+        return () -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Simulated callback failed", e);
+            }
+        };
+    }
+}
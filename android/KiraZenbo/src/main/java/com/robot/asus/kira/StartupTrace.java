@@ -0,0 +1,101 @@
+package com.robot.asus.kira;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.EnumMap;
+
+/**
+ * When each step of getting the UI on screen happened, in milliseconds since
+ * the process started: the service, GeckoRuntime creation, MainActivity and
+ * the first page load up to its first paint. Only the first time of each phase
+ * is kept, so later activities and reloads do not overwrite the cold start.
+ * Logged as it happens and served at {@code /api/debug/startup}.
+ */
+public final class StartupTrace {
+
+    private static final String TAG = "StartupTrace";
+
+    public enum Phase {
+        SERVICE_CREATED("service_created"),
+        RUNTIME_CREATE_START("runtime_create_start"),
+        RUNTIME_CREATED("runtime_created"),
+        ACTIVITY_CREATED("activity_created"),
+        SESSION_OPENED("session_opened"),
+        LOAD_REQUESTED("load_requested"),
+        PAGE_STARTED("page_started"),
+        FIRST_COMPOSITE("first_composite"),
+        FIRST_CONTENTFUL_PAINT("first_contentful_paint"),
+        PAGE_STOPPED("page_stopped");
+
+        final String key;
+
+        Phase(String key) {
+            this.key = key;
+        }
+    }
+
+    private static final EnumMap<Phase, Long> times = new EnumMap<>(Phase.class);
+    private static String runtimeProfile;
+    private static boolean runtimePrewarmed;
+    private static boolean pageLoaded;
+
+    private StartupTrace() {
+    }
+
+    public static void mark(Phase phase) {
+        long ms = SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime();
+        synchronized (times) {
+            if (times.containsKey(phase)) return;
+            times.put(phase, ms);
+        }
+        Log.i(TAG, phase.key + " at " + ms + " ms");
+    }
+
+    /** The profile the runtime was built with, and whether it was created ahead of the UI. */
+    static void runtimeCreated(String profile, boolean prewarmed) {
+        synchronized (times) {
+            runtimeProfile = profile;
+            runtimePrewarmed = prewarmed;
+        }
+        mark(Phase.RUNTIME_CREATED);
+    }
+
+    /** Whether the first load finished successfully; false if the page failed, e.g. the server was not up yet. */
+    static void pageStopped(boolean success) {
+        synchronized (times) {
+            if (times.containsKey(Phase.PAGE_STOPPED)) return;
+            pageLoaded = success;
+        }
+        mark(Phase.PAGE_STOPPED);
+    }
+
+    static JSONObject toJson() throws JSONException {
+        JSONObject obj = new JSONObject();
+        synchronized (times) {
+            JSONObject phases = new JSONObject();
+            for (Phase phase : Phase.values()) {
+                Long ms = times.get(phase);
+                phases.put(phase.key, ms != null ? ms : JSONObject.NULL);
+            }
+            obj.put("phases_ms", phases);
+            obj.put("runtime_profile", runtimeProfile != null ? runtimeProfile : JSONObject.NULL);
+            obj.put("runtime_prewarmed", runtimePrewarmed);
+            obj.put("runtime_create_ms", between(Phase.RUNTIME_CREATE_START, Phase.RUNTIME_CREATED));
+            obj.put("first_paint_after_activity_ms", between(Phase.ACTIVITY_CREATED, Phase.FIRST_CONTENTFUL_PAINT));
+            obj.put("page_loaded", times.containsKey(Phase.PAGE_STOPPED) ? pageLoaded : JSONObject.NULL);
+        }
+        return obj;
+    }
+
+    // Caller holds the lock on times.
+    private static Object between(Phase from, Phase to) {
+        Long start = times.get(from);
+        Long end = times.get(to);
+        return start != null && end != null ? (Object) (end - start) : JSONObject.NULL;
+    }
+}
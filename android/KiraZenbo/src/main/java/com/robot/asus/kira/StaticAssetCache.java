@@ -0,0 +1,241 @@
+package com.robot.asus.kira;
+
+import android.content.res.AssetManager;
+import android.util.Log;
+
+import com.koushikdutta.async.http.server.AsyncHttpServerRequest;
+import com.koushikdutta.async.http.server.AsyncHttpServerResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-memory cache for the static files served by {@link AsyncRobotApiServer}
+ * (the SPA, the OpenAPI spec and the Swagger UI).
+ *
+ * Each file is read once, kept as an immutable byte array together with a
+ * pre-compressed gzip variant and a strong ETag, and answered with 304 when the
+ * client already holds the current version. No brotli encoder ships with the
+ * platform or our dependencies, so gzip is the only compressed encoding offered.
+ */
+public class StaticAssetCache {
+
+    private static final String TAG = "StaticAssetCache";
+
+    /** Webjar path of the bundled swagger-ui distribution (see KiraZenbo/build.gradle). */
+    static final String SWAGGER_UI_WEBJAR = "META-INF/resources/webjars/swagger-ui/5.17.14/";
+
+    /** Files smaller than this are not worth compressing. */
+    private static final int MIN_GZIP_SIZE = 256;
+
+    /** Assets are only replaced by reinstalling the APK, so clients just revalidate. */
+    private static final String CACHE_REVALIDATE = "no-cache";
+    /** Webjar files are versioned by path and never change for a given build. */
+    private static final String CACHE_IMMUTABLE = "public, max-age=31536000, immutable";
+
+    private final AssetManager assets;
+    private final ConcurrentHashMap<String, Asset> cache = new ConcurrentHashMap<>();
+
+    public StaticAssetCache(AssetManager assets) {
+        this.assets = assets;
+    }
+
+    /**
+     * A loaded asset. The byte arrays are never handed out or modified after
+     * construction, so instances can be shared by all requests.
+     */
+    static final class Asset {
+        final String contentType;
+        final String cacheControl;
+        final byte[] identity;
+        final byte[] gzip;
+        final String etag;
+        final String gzipEtag;
+
+        Asset(String contentType, String cacheControl, byte[] identity) {
+            this.contentType = contentType;
+            this.cacheControl = cacheControl;
+            this.identity = identity;
+            this.gzip = identity.length >= MIN_GZIP_SIZE ? gzipOrNull(identity) : null;
+            String hash = hash(identity);
+            this.etag = "\"" + hash + "\"";
+            this.gzipEtag = "\"" + hash + "-gz\"";
+        }
+
+        boolean matches(String ifNoneMatch) {
+            if (ifNoneMatch == null) return false;
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = candidate.trim();
+                if (tag.startsWith("W/")) {
+                    // If-None-Match uses the weak comparison function.
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(etag) || tag.equals(gzipEtag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Load an asset from the APK {@code assets/} folder, or return the cached copy.
+     *
+     * @return the asset, or null if it does not exist
+     */
+    public Asset asset(String path) {
+        return load("asset:" + path, path, false);
+    }
+
+    /**
+     * Load a file from the swagger-ui webjar on the classpath, or return the cached copy.
+     *
+     * @param path path relative to the swagger-ui distribution root, e.g. {@code swagger-ui.css}
+     * @return the file, or null if it does not exist
+     */
+    public Asset swaggerUi(String path) {
+        if (path.isEmpty()) {
+            path = "index.html";
+        }
+        if (path.contains("..")) {
+            return null;
+        }
+        return load("webjar:" + path, SWAGGER_UI_WEBJAR + path, true);
+    }
+
+    private Asset load(String key, String path, boolean fromClasspath) {
+        Asset cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        byte[] bytes;
+        try (InputStream is = fromClasspath
+                ? StaticAssetCache.class.getClassLoader().getResourceAsStream(path)
+                : assets.open(path)) {
+            if (is == null) {
+                return null;
+            }
+            bytes = readFully(is);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to load static file " + path, e);
+            return null;
+        }
+        Asset asset = new Asset(contentType(path),
+                fromClasspath ? CACHE_IMMUTABLE : CACHE_REVALIDATE, bytes);
+        Asset previous = cache.putIfAbsent(key, asset);
+        return previous != null ? previous : asset;
+    }
+
+    /**
+     * Write the asset to the response, honouring {@code If-None-Match} and
+     * {@code Accept-Encoding}. Sends 404 if the asset is null.
+     */
+    public static void send(AsyncHttpServerRequest req, AsyncHttpServerResponse res, Asset asset) {
+        if (asset == null) {
+            res.code(404);
+            res.getHeaders().set("Content-Type", "application/json");
+            res.send("{\"error\":\"Not found\"}");
+            return;
+        }
+
+        boolean useGzip = asset.gzip != null && acceptsGzip(req.getHeaders().get("Accept-Encoding"));
+        res.getHeaders().set("Cache-Control", asset.cacheControl);
+        // Added, not set: the CORS layer may already vary on Origin.
+        res.getHeaders().add("Vary", "Accept-Encoding");
+        res.getHeaders().set("ETag", useGzip ? asset.gzipEtag : asset.etag);
+
+        if (asset.matches(req.getHeaders().get("If-None-Match"))) {
+            res.code(304);
+            res.end();
+            return;
+        }
+
+        res.code(200);
+        if (useGzip) {
+            res.getHeaders().set("Content-Encoding", "gzip");
+            res.send(asset.contentType, asset.gzip);
+        } else {
+            res.send(asset.contentType, asset.identity);
+        }
+    }
+
+    // Helpers
+
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) return false;
+        for (String part : acceptEncoding.split(",")) {
+            String[] tokens = part.trim().split(";");
+            String coding = tokens[0].trim();
+            if (!coding.equalsIgnoreCase("gzip") && !coding.equals("*")) {
+                continue;
+            }
+            for (int i = 1; i < tokens.length; i++) {
+                String param = tokens[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        return Float.parseFloat(param.substring(2)) > 0f;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static String contentType(String path) {
+        String lower = path.toLowerCase(Locale.ROOT);
+        if (lower.endsWith(".html")) return "text/html; charset=utf-8";
+        if (lower.endsWith(".js")) return "application/javascript; charset=utf-8";
+        if (lower.endsWith(".css")) return "text/css; charset=utf-8";
+        if (lower.endsWith(".json") || lower.endsWith(".map")) return "application/json; charset=utf-8";
+        if (lower.endsWith(".yaml") || lower.endsWith(".yml")) return "application/yaml; charset=utf-8";
+        if (lower.endsWith(".md")) return "text/markdown; charset=utf-8";
+        if (lower.endsWith(".png")) return "image/png";
+        if (lower.endsWith(".svg")) return "image/svg+xml";
+        return "application/octet-stream";
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(is.available(), 8192));
+        byte[] data = new byte[8192];
+        int nRead;
+        while ((nRead = is.read(data, 0, data.length)) != -1) {
+            buffer.write(data, 0, nRead);
+        }
+        return buffer.toByteArray();
+    }
+
+    private static byte[] gzipOrNull(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(data);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to gzip static file", e);
+            return null;
+        }
+        byte[] compressed = out.toByteArray();
+        return compressed.length < data.length ? compressed : null;
+    }
+
+    private static String hash(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder sb = new StringBuilder(32);
+            for (int i = 0; i < 16; i++) {
+                sb.append(String.format(Locale.ROOT, "%02x", digest[i]));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is mandatory on every Android release.
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.robot.asus.kira;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.EnumMap;
+import java.util.Iterator;
+
+/**
+ * Turns telemetry samples into change events for the /events stream.
+ *
+ * A sample is compared with the last one that was published for the same
+ * metric, so slow drifts still produce an event once they add up to the
+ * configured delta. Event data is the full metric object plus a
+ * {@code changed} array naming the fields that triggered it:
+ * <ul>
+ *   <li>{@code onBatteryChanged}: percentage moved by {@link #setBatteryPercentDelta}, or plugged/status/present changed</li>
+ *   <li>{@code onConnectivityChanged}: connected, type or metered changed</li>
+ *   <li>{@code onMemoryChanged}: low_memory flipped, or avail_mem moved by {@link #setMemoryDeltaBytes}</li>
+ *   <li>{@code onStorageChanged}: available_bytes moved by {@link #setStorageDeltaBytes}</li>
+ * </ul>
+ * The first sample of each metric only sets the baseline.
+ */
+public class TelemetryEvents implements TelemetrySampler.Listener {
+
+    private static final String TAG = "TelemetryEvents";
+
+    public interface Publisher {
+        void publish(String type, JSONObject data);
+    }
+
+    private final Publisher publisher;
+    // Only touched on the sampler thread.
+    private final EnumMap<TelemetrySampler.Metric, JSONObject> published = new EnumMap<>(TelemetrySampler.Metric.class);
+
+    private volatile double batteryPercentDelta = 1.0;
+    private volatile long memoryDeltaBytes = 64L * 1024 * 1024;
+    private volatile long storageDeltaBytes = 256L * 1024 * 1024;
+
+    public TelemetryEvents(Publisher publisher) {
+        this.publisher = publisher;
+    }
+
+    public void setBatteryPercentDelta(double delta) {
+        batteryPercentDelta = delta;
+    }
+
+    public void setMemoryDeltaBytes(long delta) {
+        memoryDeltaBytes = delta;
+    }
+
+    public void setStorageDeltaBytes(long delta) {
+        storageDeltaBytes = delta;
+    }
+
+    public JSONObject toJson() throws JSONException {
+        JSONObject obj = new JSONObject();
+        obj.put("battery_percent_delta", batteryPercentDelta);
+        obj.put("memory_delta_bytes", memoryDeltaBytes);
+        obj.put("storage_delta_bytes", storageDeltaBytes);
+        return obj;
+    }
+
+    @Override
+    public void onSample(TelemetrySampler.Metric metric, TelemetrySampler.Sample sample) {
+        if (sample.values == null) return;
+        JSONObject previous = published.get(metric);
+        if (previous == null) {
+            published.put(metric, sample.values);
+            return;
+        }
+
+        JSONArray changed = new JSONArray();
+        String type;
+        switch (metric) {
+            case BATTERY:
+                type = "onBatteryChanged";
+                numberChanged(changed, "percentage", previous, sample.values, batteryPercentDelta);
+                valueChanged(changed, "plugged", previous, sample.values);
+                valueChanged(changed, "status", previous, sample.values);
+                valueChanged(changed, "present", previous, sample.values);
+                break;
+            case CONNECTIVITY:
+                type = "onConnectivityChanged";
+                valueChanged(changed, "connected", previous, sample.values);
+                valueChanged(changed, "type", previous, sample.values);
+                valueChanged(changed, "metered", previous, sample.values);
+                break;
+            case MEMORY:
+                type = "onMemoryChanged";
+                valueChanged(changed, "low_memory", previous, sample.values);
+                numberChanged(changed, "avail_mem", previous, sample.values, memoryDeltaBytes);
+                break;
+            case STORAGE:
+                type = "onStorageChanged";
+                numberChanged(changed, "available_bytes", previous, sample.values, storageDeltaBytes);
+                break;
+            default:
+                return;
+        }
+        if (changed.length() == 0) return;
+
+        published.put(metric, sample.values);
+        try {
+            JSONObject data = new JSONObject();
+            Iterator<String> keys = sample.values.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                data.put(key, sample.values.get(key));
+            }
+            data.put("changed", changed);
+            publisher.publish(type, data);
+        } catch (JSONException e) {
+            Log.w(TAG, "Failed to build " + type + " event", e);
+        }
+    }
+
+    private static void valueChanged(JSONArray changed, String key, JSONObject previous, JSONObject current) {
+        Object before = previous.opt(key);
+        Object after = current.opt(key);
+        if (before == null ? after != null : !before.equals(after)) {
+            changed.put(key);
+        }
+    }
+
+    private static void numberChanged(JSONArray changed, String key, JSONObject previous, JSONObject current, double delta) {
+        double before = previous.optDouble(key, Double.NaN);
+        double after = current.optDouble(key, Double.NaN);
+        // A zero delta reports every change, but still only a change.
+        if (Double.isNaN(before) != Double.isNaN(after) || (after != before && Math.abs(after - before) >= delta)) {
+            changed.put(key);
+        }
+    }
+}
@@ -0,0 +1,485 @@
+package com.robot.asus.kira;
+
+import android.app.ActivityManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.Environment;
+import android.os.StatFs;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples battery, device, connectivity, memory and storage state on a
+ * background thread, each metric at its own interval.
+ *
+ * Every refresh produces a new immutable {@link Snapshot} holding the
+ * already serialized response of each {@code /api/system/*} route plus the
+ * combined {@code /api/system/status} body, so the HTTP handlers only read a
+ * volatile field and send a String.
+ *
+ * Battery and connectivity are also refreshed as soon as Android reports a
+ * change (the battery broadcast and the default network callback), so their
+ * intervals are only a fallback; {@link #refreshSoon} does the same for other
+ * triggers such as {@code onTrimMemory}. Each new sample is handed to the
+ * {@link Listener}.
+ */
+public class TelemetrySampler {
+
+    private static final String TAG = "TelemetrySampler";
+
+    /** Shortest non-zero refresh interval; sampling more often costs battery for no visible change. */
+    public static final long MIN_INTERVAL_MS = 1_000;
+
+    public enum Metric {
+        BATTERY("battery", 300_000),
+        DEVICE("device", 0),
+        CONNECTIVITY("connectivity", 60_000),
+        MEMORY("memory", 5_000),
+        STORAGE("storage", 60_000);
+
+        public final String key;
+        /** Default refresh interval; zero samples once. */
+        public final long defaultIntervalMs;
+
+        Metric(String key, long defaultIntervalMs) {
+            this.key = key;
+            this.defaultIntervalMs = defaultIntervalMs;
+        }
+    }
+
+    /**
+     * Receives every sample taken on the sampler thread. Reads that
+     * {@link #get} makes on the caller's thread are not passed on.
+     */
+    public interface Listener {
+        void onSample(Metric metric, Sample sample);
+    }
+
+    /** One serialized sample; {@code code} is the HTTP status the route answers with. */
+    public static final class Sample {
+        public final int code;
+        public final String body;
+        /** Parsed values of a successful sample, null on error. Must not be modified. */
+        public final JSONObject values;
+        public final long sampledAtMs;
+
+        Sample(int code, String body, JSONObject values, long sampledAtMs) {
+            this.code = code;
+            this.body = body;
+            this.values = values;
+            this.sampledAtMs = sampledAtMs;
+        }
+    }
+
+    /** Latest sample of every metric. Never modified once published. */
+    public static final class Snapshot {
+        private final EnumMap<Metric, Sample> samples;
+        /** Body of {@code /api/system/status}. */
+        public final String statusJson;
+
+        Snapshot(EnumMap<Metric, Sample> samples) {
+            this.samples = samples;
+            this.statusJson = buildStatus(samples);
+        }
+
+        public Sample get(Metric metric) {
+            return samples.get(metric);
+        }
+    }
+
+    private final Context context;
+    private final EnumMap<Metric, Long> intervals = new EnumMap<>(Metric.class);
+    private final EnumMap<Metric, ScheduledFuture<?>> tasks = new EnumMap<>(Metric.class);
+    private volatile Snapshot snapshot = new Snapshot(new EnumMap<>(Metric.class));
+    private ScheduledExecutorService scheduler;
+    private volatile Listener listener;
+
+    private final BroadcastReceiver batteryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            execute(() -> publish(Metric.BATTERY, sampleOf(Metric.BATTERY, () -> readBattery(intent))));
+        }
+    };
+
+    private final ConnectivityManager.NetworkCallback networkCallback = new ConnectivityManager.NetworkCallback() {
+        @Override
+        public void onAvailable(Network network) {
+            refreshSoon(Metric.CONNECTIVITY);
+        }
+
+        @Override
+        public void onLost(Network network) {
+            refreshSoon(Metric.CONNECTIVITY);
+        }
+
+        @Override
+        public void onCapabilitiesChanged(Network network, NetworkCapabilities caps) {
+            refreshSoon(Metric.CONNECTIVITY);
+        }
+    };
+
+    public TelemetrySampler(Context context) {
+        this.context = context.getApplicationContext();
+        for (Metric metric : Metric.values()) {
+            intervals.put(metric, metric.defaultIntervalMs);
+        }
+    }
+
+    public synchronized void start() {
+        if (scheduler != null) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "TelemetrySampler");
+            t.setDaemon(true);
+            return t;
+        });
+        for (Metric metric : Metric.values()) {
+            schedule(metric);
+        }
+        context.registerReceiver(batteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm != null) {
+            try {
+                cm.registerDefaultNetworkCallback(networkCallback);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Failed to register network callback", e);
+            }
+        }
+    }
+
+    public synchronized void stop() {
+        if (scheduler == null) return;
+        try {
+            context.unregisterReceiver(batteryReceiver);
+        } catch (IllegalArgumentException ignore) {
+        }
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm != null) {
+            try {
+                cm.unregisterNetworkCallback(networkCallback);
+            } catch (RuntimeException ignore) {
+            }
+        }
+        scheduler.shutdownNow();
+        scheduler = null;
+        tasks.clear();
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** Sample a metric on the sampler thread now, outside its interval. */
+    public void refreshSoon(Metric metric) {
+        execute(() -> refresh(metric));
+    }
+
+    /** Zero (sample once) or at least {@link #MIN_INTERVAL_MS}. */
+    public static boolean isValidInterval(long intervalMs) {
+        return intervalMs == 0 || intervalMs >= MIN_INTERVAL_MS;
+    }
+
+    public synchronized long getInterval(Metric metric) {
+        return intervals.get(metric);
+    }
+
+    /**
+     * Change how often a metric is refreshed; zero samples it only once.
+     *
+     * @throws IllegalArgumentException if the interval is neither zero nor at least {@link #MIN_INTERVAL_MS}
+     */
+    public synchronized void setInterval(Metric metric, long intervalMs) {
+        if (!isValidInterval(intervalMs)) {
+            throw new IllegalArgumentException("Invalid " + metric.key + " interval " + intervalMs + " ms");
+        }
+        intervals.put(metric, intervalMs);
+        if (scheduler != null) {
+            ScheduledFuture<?> task = tasks.remove(metric);
+            if (task != null) {
+                task.cancel(false);
+            }
+            schedule(metric);
+        }
+    }
+
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Latest sample of a metric. Before the first background sample has
+     * completed the metric is read on the calling thread.
+     */
+    public Sample get(Metric metric) {
+        Sample sample = snapshot.get(metric);
+        return sample != null ? sample : readNow(metric);
+    }
+
+    /** Combined body of all metrics, sampling any that have not been read yet. */
+    public String getStatusJson() {
+        Snapshot current = snapshot;
+        for (Metric metric : Metric.values()) {
+            if (current.get(metric) == null) {
+                readNow(metric);
+            }
+        }
+        return snapshot.statusJson;
+    }
+
+    // Caller holds this.
+    private void schedule(Metric metric) {
+        long interval = intervals.get(metric);
+        Runnable task = () -> refresh(metric);
+        if (interval > 0) {
+            tasks.put(metric, scheduler.scheduleWithFixedDelay(task, 0, interval, TimeUnit.MILLISECONDS));
+        } else {
+            tasks.put(metric, scheduler.schedule(task, 0, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private synchronized void execute(Runnable task) {
+        if (scheduler == null) return;
+        try {
+            scheduler.execute(task);
+        } catch (RejectedExecutionException ignore) {
+        }
+    }
+
+    // On the sampler thread.
+    private Sample refresh(Metric metric) {
+        Sample sample = sampleOf(metric, () -> read(metric));
+        publish(metric, sample);
+        return sample;
+    }
+
+    /**
+     * Sample on the calling thread, e.g. the AsyncServer thread, for a read that
+     * cannot wait. Only the snapshot is updated: the listener keeps state that is
+     * only touched on the sampler thread, which takes its own first sample anyway.
+     */
+    private Sample readNow(Metric metric) {
+        Sample sample = sampleOf(metric, () -> read(metric));
+        store(metric, sample);
+        return sample;
+    }
+
+    private interface Reader {
+        Sample read() throws JSONException;
+    }
+
+    private static Sample sampleOf(Metric metric, Reader reader) {
+        try {
+            return reader.read();
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to sample " + metric.key, e);
+            return error(500, "Failed to read " + metric.key + " info");
+        }
+    }
+
+    // On the sampler thread.
+    private void publish(Metric metric, Sample sample) {
+        store(metric, sample);
+        Listener l = listener;
+        if (l != null) {
+            l.onSample(metric, sample);
+        }
+    }
+
+    private synchronized void store(Metric metric, Sample sample) {
+        EnumMap<Metric, Sample> samples = new EnumMap<>(Metric.class);
+        samples.putAll(snapshot.samples);
+        samples.put(metric, sample);
+        snapshot = new Snapshot(samples);
+    }
+
+    private Sample read(Metric metric) throws JSONException {
+        switch (metric) {
+            case BATTERY: return readBattery(context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED)));
+            case DEVICE: return readDevice();
+            case CONNECTIVITY: return readConnectivity();
+            case MEMORY: return readMemory();
+            case STORAGE: return readStorage();
+            default: throw new IllegalArgumentException(metric.name());
+        }
+    }
+
+    private static Sample readBattery(Intent batteryStatus) throws JSONException {
+        if (batteryStatus == null) {
+            return error(400, "Battery status unavailable");
+        }
+
+        int level = batteryStatus.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = batteryStatus.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        int status = batteryStatus.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+        int plugged = batteryStatus.getIntExtra(BatteryManager.EXTRA_PLUGGED, -1);
+        int health = batteryStatus.getIntExtra(BatteryManager.EXTRA_HEALTH, -1);
+        int temperature = batteryStatus.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0); // tenths of a degree C
+        int voltage = batteryStatus.getIntExtra(BatteryManager.EXTRA_VOLTAGE, 0); // millivolts
+        boolean present = batteryStatus.getBooleanExtra(BatteryManager.EXTRA_PRESENT, false);
+        String technology = batteryStatus.getStringExtra(BatteryManager.EXTRA_TECHNOLOGY);
+
+        float percentage = -1f;
+        if (level >= 0 && scale > 0) {
+            percentage = (level * 100f) / scale;
+        }
+
+        JSONObject obj = new JSONObject();
+        obj.put("level", level);
+        obj.put("scale", scale);
+        obj.put("percentage", percentage);
+        obj.put("status", status);
+        obj.put("plugged", plugged);
+        obj.put("health", health);
+        obj.put("temperature_c", temperature / 10.0);
+        obj.put("voltage_mv", voltage);
+        obj.put("present", present);
+        obj.put("technology", technology != null ? technology : JSONObject.NULL);
+        return ok(obj);
+    }
+
+    private static Sample readDevice() throws JSONException {
+        JSONObject obj = new JSONObject();
+        obj.put("manufacturer", Build.MANUFACTURER);
+        obj.put("brand", Build.BRAND);
+        obj.put("model", Build.MODEL);
+        obj.put("device", Build.DEVICE);
+        obj.put("product", Build.PRODUCT);
+        obj.put("hardware", Build.HARDWARE);
+        obj.put("android_version", Build.VERSION.RELEASE);
+        obj.put("sdk_int", Build.VERSION.SDK_INT);
+        return ok(obj);
+    }
+
+    private Sample readConnectivity() throws JSONException {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm == null) {
+            return error(400, "Connectivity service unavailable");
+        }
+
+        boolean isConnected = false;
+        String type = "none";
+        boolean isMetered = cm.isActiveNetworkMetered();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            Network activeNetwork = cm.getActiveNetwork();
+            if (activeNetwork != null) {
+                NetworkCapabilities caps = cm.getNetworkCapabilities(activeNetwork);
+                if (caps != null) {
+                    isConnected = caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                            && caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED);
+                    if (caps.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
+                        type = "wifi";
+                    } else if (caps.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
+                        type = "cellular";
+                    } else if (caps.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) {
+                        type = "ethernet";
+                    } else {
+                        type = "other";
+                    }
+                }
+            }
+        } else {
+            NetworkInfo info = cm.getActiveNetworkInfo();
+            if (info != null && info.isConnected()) {
+                isConnected = true;
+                switch (info.getType()) {
+                    case ConnectivityManager.TYPE_WIFI:
+                        type = "wifi";
+                        break;
+                    case ConnectivityManager.TYPE_MOBILE:
+                        type = "cellular";
+                        break;
+                    case ConnectivityManager.TYPE_ETHERNET:
+                        type = "ethernet";
+                        break;
+                    default:
+                        type = "other";
+                        break;
+                }
+            }
+        }
+
+        JSONObject obj = new JSONObject();
+        obj.put("connected", isConnected);
+        obj.put("type", type);
+        obj.put("metered", isMetered);
+        return ok(obj);
+    }
+
+    private Sample readMemory() throws JSONException {
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (am == null) {
+            return error(400, "Activity service unavailable");
+        }
+
+        ActivityManager.MemoryInfo memInfo = new ActivityManager.MemoryInfo();
+        am.getMemoryInfo(memInfo);
+
+        JSONObject obj = new JSONObject();
+        obj.put("avail_mem", memInfo.availMem);
+        obj.put("total_mem", memInfo.totalMem);
+        obj.put("low_memory", memInfo.lowMemory);
+        obj.put("threshold", memInfo.threshold);
+        return ok(obj);
+    }
+
+    private Sample readStorage() throws JSONException {
+        StatFs statFs = new StatFs(Environment.getDataDirectory().getAbsolutePath());
+
+        long blockSize = statFs.getBlockSizeLong();
+        long totalBlocks = statFs.getBlockCountLong();
+        long availableBlocks = statFs.getAvailableBlocksLong();
+
+        JSONObject obj = new JSONObject();
+        obj.put("total_bytes", totalBlocks * blockSize);
+        obj.put("available_bytes", availableBlocks * blockSize);
+        return ok(obj);
+    }
+
+    private static Sample ok(JSONObject obj) {
+        return new Sample(200, obj.toString(), obj, System.currentTimeMillis());
+    }
+
+    private static Sample error(int code, String message) {
+        JsonWriter w = new JsonWriter(64);
+        w.beginObject().name("error").value(message).endObject();
+        return new Sample(code, w.toString(), null, System.currentTimeMillis());
+    }
+
+    private static String buildStatus(EnumMap<Metric, Sample> samples) {
+        JsonWriter w = new JsonWriter(1024);
+        w.beginObject();
+        for (Metric metric : Metric.values()) {
+            Sample sample = samples.get(metric);
+            w.name(metric.key);
+            if (sample != null && sample.code == 200) {
+                w.rawValue(sample.body);
+            } else {
+                w.nullValue();
+            }
+        }
+        w.name("sampled_at").beginObject();
+        for (Map.Entry<Metric, Sample> e : samples.entrySet()) {
+            w.name(e.getKey().key).value(e.getValue().sampledAtMs);
+        }
+        w.endObject();
+        return w.endObject().toString();
+    }
+}
@@ -0,0 +1,104 @@
+package com.robot.asus.kira;
+
+import android.content.Context;
+
+import com.asus.robotframework.API.RobotAPI;
+import com.asus.robotframework.API.RobotCallback;
+import com.asus.robotframework.API.RobotCommand;
+import com.asus.robotframework.API.RobotFace;
+
+/** {@link RobotBackend} on the Zenbo RobotAPI. */
+public class ZenboRobotBackend implements RobotBackend {
+
+    private final RobotAPI robotAPI;
+
+    public ZenboRobotBackend(Context context, RobotCallback callback, RobotCallback.Listen listen) {
+        robotAPI = new RobotAPI(context, callback);
+        robotAPI.robot.registerListenCallback(listen);
+    }
+
+    @Override
+    public int startFaceSpeakAnimation() {
+        return robotAPI.robot.startFaceSpeakAnimation();
+    }
+
+    @Override
+    public int stopSpeak() {
+        return robotAPI.robot.stopSpeak();
+    }
+
+    @Override
+    public int setVoiceTrigger(boolean enable) {
+        return robotAPI.robot.setVoiceTrigger(enable);
+    }
+
+    @Override
+    public int setPressOnHeadAction(boolean enable) {
+        return robotAPI.robot.setPressOnHeadAction(enable);
+    }
+
+    @Override
+    public int setExpression(RobotFace face) {
+        return robotAPI.robot.setExpression(face);
+    }
+
+    @Override
+    public int setExpression(RobotFace face, String text) {
+        return robotAPI.robot.setExpression(face, text);
+    }
+
+    @Override
+    public int followFace(boolean enablePreview, boolean largePreview) {
+        return robotAPI.utility.followFace(enablePreview, largePreview);
+    }
+
+    @Override
+    public int followObject() {
+        return robotAPI.utility.followObject();
+    }
+
+    @Override
+    public int trackFace(boolean enablePreview, boolean largePreview) {
+        return robotAPI.utility.trackFace(enablePreview, largePreview);
+    }
+
+    @Override
+    public int stopFollowing() {
+        return robotAPI.cancelCommand(RobotCommand.FOLLOW_USER);
+    }
+
+    @Override
+    public int lookAtUser(float doa) {
+        return robotAPI.utility.lookAtUser(doa);
+    }
+
+    @Override
+    public int playAction(int number) {
+        return robotAPI.utility.playAction(number);
+    }
+
+    @Override
+    public int playEmotionalAction(RobotFace face, int action) {
+        return robotAPI.utility.playEmotionalAction(face, action);
+    }
+
+    @Override
+    public int setScreenBlueLightFilterMode(String mode) {
+        return robotAPI.utility.setScreenBlueLightFilterMode(mode);
+    }
+
+    @Override
+    public boolean getScreenBlueLightFilterEnable() {
+        return robotAPI.utility.getScreenBlueLightFilterEnable();
+    }
+
+    @Override
+    public String getScreenBlueLightFilterMode() {
+        return robotAPI.utility.getScreenBlueLightFilterMode();
+    }
+
+    @Override
+    public void release() {
+        robotAPI.release();
+    }
+}
@@ -0,0 +1,85 @@
+package com.robot.asus.kira;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/** Byte-exact encodings, checked against the examples in RFC 8949 appendix A. */
+public class CborWriterTest {
+
+    private static byte[] bytes(int... values) {
+        byte[] out = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            out[i] = (byte) values[i];
+        }
+        return out;
+    }
+
+    @Test
+    public void integersUseTheShortestHead() {
+        assertArrayEquals(bytes(0x00), new CborWriter().value(0).toByteArray());
+        assertArrayEquals(bytes(0x17), new CborWriter().value(23).toByteArray());
+        assertArrayEquals(bytes(0x18, 0x18), new CborWriter().value(24).toByteArray());
+        assertArrayEquals(bytes(0x19, 0x03, 0xe8), new CborWriter().value(1000).toByteArray());
+        assertArrayEquals(bytes(0x1a, 0x00, 0x0f, 0x42, 0x40), new CborWriter().value(1000000).toByteArray());
+        assertArrayEquals(bytes(0x1b, 0x00, 0x00, 0x00, 0xe8, 0xd4, 0xa5, 0x10, 0x00),
+                new CborWriter().value(1000000000000L).toByteArray());
+    }
+
+    @Test
+    public void negativeIntegers() {
+        assertArrayEquals(bytes(0x20), new CborWriter().value(-1).toByteArray());
+        assertArrayEquals(bytes(0x38, 0x63), new CborWriter().value(-100).toByteArray());
+        assertArrayEquals(bytes(0x39, 0x03, 0xe7), new CborWriter().value(-1000).toByteArray());
+        assertArrayEquals(bytes(0x3b, 0x7f, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff),
+                new CborWriter().value(Long.MIN_VALUE).toByteArray());
+    }
+
+    @Test
+    public void textIsUtf8() {
+        assertArrayEquals(bytes(0x60), new CborWriter().value("").toByteArray());
+        assertArrayEquals(bytes(0x64, 0x49, 0x45, 0x54, 0x46), new CborWriter().value("IETF").toByteArray());
+        assertArrayEquals(bytes(0x62, 0xc3, 0xbc), new CborWriter().value("\u00fc").toByteArray());
+        assertArrayEquals(bytes(0x63, 0xe6, 0xb0, 0xb4), new CborWriter().value("\u6c34").toByteArray());
+    }
+
+    @Test
+    public void floatsAndSimpleValues() {
+        assertArrayEquals(bytes(0xfa, 0x47, 0xc3, 0x50, 0x00), new CborWriter().value(100000.0f).toByteArray());
+        assertArrayEquals(bytes(0xfb, 0x3f, 0xf1, 0x99, 0x99, 0x99, 0x99, 0x99, 0x9a),
+                new CborWriter().value(1.1).toByteArray());
+        assertArrayEquals(bytes(0xf6), new CborWriter().value(Float.NaN).toByteArray());
+        assertArrayEquals(bytes(0xf6), new CborWriter().value(Double.POSITIVE_INFINITY).toByteArray());
+        assertArrayEquals(bytes(0xf4, 0xf5, 0xf6),
+                new CborWriter().value(false).value(true).nullValue().toByteArray());
+    }
+
+    @Test
+    public void containersHaveIndefiniteLength() {
+        // {"a": 1, "b": [2, 3]}
+        byte[] out = new CborWriter()
+                .beginObject()
+                .name("a").value(1)
+                .name("b").beginArray().value(2).value(3).endArray()
+                .endObject()
+                .toByteArray();
+        assertArrayEquals(bytes(0xbf, 0x61, 0x61, 0x01, 0x61, 0x62, 0x9f, 0x02, 0x03, 0xff, 0xff), out);
+    }
+
+    @Test
+    public void rawPutsAreBigEndian() {
+        byte[] out = new CborWriter().put(0xab).putShort(0x0102).putInt(0x03040506).putLong(0x0708090a0b0c0d0eL)
+                .toByteArray();
+        assertArrayEquals(bytes(0xab, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06,
+                0x07, 0x08, 0x09, 0x0a, 0x0b, 0x0c, 0x0d, 0x0e), out);
+    }
+
+    @Test
+    public void growsAndResets() {
+        CborWriter writer = new CborWriter(2);
+        writer.value("a longer string than the initial buffer");
+        assertEquals(41, writer.length());
+        writer.reset().value(7);
+        assertArrayEquals(bytes(0x07), writer.toByteArray());
+    }
+}
@@ -0,0 +1,221 @@
+package com.robot.asus.kira;
+
+import com.asus.robotframework.API.RobotCmdState;
+import com.asus.robotframework.API.RobotErrorCode;
+import com.asus.robotframework.API.RobotFace;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Lanes, preemption and coalescing of {@link CommandDispatcher}, with the
+ * commands bound by {@link RobotCommands} against a recording backend.
+ *
+ * The executor runs tasks on the calling thread. Commands submitted from
+ * {@link #whileBusy} wait in their lanes until the busy command returns, the
+ * way they queue behind a long RobotAPI call on the robot thread.
+ */
+public class CommandDispatcherTest {
+
+    /** Records each call with its arguments and returns increasing serials. */
+    static final class RecordingBackend implements RobotBackend {
+        final List<String> calls = new ArrayList<>();
+        private int serial = 0;
+
+        private int call(String call) {
+            calls.add(call);
+            return ++serial;
+        }
+
+        @Override public int startFaceSpeakAnimation() { return call("startFaceSpeakAnimation"); }
+        @Override public int stopSpeak() { return call("stopSpeak"); }
+        @Override public int setVoiceTrigger(boolean enable) { return call("setVoiceTrigger " + enable); }
+        @Override public int setPressOnHeadAction(boolean enable) { return call("setPressOnHeadAction " + enable); }
+        @Override public int setExpression(RobotFace face) { return call("setExpression " + face); }
+        @Override public int setExpression(RobotFace face, String text) { return call("setExpression " + face + " " + text); }
+        @Override public int followFace(boolean enablePreview, boolean largePreview) { return call("followFace"); }
+        @Override public int followObject() { return call("followObject"); }
+        @Override public int trackFace(boolean enablePreview, boolean largePreview) { return call("trackFace"); }
+        @Override public int stopFollowing() { return call("stopFollowing"); }
+        @Override public int lookAtUser(float doa) { return call("lookAtUser " + doa); }
+        @Override public int playAction(int number) { return call("playAction " + number); }
+        @Override public int playEmotionalAction(RobotFace face, int action) { return call("playEmotionalAction " + action); }
+        @Override public int setScreenBlueLightFilterMode(String mode) { return call("setScreenBlueLightFilterMode " + mode); }
+        @Override public boolean getScreenBlueLightFilterEnable() { return false; }
+        @Override public String getScreenBlueLightFilterMode() { return null; }
+        @Override public void release() { }
+    }
+
+    private RecordingBackend backend;
+    private RobotCommands commands;
+    private CommandDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        backend = new RecordingBackend();
+        commands = new RobotCommands(backend);
+        // No test awaits a command, so nothing is posted to the callback server.
+        dispatcher = new CommandDispatcher(Runnable::run, Runnable::run, null);
+    }
+
+    private CommandDispatcher.Command submit(String name, String... params) {
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < params.length; i += 2) {
+            values.put(params[i], params[i + 1]);
+        }
+        return dispatcher.submit(commands.bind(name, values::get));
+    }
+
+    private void report(CommandDispatcher.Command command, RobotCmdState state) {
+        dispatcher.onStateChange(command.serial, RobotErrorCode.NO_ERROR, state);
+    }
+
+    private void whileBusy(Runnable submissions) {
+        dispatcher.submit(new CommandDispatcher.Invocation("busy", false, () -> {
+            submissions.run();
+            return 0;
+        }));
+    }
+
+    @Test
+    public void stopCancelsQueuedCommandsOfItsKind() {
+        CommandDispatcher.Command[] c = new CommandDispatcher.Command[4];
+        whileBusy(() -> {
+            c[0] = submit("dialog/start_speak_animation");
+            c[1] = submit("utility/look_at_user", "doa", "30");
+            c[2] = submit("face/expression_and_speak", "expression", "HAPPY", "text", "hi");
+            c[3] = submit("dialog/stop_speak");
+        });
+        CommandDispatcher.Command stop = c[3];
+
+        assertEquals(Arrays.asList(c[0].id, c[2].id), dispatcher.cancelledBy(stop));
+        assertEquals(stop.id, c[0].cancelledBy);
+        assertEquals(stop.id, c[2].cancelledBy);
+        assertEquals(0, c[1].cancelledBy);
+        assertEquals(Arrays.asList("stopSpeak", "lookAtUser 30.0"), backend.calls);
+    }
+
+    @Test
+    public void stopDoesNotCancelStartedCommands() {
+        CommandDispatcher.Command speak = submit("dialog/start_speak_animation");
+        CommandDispatcher.Command stop = submit("dialog/stop_speak");
+
+        assertEquals(0, speak.cancelledBy);
+        assertTrue(dispatcher.cancelledBy(stop).isEmpty());
+        assertEquals(Arrays.asList("startFaceSpeakAnimation", "stopSpeak"), backend.calls);
+    }
+
+    @Test
+    public void lanesRunInPriorityOrder() {
+        whileBusy(() -> {
+            submit("utility/play_action", "number", "1");
+            submit("face/expression", "expression", "HAPPY");
+            submit("utility/play_action", "number", "2");
+            submit("utility/stop_following");
+            submit("utility/look_at_user", "doa", "90");
+        });
+
+        assertEquals(Arrays.asList(
+                "stopFollowing",
+                "setExpression HAPPY",
+                "lookAtUser 90.0",
+                "playAction 1",
+                "playAction 2"), backend.calls);
+    }
+
+    @Test
+    public void repeatedExpressionIsUnchanged() {
+        CommandDispatcher.Command first = submit("face/expression", "expression", "HAPPY");
+        report(first, RobotCmdState.SUCCEED);
+        CommandDispatcher.Command second = submit("face/expression", "expression", "HAPPY");
+
+        assertFalse(first.isUnchanged());
+        assertTrue(second.isUnchanged());
+        assertTrue(second.isDone());
+        assertEquals(first.id, second.sameAs);
+        assertEquals(Arrays.asList("setExpression HAPPY"), backend.calls);
+    }
+
+    @Test
+    public void expressionRedundantWithRunningOneIsUnchangedOnceItSucceeds() {
+        CommandDispatcher.Command first = submit("face/expression", "expression", "HAPPY");
+        CommandDispatcher.Command second = submit("face/expression", "expression", "HAPPY");
+
+        assertFalse(second.isUnchanged());
+        assertFalse(second.isDone());
+
+        report(first, RobotCmdState.SUCCEED);
+
+        assertTrue(second.isUnchanged());
+        assertTrue(second.isDone());
+        assertEquals(first.id, second.sameAs);
+        assertEquals(Arrays.asList("setExpression HAPPY"), backend.calls);
+    }
+
+    @Test
+    public void expressionRunsWhenTheCommandThatSetItIsCancelledAfterTheSkip() {
+        CommandDispatcher.Command[] c = new CommandDispatcher.Command[3];
+        whileBusy(() -> {
+            c[0] = submit("face/expression_and_speak", "expression", "HAPPY", "text", "hi");
+            c[1] = submit("face/expression", "expression", "HAPPY");
+            c[2] = submit("dialog/stop_speak");
+        });
+
+        assertEquals(c[2].id, c[0].cancelledBy);
+        assertFalse(c[1].isUnchanged());
+        assertEquals(0, c[1].cancelledBy);
+        assertEquals(Arrays.asList("stopSpeak", "setExpression HAPPY"), backend.calls);
+    }
+
+    @Test
+    public void expressionRunsWhenTheCommandThatSetItFails() {
+        CommandDispatcher.Command first = submit("face/expression", "expression", "HAPPY");
+        CommandDispatcher.Command second = submit("face/expression", "expression", "HAPPY");
+
+        report(first, RobotCmdState.FAILED);
+
+        assertFalse(second.isUnchanged());
+        assertEquals(Arrays.asList("setExpression HAPPY", "setExpression HAPPY"), backend.calls);
+
+        // The state now follows the command that ran, not the one that failed.
+        report(second, RobotCmdState.SUCCEED);
+        assertTrue(submit("face/expression", "expression", "HAPPY").isUnchanged());
+    }
+
+    @Test
+    public void queuedExpressionIsMergedIntoNewerOne() {
+        CommandDispatcher.Command[] c = new CommandDispatcher.Command[2];
+        whileBusy(() -> {
+            c[0] = submit("face/expression", "expression", "PROUD");
+            c[1] = submit("face/expression", "expression", "HAPPY");
+        });
+
+        assertEquals(c[1].id, c[0].mergedInto);
+        assertEquals(0, c[1].mergedInto);
+        assertFalse(c[1].isUnchanged());
+        assertEquals(Arrays.asList("setExpression HAPPY"), backend.calls);
+    }
+
+    @Test
+    public void redundantCommandFollowsTheOneItWasMergedWith() {
+        CommandDispatcher.Command[] c = new CommandDispatcher.Command[3];
+        whileBusy(() -> {
+            c[0] = submit("face/expression", "expression", "PROUD");
+            c[1] = submit("face/expression", "expression", "PROUD");
+            c[2] = submit("face/expression", "expression", "HAPPY");
+        });
+
+        assertEquals(c[2].id, c[0].mergedInto);
+        assertEquals(c[2].id, c[1].mergedInto);
+        assertTrue(c[1].isDone());
+        assertEquals(Arrays.asList("setExpression HAPPY"), backend.calls);
+    }
+}
@@ -0,0 +1,130 @@
+package com.robot.asus.kira;
+
+import com.koushikdutta.async.AsyncServer;
+import com.koushikdutta.async.http.WebSocket;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Overflow policies of {@link EventClient}. The socket's server only collects
+ * posted tasks, so frames stay queued until {@link #drain} runs them.
+ */
+public class EventClientTest {
+
+    /** Keeps posted tasks instead of running them on a reactor thread. */
+    static final class ManualServer extends AsyncServer {
+        final List<Runnable> posted = new ArrayList<>();
+
+        @Override
+        public Object post(Runnable runnable) {
+            posted.add(runnable);
+            return runnable;
+        }
+    }
+
+    private ManualServer server;
+    private List<String> sent;
+    private boolean socketClosed;
+    private WebSocket socket;
+
+    @Before
+    public void setUp() {
+        server = new ManualServer();
+        sent = new ArrayList<>();
+        socketClosed = false;
+        socket = (WebSocket) Proxy.newProxyInstance(WebSocket.class.getClassLoader(),
+                new Class<?>[] {WebSocket.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getServer":
+                            return server;
+                        case "isBuffering":
+                            return false;
+                        case "send":
+                            sent.add((String) args[0]);
+                            return null;
+                        case "close":
+                            socketClosed = true;
+                            return null;
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    private EventClient client(EventClient.OverflowPolicy policy, String... droppable) {
+        EventClient.Config config = new EventClient.Config(3, policy, new HashSet<>(Arrays.asList(droppable)));
+        return new EventClient(socket, config, EventSubscription.ALL);
+    }
+
+    private void drain() {
+        while (!server.posted.isEmpty()) {
+            server.posted.remove(0).run();
+        }
+    }
+
+    @Test
+    public void dropOldestKeepsTheNewestFrames() {
+        EventClient client = client(EventClient.OverflowPolicy.DROP_OLDEST);
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(client.offer("onResult", "f" + i));
+        }
+
+        assertEquals(2, client.getDroppedCount());
+        drain();
+        assertEquals(Arrays.asList("f3", "f4", "f5"), sent);
+    }
+
+    @Test
+    public void dropByTypeDropsTheOldestDroppableFrame() {
+        EventClient client = client(EventClient.OverflowPolicy.DROP_BY_TYPE, "telemetry");
+        client.offer("onResult", "r1");
+        client.offer("telemetry", "t1");
+        client.offer("onResult", "r2");
+
+        assertTrue(client.offer("onResult", "r3"));
+
+        drain();
+        assertEquals(Arrays.asList("r1", "r2", "r3"), sent);
+    }
+
+    @Test
+    public void dropByTypeDropsAnIncomingDroppableFrameWhenNoneIsQueued() {
+        EventClient client = client(EventClient.OverflowPolicy.DROP_BY_TYPE, "telemetry");
+        client.offer("onResult", "r1");
+        client.offer("onResult", "r2");
+        client.offer("onResult", "r3");
+
+        assertFalse(client.offer("telemetry", "t1"));
+        assertTrue(client.offer("onResult", "r4"));
+
+        assertEquals(2, client.getDroppedCount());
+        drain();
+        assertEquals(Arrays.asList("r2", "r3", "r4"), sent);
+    }
+
+    @Test
+    public void disconnectClosesTheClientAndDropsItsQueue() {
+        EventClient client = client(EventClient.OverflowPolicy.DISCONNECT);
+        client.offer("onResult", "r1");
+        client.offer("onResult", "r2");
+        client.offer("onResult", "r3");
+
+        assertFalse(client.offer("onResult", "r4"));
+        assertTrue(client.isClosed());
+        assertEquals(0, client.getQueueDepth());
+        assertFalse(client.offer("onResult", "r5"));
+
+        drain();
+        assertTrue(socketClosed);
+        assertTrue(sent.isEmpty());
+    }
+}
@@ -0,0 +1,70 @@
+package com.robot.asus.kira;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Latest-value conflation of {@link EventCoalescer}, at 10 Hz so a window
+ * ends 100 ms after the value that opened it.
+ */
+public class EventCoalescerTest {
+
+    private static final EventData A = writer -> writer.value("a");
+    private static final EventData B = writer -> writer.value("b");
+    private static final EventData C = writer -> writer.value("c");
+
+    private final LinkedBlockingQueue<EventData> published = new LinkedBlockingQueue<>();
+    private EventCoalescer coalescer;
+
+    @Before
+    public void setUp() {
+        coalescer = new EventCoalescer((type, data) -> published.add(data));
+        coalescer.setRate("onTracking", 10f);
+    }
+
+    @After
+    public void tearDown() {
+        coalescer.shutdown();
+    }
+
+    @Test
+    public void typeWithoutRateIsNotTouched() {
+        assertFalse(coalescer.offer("onSpeakComplete", null, A));
+        assertTrue(published.isEmpty());
+    }
+
+    @Test
+    public void firstValueIsPublishedAtOnce() {
+        assertTrue(coalescer.offer("onTracking", null, A));
+
+        assertSame(A, published.poll());
+    }
+
+    @Test
+    public void latestValueIsPublishedWhenTheWindowEnds() throws InterruptedException {
+        coalescer.offer("onTracking", null, A);
+        coalescer.offer("onTracking", null, B);
+        coalescer.offer("onTracking", null, C);
+
+        assertSame(A, published.poll());
+        assertTrue(published.isEmpty());
+        assertSame(C, published.poll(2, TimeUnit.SECONDS));
+        assertEquals(1, coalescer.getCoalescedTotal());
+        assertNull(published.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void streamsAreConflatedSeparately() {
+        coalescer.offer("onTracking", EventCoalescer.streamKey("onTracking", 1, 1), A);
+        coalescer.offer("onTracking", EventCoalescer.streamKey("onTracking", 1, 2), B);
+
+        assertSame(A, published.poll());
+        assertSame(B, published.poll());
+    }
+}
@@ -0,0 +1,97 @@
+package com.robot.asus.kira;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/** Slot reuse, windowing and filtering of {@link EventReplayBuffer}. */
+public class EventReplayBufferTest {
+
+    private static EventReplayBuffer filled(int capacity, int events) {
+        EventReplayBuffer buffer = new EventReplayBuffer(capacity);
+        for (int i = 1; i <= events; i++) {
+            buffer.add(buffer.nextSeq(), i % 2 == 0 ? "even" : "odd", "frame" + i);
+        }
+        return buffer;
+    }
+
+    @Test
+    public void capacityIsRoundedUpToPowerOfTwo() {
+        assertEquals(4, new EventReplayBuffer(4).capacity());
+        assertEquals(8, new EventReplayBuffer(5).capacity());
+    }
+
+    @Test
+    public void collectAfterWraparoundReturnsOnlyStoredFrames() {
+        EventReplayBuffer buffer = filled(4, 10);
+        List<String> types = new ArrayList<>();
+        List<String> frames = new ArrayList<>();
+
+        long first = buffer.collect(0, EventSubscription.ALL, 100, types, frames);
+
+        assertEquals(7, buffer.oldestSeq());
+        assertEquals(7, first);
+        assertEquals(Arrays.asList("frame7", "frame8", "frame9", "frame10"), frames);
+        assertEquals(Arrays.asList("odd", "even", "odd", "even"), types);
+    }
+
+    @Test
+    public void collectKeepsNewestMaxFrames() {
+        EventReplayBuffer buffer = filled(8, 13);
+        List<String> frames = new ArrayList<>();
+
+        long first = buffer.collect(6, EventSubscription.ALL, 3, new ArrayList<>(), frames);
+
+        assertEquals(11, first);
+        assertEquals(Arrays.asList("frame11", "frame12", "frame13"), frames);
+    }
+
+    @Test
+    public void collectFiltersBySubscriptionAndSkipsGaps() {
+        EventReplayBuffer buffer = filled(4, 6);
+        buffer.skip(buffer.nextSeq());
+        buffer.add(buffer.nextSeq(), "even", "frame8");
+        List<String> frames = new ArrayList<>();
+
+        long first = buffer.collect(4, EventSubscription.parse("even"), 100, new ArrayList<>(), frames);
+
+        assertEquals(6, first);
+        assertEquals(Arrays.asList("frame6", "frame8"), frames);
+    }
+
+    @Test
+    public void exactlyMaxMatchingFramesLeaveNoneBefore() {
+        EventReplayBuffer buffer = filled(8, 6);
+        List<String> frames = new ArrayList<>();
+
+        long first = buffer.collect(0, EventSubscription.parse("even"), 3, new ArrayList<>(), frames);
+
+        assertEquals(Arrays.asList("frame2", "frame4", "frame6"), frames);
+        assertFalse(buffer.hasMatchBetween(0, first, EventSubscription.parse("even")));
+    }
+
+    @Test
+    public void moreThanMaxMatchingFramesLeaveOneBefore() {
+        EventReplayBuffer buffer = filled(8, 8);
+        List<String> frames = new ArrayList<>();
+
+        long first = buffer.collect(0, EventSubscription.parse("even"), 3, new ArrayList<>(), frames);
+
+        assertEquals(Arrays.asList("frame4", "frame6", "frame8"), frames);
+        assertTrue(buffer.hasMatchBetween(0, first, EventSubscription.parse("even")));
+        assertFalse(buffer.hasMatchBetween(2, first, EventSubscription.parse("even")));
+    }
+
+    @Test
+    public void collectReturnsZeroWhenNothingIsNewer() {
+        EventReplayBuffer buffer = filled(4, 3);
+        List<String> frames = new ArrayList<>();
+
+        assertEquals(0, buffer.collect(3, EventSubscription.ALL, 100, new ArrayList<>(), frames));
+        assertTrue(frames.isEmpty());
+    }
+}
@@ -0,0 +1,61 @@
+package com.robot.asus.kira;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/** Pattern matching and updates of {@link EventSubscription}. */
+public class EventSubscriptionTest {
+
+    @Test
+    public void exactPatternMatchesOnlyThatType() {
+        EventSubscription subscription = EventSubscription.parse("onSpeakComplete");
+
+        assertTrue(subscription.matches("onSpeakComplete"));
+        assertFalse(subscription.matches("onSpeakCompleteLater"));
+        assertFalse(subscription.matches("onSpeak"));
+    }
+
+    @Test
+    public void prefixPatternMatchesTypesStartingWithIt() {
+        EventSubscription subscription = EventSubscription.parse("onTracking*, onResult");
+
+        assertTrue(subscription.matches("onTracking"));
+        assertTrue(subscription.matches("onTrackingFace"));
+        assertTrue(subscription.matches("onResult"));
+        assertFalse(subscription.matches("onTrack"));
+        assertFalse(subscription.matches("telemetry"));
+    }
+
+    @Test
+    public void starMatchesEverything() {
+        assertTrue(EventSubscription.parse("*").matches("anything"));
+        assertTrue(EventSubscription.parse(null).matches("anything"));
+        assertFalse(EventSubscription.NONE.matches("anything"));
+    }
+
+    @Test
+    public void minusRemovesOnlyTheGivenPatterns() {
+        EventSubscription subscription = EventSubscription.parse("onResult,onTracking*,telemetry")
+                .minus(Arrays.asList("onTracking*", "telemetry"));
+
+        assertTrue(subscription.matches("onResult"));
+        assertFalse(subscription.matches("onTrackingFace"));
+        assertFalse(subscription.matches("telemetry"));
+        assertEquals(Collections.singletonList("onResult"), subscription.patterns());
+    }
+
+    @Test
+    public void minusStarClearsTheSubscription() {
+        EventSubscription subscription = EventSubscription.parse("*,onResult,onTracking*")
+                .minus(Collections.singletonList("*"));
+
+        assertFalse(subscription.matches("onResult"));
+        assertFalse(subscription.matches("onTrackingFace"));
+        assertFalse(subscription.matches("anything"));
+        assertTrue(subscription.patterns().isEmpty());
+    }
+}
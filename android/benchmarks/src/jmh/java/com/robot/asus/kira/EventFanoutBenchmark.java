@@ -0,0 +1,82 @@
+package com.robot.asus.kira;
+
+import com.asus.robotframework.API.results.TrackingResult;
+import com.koushikdutta.async.AsyncServer;
+import com.koushikdutta.async.http.WebSocket;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a RobotAPI callback thread pays to broadcast one event to N /events
+ * clients through {@link AndroidAsyncEventServer#sendEvent}: numbering, the
+ * replay buffer, one serialization per format and a queue offer per client.
+ * The clients' sockets discard frames on the AsyncServer reactor. Coalescing
+ * is turned off for {@code onTrackingResult} so every call publishes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+// AndroidAsync's worker thread is not a daemon; do not wait for it once the fork is done.
+@Fork(jvmArgsAppend = "-Djmh.shutdownTimeout=0")
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EventFanoutBenchmark {
+
+    @Param({"1", "4", "16"})
+    public int clients;
+
+    /** {@code json}, {@code cbor}, or {@code mixed} (every other client binary, so both formats are encoded). */
+    @Param({"json", "mixed"})
+    public String format;
+
+    @Param({"onStateChange", "onTrackingResult"})
+    public String type;
+
+    private AndroidAsyncEventServer server;
+    private JSONObject stateChange;
+    private EventData tracking;
+
+    @Setup(Level.Trial)
+    public void setUp() throws JSONException {
+        server = new AndroidAsyncEventServer();
+        server.getCoalescer().setRate("onTrackingResult", 0f);
+        server.start(0);
+        for (int i = 0; i < clients; i++) {
+            WebSocket socket = Fixtures.stub(WebSocket.class, Collections.singletonMap("getServer", AsyncServer.getDefault()));
+            boolean binary = "cbor".equals(format) || ("mixed".equals(format) && i % 2 == 1);
+            server.addClient(new EventClient(socket, new EventClient.Config(256,
+                    EventClient.OverflowPolicy.DROP_OLDEST, null), EventSubscription.ALL, binary), -1, 0);
+        }
+        stateChange = Fixtures.stateChange(1001);
+        List<TrackingResult> results = Fixtures.trackingResults(2);
+        tracking = w -> RobotResultEncoder.writeTrackingResults(w, results);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Benchmark
+    public void sendEvent() {
+        if ("onStateChange".equals(type)) {
+            server.sendEvent(type, stateChange);
+        } else {
+            server.sendEvent(type, null, tracking);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.robot.asus.kira;
+
+import com.asus.robotframework.API.results.TrackingResult;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Event frame construction in {@link AndroidAsyncEventServer#sendEvent}: the
+ * JSON text frame and the CBOR binary frame for an {@code onStateChange}
+ * (org.json data) and an {@code onTrackingResult} (streamed data), against
+ * wrapping the data in another {@code JSONObject}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EventPayloadBenchmark {
+
+    private static final long EPOCH = System.currentTimeMillis();
+
+    @Param({"onStateChange", "onTrackingResult"})
+    public String type;
+
+    private JSONObject json;
+    private EventData data;
+    private long seq = 0;
+
+    @Setup
+    public void setUp() throws JSONException {
+        if ("onStateChange".equals(type)) {
+            json = Fixtures.stateChange(1001);
+            JSONObject captured = json;
+            data = w -> w.jsonValue(captured);
+        } else {
+            List<TrackingResult> results = Fixtures.trackingResults(2);
+            data = w -> RobotResultEncoder.writeTrackingResults(w, results);
+            JsonWriter writer = new JsonWriter(1024);
+            data.writeTo(writer);
+            json = new JSONObject(writer.toString());
+        }
+    }
+
+    @Benchmark
+    public String jsonObjectFrame() throws JSONException {
+        JSONObject frame = new JSONObject();
+        frame.put("seq", ++seq);
+        frame.put("epoch", EPOCH);
+        frame.put("ts", System.currentTimeMillis());
+        frame.put("type", type);
+        frame.put("data", json);
+        return frame.toString();
+    }
+
+    @Benchmark
+    public String textFrame() {
+        return AndroidAsyncEventServer.encodeText(++seq, EPOCH, System.currentTimeMillis(), type, data);
+    }
+
+    @Benchmark
+    public byte[] binaryFrame() {
+        return AndroidAsyncEventServer.encodeBinary(++seq, EPOCH, System.currentTimeMillis(), type, data);
+    }
+}
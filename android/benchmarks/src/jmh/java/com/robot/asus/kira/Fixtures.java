@@ -0,0 +1,102 @@
+package com.robot.asus.kira;
+
+import com.asus.robotframework.API.results.BBox3D;
+import com.asus.robotframework.API.results.DetectFaceResult;
+import com.asus.robotframework.API.results.HeadGazeDirection;
+import com.asus.robotframework.API.results.PointF3D;
+import com.asus.robotframework.API.results.Rectangle2D;
+import com.asus.robotframework.API.results.TrackingResult;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sample payloads, and do-nothing implementations of the AndroidAsync and
+ * robot interfaces the bridge code is written against.
+ *
+ * The benchmarks live in the app's package so they can drive package-private
+ * entry points ({@code ApiRequest}, the event frame encoders) directly.
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    static <T> T stub(Class<T> type) {
+        return stub(type, Collections.emptyMap());
+    }
+
+    /**
+     * An implementation of {@code type} whose methods return the value in
+     * {@code answers} for their name, else zero, false or null.
+     */
+    static <T> T stub(Class<T> type, Map<String, ?> answers) {
+        Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (self, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(self);
+                case "equals":
+                    return self == args[0];
+                case "toString":
+                    return type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(self));
+            }
+            if (answers.containsKey(method.getName())) {
+                return answers.get(method.getName());
+            }
+            Class<?> returnType = method.getReturnType();
+            return returnType.isPrimitive() && returnType != void.class
+                    ? Array.get(Array.newInstance(returnType, 1), 0)
+                    : null;
+        });
+        return type.cast(proxy);
+    }
+
+    /** The {@code onStateChange} data RobotApiService builds. */
+    static JSONObject stateChange(int serial) throws JSONException {
+        JSONObject obj = new JSONObject();
+        obj.put("cmd", 33);
+        obj.put("serial", serial);
+        obj.put("err_code", "NO_ERROR(0): no error");
+        obj.put("state", "3: ROBOT_CMD_STATE_ACTIVE");
+        return obj;
+    }
+
+    static List<DetectFaceResult> detectFaceResults(int count) {
+        List<DetectFaceResult> results = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            results.add(new DetectFaceResult("face-" + i, i,
+                    new PointF3D(0.1f * i, 0.25f, 1.4f),
+                    new BBox3D(new PointF3D(0f, 0f, 1f), new PointF3D(0f, 1f, 0f), -0.1f, 0.2f, 0.1f, -0.2f),
+                    new Rectangle2D(320f, 240f, 40f, 52f),
+                    new PointF3D(2.5f, -4f, 0.5f),
+                    true, true, false, HeadGazeDirection.GAZE_FRONTAL, 87));
+        }
+        return results;
+    }
+
+    static List<TrackingResult> trackingResults(int count) throws JSONException {
+        List<TrackingResult> results = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            JSONObject o = new JSONObject();
+            o.put("uuid", "person-" + i);
+            o.put("tid", i);
+            o.put("bodyLoc", "{\"x\":0.4,\"y\":0.1,\"z\":1.8}");
+            o.put("bodyBox", "{\"left\":-0.3,\"top\":0.9,\"right\":0.3,\"bottom\":-0.9}");
+            o.put("bodyLocCam", "{\"x\":300.0,\"y\":200.0,\"h_width\":80.0,\"h_height\":160.0}");
+            o.put("faceBox2D", "{\"x\":310.0,\"y\":90.0,\"h_width\":30.0,\"h_height\":36.0}");
+            o.put("bodyOrientation", 1);
+            o.put("trackConfidence", 0.92);
+            o.put("validDepth", true);
+            o.put("validHeadROI", true);
+            results.add(new TrackingResult(o.toString()));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,82 @@
+package com.robot.asus.kira;
+
+import com.koushikdutta.async.http.Headers;
+import com.koushikdutta.async.http.Multimap;
+import com.koushikdutta.async.http.body.JSONObjectBody;
+import com.koushikdutta.async.http.body.UrlEncodedFormBody;
+import com.koushikdutta.async.http.server.AsyncHttpServerRequest;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request parameter binding: a fresh {@link ApiRequest} per request, as
+ * {@link ApiRouter} creates it, bound to a command by {@link RobotCommands}
+ * with the parameters in a urlencoded form, a JSON body or the query string.
+ * Parsing the body itself happens in AndroidAsync and is not measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ParamBindingBenchmark {
+
+    private static final String PARAMS = "expression=HAPPY&text=Hello%20there&doa=12.5&wait=true";
+
+    @Param({"form", "json", "query"})
+    public String source;
+
+    private AsyncHttpServerRequest request;
+    private final RobotCommands commands = new RobotCommands(Fixtures.stub(RobotBackend.class));
+
+    @Setup
+    public void setUp() throws JSONException {
+        Map<String, Object> answers = new HashMap<>();
+        Headers headers = new Headers();
+        switch (source) {
+            case "form":
+                answers.put("getBody", new UrlEncodedFormBody(Multimap.parseUrlEncoded(PARAMS)));
+                answers.put("getQuery", new Multimap());
+                break;
+            case "json":
+                JSONObject body = new JSONObject();
+                body.put("expression", "HAPPY");
+                body.put("text", "Hello there");
+                body.put("doa", 12.5);
+                body.put("wait", true);
+                answers.put("getBody", new JSONObjectBody(body));
+                answers.put("getQuery", new Multimap());
+                headers.set("Content-Length", String.valueOf(body.toString().length()));
+                break;
+            case "query":
+                answers.put("getQuery", Multimap.parseQuery(PARAMS));
+                break;
+            default:
+                throw new IllegalArgumentException(source);
+        }
+        answers.put("getHeaders", headers);
+        answers.put("getMethod", "POST");
+        request = Fixtures.stub(AsyncHttpServerRequest.class, answers);
+    }
+
+    @Benchmark
+    public CommandDispatcher.Invocation expressionAndSpeak() {
+        return commands.bind("face/expression_and_speak", new ApiRequest(request));
+    }
+
+    @Benchmark
+    public CommandDispatcher.Invocation lookAtUser() {
+        return commands.bind("utility/look_at_user", new ApiRequest(request));
+    }
+}
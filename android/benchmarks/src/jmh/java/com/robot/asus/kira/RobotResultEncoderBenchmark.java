@@ -0,0 +1,130 @@
+package com.robot.asus.kira;
+
+import com.asus.robotframework.API.results.DetectFaceResult;
+import com.asus.robotframework.API.results.PointF3D;
+import com.asus.robotframework.API.results.TrackingResult;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Event payload construction for vision results: the original
+ * {@code resultList.toString()} path, the same structure built with
+ * {@code org.json}, and {@link RobotResultEncoder} with a reused {@link JsonWriter}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RobotResultEncoderBenchmark {
+
+    @Param({"1", "4"})
+    public int results;
+
+    private List<DetectFaceResult> faces;
+    private List<TrackingResult> tracks;
+    private final JsonWriter writer = new JsonWriter(1024);
+
+    @Setup
+    public void setUp() throws JSONException {
+        faces = Fixtures.detectFaceResults(results);
+        tracks = Fixtures.trackingResults(results);
+    }
+
+    /** What RobotApiService used to do: stringify the list, wrap it, log it, then wrap and stringify again. */
+    @Benchmark
+    public String detectFaceToString() throws JSONException {
+        JSONObject obj = new JSONObject();
+        obj.put("data", faces.toString());
+        String logged = obj.toString();
+        JSONObject payload = new JSONObject();
+        payload.put("type", "onDetectFaceResult");
+        payload.put("data", obj);
+        return payload.toString() + logged.length();
+    }
+
+    @Benchmark
+    public String detectFaceJsonObject() throws JSONException {
+        JSONArray arr = new JSONArray();
+        for (DetectFaceResult r : faces) {
+            JSONObject o = new JSONObject();
+            o.put("uuid", r.getUuid());
+            o.put("trackId", r.getTrackID());
+            o.put("faceLoc", point(r.getFaceLoc()));
+            o.put("faceAngle", point(r.getFaceAngle()));
+            JSONObject box = new JSONObject();
+            box.put("lookAt", point(r.getFaceBox().lookAt));
+            box.put("faceUp", point(r.getFaceBox().faceUp));
+            box.put("left", r.getFaceBox().left);
+            box.put("top", r.getFaceBox().top);
+            box.put("right", r.getFaceBox().right);
+            box.put("bottom", r.getFaceBox().bottom);
+            o.put("faceBox", box);
+            JSONObject cam = new JSONObject();
+            cam.put("x", r.getFaceLocCam().x);
+            cam.put("y", r.getFaceLocCam().y);
+            cam.put("h_width", r.getFaceLocCam().h_width);
+            cam.put("h_height", r.getFaceLocCam().h_height);
+            o.put("faceLocCam", cam);
+            o.put("hasValidDepth", r.hasValidDepth());
+            o.put("hasValidHeadROI", r.hasValidHeadROI());
+            o.put("isCandidateObj", r.isCandidateObj());
+            o.put("headGazeDirection", r.getHeadGazeDirection().name());
+            o.put("headPoseConfidence", r.getHeadPoseConfidence());
+            o.put("faceEmotion", r.getFaceEmotion());
+            arr.put(o);
+        }
+        JSONObject data = new JSONObject();
+        data.put("resultList", arr);
+        JSONObject payload = new JSONObject();
+        payload.put("type", "onDetectFaceResult");
+        payload.put("data", data);
+        return payload.toString();
+    }
+
+    @Benchmark
+    public String detectFaceEncoder() {
+        writer.reset().beginObject().name("type").value("onDetectFaceResult").name("data");
+        RobotResultEncoder.writeDetectFaceResults(writer, faces);
+        return writer.endObject().toString();
+    }
+
+    @Benchmark
+    public String trackingToString() throws JSONException {
+        JSONObject obj = new JSONObject();
+        obj.put("cmd", 1);
+        obj.put("serial", 42);
+        obj.put("resultList", tracks.toString());
+        String logged = obj.toString();
+        JSONObject payload = new JSONObject();
+        payload.put("type", "onTrackingResultWithCmd");
+        payload.put("data", obj);
+        return payload.toString() + logged.length();
+    }
+
+    @Benchmark
+    public String trackingEncoder() {
+        writer.reset().beginObject().name("type").value("onTrackingResultWithCmd").name("data");
+        RobotResultEncoder.writeTrackingResults(writer, 1, 42, tracks);
+        return writer.endObject().toString();
+    }
+
+    private static JSONObject point(PointF3D p) throws JSONException {
+        JSONObject o = new JSONObject();
+        o.put("x", p.x);
+        o.put("y", p.y);
+        o.put("z", p.z);
+        return o;
+    }
+}
@@ -0,0 +1,103 @@
+package com.robot.asus.kira;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.EnumMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Response JSON for {@code /api/system/*}: building every metric as
+ * {@code org.json} objects on each request, against what {@link TelemetrySampler}
+ * does once per sample (serialize the metric and rebuild the status body from
+ * the cached strings).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TelemetryJsonBenchmark {
+
+    private final EnumMap<TelemetrySampler.Metric, JSONObject> values = new EnumMap<>(TelemetrySampler.Metric.class);
+    private final EnumMap<TelemetrySampler.Metric, TelemetrySampler.Sample> samples =
+            new EnumMap<>(TelemetrySampler.Metric.class);
+
+    @Setup
+    public void setUp() throws JSONException {
+        values.put(TelemetrySampler.Metric.BATTERY, battery());
+        JSONObject device = new JSONObject();
+        device.put("manufacturer", "asus");
+        device.put("brand", "asus");
+        device.put("model", "Zenbo Junior");
+        device.put("device", "zenbo_jr");
+        device.put("product", "zenbo_jr");
+        device.put("hardware", "qcom");
+        device.put("android_version", "8.0.0");
+        device.put("sdk_int", 26);
+        values.put(TelemetrySampler.Metric.DEVICE, device);
+        JSONObject connectivity = new JSONObject();
+        connectivity.put("connected", true);
+        connectivity.put("type", "wifi");
+        connectivity.put("metered", false);
+        values.put(TelemetrySampler.Metric.CONNECTIVITY, connectivity);
+        JSONObject memory = new JSONObject();
+        memory.put("avail_mem", 1_234_567_890L);
+        memory.put("total_mem", 3_987_654_321L);
+        memory.put("low_memory", false);
+        memory.put("threshold", 226_492_416L);
+        values.put(TelemetrySampler.Metric.MEMORY, memory);
+        JSONObject storage = new JSONObject();
+        storage.put("total_bytes", 25_769_803_776L);
+        storage.put("available_bytes", 9_663_676_416L);
+        values.put(TelemetrySampler.Metric.STORAGE, storage);
+        for (TelemetrySampler.Metric metric : TelemetrySampler.Metric.values()) {
+            JSONObject obj = values.get(metric);
+            samples.put(metric, new TelemetrySampler.Sample(200, obj.toString(), obj, System.currentTimeMillis()));
+        }
+    }
+
+    /** {@code /api/system/status} assembled from org.json objects on every request. */
+    @Benchmark
+    public String statusPerRequest() throws JSONException {
+        JSONObject status = new JSONObject();
+        JSONObject sampledAt = new JSONObject();
+        long now = System.currentTimeMillis();
+        for (TelemetrySampler.Metric metric : TelemetrySampler.Metric.values()) {
+            status.put(metric.key, metric == TelemetrySampler.Metric.BATTERY ? battery() : values.get(metric));
+            sampledAt.put(metric.key, now);
+        }
+        status.put("sampled_at", sampledAt);
+        return status.toString();
+    }
+
+    /** A new battery sample and the snapshot rebuilt around it; requests then only read a field. */
+    @Benchmark
+    public String statusPerSample() throws JSONException {
+        JSONObject obj = battery();
+        EnumMap<TelemetrySampler.Metric, TelemetrySampler.Sample> next = new EnumMap<>(samples);
+        next.put(TelemetrySampler.Metric.BATTERY,
+                new TelemetrySampler.Sample(200, obj.toString(), obj, System.currentTimeMillis()));
+        return new TelemetrySampler.Snapshot(next).statusJson;
+    }
+
+    private static JSONObject battery() throws JSONException {
+        JSONObject obj = new JSONObject();
+        obj.put("level", 87);
+        obj.put("scale", 100);
+        obj.put("percentage", 87f);
+        obj.put("status", 2);
+        obj.put("plugged", 1);
+        obj.put("health", 2);
+        obj.put("temperature_c", 31.5);
+        obj.put("voltage_mv", 4121);
+        obj.put("present", true);
+        obj.put("technology", "Li-ion");
+        return obj;
+    }
+}
@@ -0,0 +1,10 @@
+package com.robot.asus.kira;
+
+/** Stands in for the BuildConfig the Android plugin generates for the app with its default values. */
+public final class BuildConfig {
+
+    public static final boolean TRACE_LOGGING = true;
+
+    private BuildConfig() {
+    }
+}
@@ -0,0 +1,255 @@
+package com.robot.asus.kira;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One {@code /events} client. Records the delivery lag of every event frame,
+ * the receive time minus the server's {@code ts}, per event type. Control
+ * frames (replay, subscription acknowledgements) carry no {@code seq} and are
+ * skipped.
+ *
+ * <p>A minimal RFC 6455 client on a plain socket, one reader thread each:
+ * AndroidAsync answers the upgrade with {@code Transfer-Encoding: Chunked},
+ * which browsers ignore but {@code java.net.http.WebSocket} does not.
+ */
+final class EventSubscriber implements Runnable {
+
+    private static final int OP_CONTINUATION = 0x0;
+    private static final int OP_TEXT = 0x1;
+    private static final int OP_CLOSE = 0x8;
+    private static final int OP_PING = 0x9;
+    private static final int OP_PONG = 0xA;
+
+    private final ConcurrentMap<String, LatencyRecorder> lag;
+    private final long clockOffsetMs;
+    private final LongAdder ahead;
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private volatile boolean closing;
+    volatile boolean closed;
+
+    /**
+     * Connects and completes the upgrade; {@link #run()} then reads the events.
+     *
+     * @param clockOffsetMs added to every lag, the server clock's lead over this host's
+     * @param ahead counts frames stamped later than their receive time (clock skew)
+     */
+    EventSubscriber(URI uri, ConcurrentMap<String, LatencyRecorder> lag, long clockOffsetMs, LongAdder ahead)
+            throws IOException {
+        this.lag = lag;
+        this.clockOffsetMs = clockOffsetMs;
+        this.ahead = ahead;
+        socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(uri.getHost(), uri.getPort() < 0 ? 80 : uri.getPort()), 5000);
+        in = new BufferedInputStream(socket.getInputStream());
+        out = socket.getOutputStream();
+        try {
+            handshake(uri);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private void handshake(URI uri) throws IOException {
+        byte[] nonce = new byte[16];
+        ThreadLocalRandom.current().nextBytes(nonce);
+        String target = uri.getRawPath() + (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : "");
+        String request = "GET " + target + " HTTP/1.1\r\n"
+                + "Host: " + uri.getHost() + (uri.getPort() < 0 ? "" : ":" + uri.getPort()) + "\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Key: " + Base64.getEncoder().encodeToString(nonce) + "\r\n"
+                + "Sec-WebSocket-Version: 13\r\n\r\n";
+        out.write(request.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        socket.setSoTimeout(5000);
+        String status = readLine();
+        if (!status.startsWith("HTTP/1.1 101")) {
+            throw new IOException("Upgrade refused: " + status);
+        }
+        while (!readLine().isEmpty()) {
+            // The headers are not needed.
+        }
+        socket.setSoTimeout(0);
+    }
+
+    @Override
+    public void run() {
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        int messageOp = -1;
+        try {
+            while (true) {
+                int b0 = readByte();
+                int b1 = readByte();
+                int op = b0 & 0x0f;
+                long length = b1 & 0x7f;
+                if (length == 126) {
+                    length = (readByte() << 8) | readByte();
+                } else if (length == 127) {
+                    length = 0;
+                    for (int i = 0; i < 8; i++) {
+                        length = (length << 8) | readByte();
+                    }
+                }
+                byte[] mask = null;
+                if ((b1 & 0x80) != 0) {
+                    mask = new byte[4];
+                    readFully(mask);
+                }
+                byte[] payload = new byte[(int) length];
+                readFully(payload);
+                if (mask != null) {
+                    for (int i = 0; i < payload.length; i++) {
+                        payload[i] ^= mask[i & 3];
+                    }
+                }
+                if (op == OP_CLOSE) {
+                    if (!closing) {
+                        closed = true;
+                        System.err.println("Event subscriber closed by the server");
+                        writeFrame(OP_CLOSE, payload);
+                    }
+                    return;
+                } else if (op == OP_PING) {
+                    writeFrame(OP_PONG, payload);
+                } else if (op < OP_CLOSE) {
+                    if (op != OP_CONTINUATION) {
+                        messageOp = op;
+                        message.reset();
+                    }
+                    message.write(payload, 0, payload.length);
+                    // Binary messages are never asked for; there is nothing to measure in them.
+                    if ((b0 & 0x80) != 0 && messageOp == OP_TEXT) {
+                        onFrame(message.toString(StandardCharsets.UTF_8), System.currentTimeMillis());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (!closing) {
+                closed = true;
+                System.err.println("Event subscriber failed: " + e);
+            }
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /** Sends a close frame; the reader thread ends when the server answers or within a second. */
+    void close() {
+        closing = true;
+        try {
+            socket.setSoTimeout(1000);
+            writeFrame(OP_CLOSE, new byte[] {0x03, (byte) 0xe8});
+        } catch (IOException e) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /** Client frames must be masked. Only control frames are sent, always under 126 bytes. */
+    private synchronized void writeFrame(int op, byte[] payload) throws IOException {
+        byte[] mask = new byte[4];
+        ThreadLocalRandom.current().nextBytes(mask);
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(payload.length + 6);
+        frame.write(0x80 | op);
+        frame.write(0x80 | payload.length);
+        frame.write(mask, 0, 4);
+        for (int i = 0; i < payload.length; i++) {
+            frame.write(payload[i] ^ mask[i & 3]);
+        }
+        out.write(frame.toByteArray());
+        out.flush();
+    }
+
+    private void onFrame(String s, long receivedMs) {
+        if (!s.startsWith("{\"seq\":")) {
+            return;
+        }
+        long ts = longField(s, "\"ts\":");
+        String type = stringField(s, "\"type\":\"");
+        if (ts < 0 || type == null) {
+            return;
+        }
+        long lagMs = receivedMs - ts + clockOffsetMs;
+        if (lagMs < 0) {
+            ahead.increment();
+        }
+        lag.computeIfAbsent(type, k -> new LatencyRecorder()).record(lagMs * 1000, "ok", false);
+    }
+
+    /** The frames are written by JsonWriter, so the header fields are never nested or spaced. */
+    private static long longField(String s, String name) {
+        int i = s.indexOf(name);
+        if (i < 0) {
+            return -1;
+        }
+        i += name.length();
+        long value = 0;
+        int start = i;
+        while (i < s.length() && Character.isDigit(s.charAt(i))) {
+            value = value * 10 + (s.charAt(i++) - '0');
+        }
+        return i > start ? value : -1;
+    }
+
+    private static String stringField(String s, String name) {
+        int i = s.indexOf(name);
+        if (i < 0) {
+            return null;
+        }
+        int start = i + name.length();
+        int end = s.indexOf('"', start);
+        return end < 0 ? null : s.substring(start, end);
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = readByte()) != '\n') {
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return line.toString();
+    }
+
+    private int readByte() throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException("Connection closed");
+        }
+        return b;
+    }
+
+    private void readFully(byte[] buffer) throws IOException {
+        int n = 0;
+        while (n < buffer.length) {
+            int r = in.read(buffer, n, buffer.length - n);
+            if (r < 0) {
+                throw new EOFException("Connection closed");
+            }
+            n += r;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.robot.asus.kira;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies in microseconds and outcome counts (HTTP status, exception or
+ * "timeout") for one route or event type. Any thread may record; the
+ * reporter drains the values recorded since its last call into the totals.
+ */
+final class LatencyRecorder {
+
+    static final long HIGHEST_MICROS = TimeUnit.MINUTES.toMicros(5);
+
+    private final Recorder recorder = new Recorder(HIGHEST_MICROS, 3);
+    private final Histogram total = new Histogram(HIGHEST_MICROS, 3);
+    private final LongAdder errors = new LongAdder();
+    private final ConcurrentHashMap<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+    private Histogram interval;
+    private long drainedErrors;
+    private long intervalErrors;
+
+    void record(long micros, String outcome, boolean error) {
+        recorder.recordValue(Math.min(Math.max(micros, 0), HIGHEST_MICROS));
+        outcomes.computeIfAbsent(outcome, k -> new LongAdder()).increment();
+        if (error) {
+            errors.increment();
+        }
+    }
+
+    /** Moves what was recorded since the last call into the totals and returns it. */
+    synchronized Histogram drain() {
+        interval = recorder.getIntervalHistogram(interval);
+        total.add(interval);
+        long sum = errors.sum();
+        intervalErrors = sum - drainedErrors;
+        drainedErrors = sum;
+        return interval;
+    }
+
+    /** Errors in the interval returned by the last {@link #drain()}. */
+    synchronized long intervalErrors() {
+        return intervalErrors;
+    }
+
+    /** Drops everything recorded so far, e.g. at the end of the warmup. */
+    synchronized void reset() {
+        recorder.reset();
+        total.reset();
+        errors.reset();
+        outcomes.clear();
+        drainedErrors = 0;
+        intervalErrors = 0;
+    }
+
+    synchronized Histogram total() {
+        return total;
+    }
+
+    long errors() {
+        return errors.sum();
+    }
+
+    Map<String, Long> outcomes() {
+        Map<String, Long> counts = new TreeMap<>();
+        outcomes.forEach((k, v) -> counts.put(k, v.sum()));
+        return counts;
+    }
+}
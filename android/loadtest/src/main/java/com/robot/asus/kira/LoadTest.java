@@ -0,0 +1,481 @@
+package com.robot.asus.kira;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator for the bridge: sends the requests of a {@link Scenario} to
+ * the API server at a fixed rate (or as fast as {@code --concurrency} allows)
+ * while holding {@code --subscribers} {@code /events} WebSockets, and reports
+ * HTTP latency and event delivery lag percentiles with error rates.
+ *
+ * <p>With a fixed rate, latency is measured from the time a request was due,
+ * not from when it was actually sent, so a stalled server is not hidden by
+ * the generator waiting for it (coordinated omission).
+ */
+public final class LoadTest {
+
+    private static final String USAGE = String.join("\n",
+            "Usage: LoadTest [--option=value ...]",
+            "  --base=http://127.0.0.1:8787        API server",
+            "  --events=ws://<base host:port>/events  event server ('none' to skip)",
+            "  --duration=60s                      measured run time (ms, s or m suffix)",
+            "  --warmup=5s                         load before measuring, not reported",
+            "  --rate=100                          requests per second; 0 sends as fast as --concurrency allows",
+            "  --concurrency=32                    requests in flight at most",
+            "  --timeout=10s                       per request",
+            "  --subscribers=4                     /events WebSocket clients",
+            "  --types=*                           event types the subscribers ask for (comma-separated globs)",
+            "  --scenario=<file>                   request mix, lines of '<weight> <METHOD> <path> [JSON body]'",
+            "  --from-spec                         GET every parameterless route of the spec instead",
+            "  --spec=<base>/openapi.yaml          spec used to check the scenario's routes (file or URL, 'none' to skip)",
+            "  --report-interval=5s                progress line interval",
+            "  --clock-offset-ms=0                 server clock minus this host's clock, corrects the event lag",
+            "  --json=<file>                       also write the results as JSON",
+            "  --max-error-rate=1                  exit with 1 above this HTTP error percentage or if a subscriber dropped");
+
+    private static final Set<String> OPTIONS = new TreeSet<>(List.of("base", "events", "duration", "warmup", "rate",
+            "concurrency", "timeout", "subscribers", "types", "scenario", "from-spec", "spec", "report-interval",
+            "clock-offset-ms", "json", "max-error-rate"));
+
+    private final Map<String, String> options;
+    private final URI base;
+    private final HttpClient client;
+    private final ConcurrentMap<String, LatencyRecorder> http = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, LatencyRecorder> events = new ConcurrentSkipListMap<>();
+    private final LongAdder eventsAhead = new LongAdder();
+    private final List<EventSubscriber> subscribers = new ArrayList<>();
+    private long planned;
+    private long sent;
+
+    private LoadTest(Map<String, String> options) {
+        this.options = options;
+        String b = option("base", "http://127.0.0.1:8787");
+        base = URI.create(b.endsWith("/") ? b : b + "/");
+        // AndroidAsync speaks HTTP/1.1 only; skip the h2c upgrade attempt.
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (arg.equals("--help") || arg.equals("-h")) {
+                System.out.println(USAGE);
+                return;
+            }
+            if (!arg.startsWith("--")) {
+                System.err.println("Unexpected argument " + arg + "\n" + USAGE);
+                System.exit(2);
+            }
+            int eq = arg.indexOf('=');
+            String name = eq < 0 ? arg.substring(2) : arg.substring(2, eq);
+            if (!OPTIONS.contains(name)) {
+                System.err.println("Unknown option --" + name + "\n" + USAGE);
+                System.exit(2);
+            }
+            options.put(name, eq < 0 ? "true" : arg.substring(eq + 1));
+        }
+        boolean passed;
+        try {
+            passed = new LoadTest(options).run();
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage() + "\n" + USAGE);
+            System.exit(2);
+            return;
+        }
+        // The HttpClient's selector thread would keep the JVM alive for a while.
+        System.exit(passed ? 0 : 1);
+    }
+
+    /** Returns false if the HTTP error rate was above --max-error-rate or a subscriber was disconnected. */
+    private boolean run() throws Exception {
+        long durationMs = durationOption("duration", "60s");
+        long warmupMs = durationOption("warmup", "5s");
+        long reportMs = durationOption("report-interval", "5s");
+        double rate = Double.parseDouble(option("rate", "100"));
+        double maxErrorRate = Double.parseDouble(option("max-error-rate", "1"));
+        int concurrency = Integer.parseInt(option("concurrency", "32"));
+        int subscriberCount = Integer.parseInt(option("subscribers", "4"));
+        Duration timeout = Duration.ofMillis(durationOption("timeout", "10s"));
+        if (durationMs <= 0 || concurrency <= 0 || rate < 0 || subscriberCount < 0) {
+            throw new IllegalArgumentException("duration and concurrency must be positive, rate and subscribers not negative");
+        }
+
+        Set<String> specRoutes = loadSpec(timeout);
+        Scenario scenario;
+        if (options.containsKey("from-spec")) {
+            if (specRoutes == null) {
+                throw new IllegalArgumentException("--from-spec needs the spec");
+            }
+            scenario = Scenario.fromSpec(specRoutes);
+        } else if (options.containsKey("scenario")) {
+            scenario = Scenario.parse(Files.readString(Paths.get(options.get("scenario")), StandardCharsets.UTF_8));
+        } else {
+            scenario = Scenario.defaultScenario();
+        }
+        if (specRoutes != null) {
+            for (String route : scenario.unknownRoutes(specRoutes)) {
+                System.err.println("Warning: " + route + " is not in the spec");
+            }
+        }
+
+        openSubscribers(subscriberCount);
+        System.out.printf(Locale.ROOT, "%d routes, %s, concurrency %d, %d/%d subscribers, warmup %d ms, duration %d ms%n",
+                scenario.routes.size(), rate > 0 ? rate + " req/s" : "closed loop", concurrency,
+                subscribers.size(), subscriberCount, warmupMs, durationMs);
+
+        Semaphore permits = new Semaphore(concurrency);
+        long start = System.nanoTime();
+        long measureStart = start + TimeUnit.MILLISECONDS.toNanos(warmupMs);
+        long end = measureStart + TimeUnit.MILLISECONDS.toNanos(durationMs);
+        Thread reporter = new Thread(() -> report(measureStart, end, reportMs), "LoadTest-reporter");
+        reporter.setDaemon(true);
+        reporter.start();
+
+        long interval = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+        for (long i = 0; ; i++) {
+            long due;
+            if (interval > 0) {
+                due = start + i * interval;
+                if (due >= end) {
+                    break;
+                }
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                permits.acquireUninterruptibly();
+            } else {
+                permits.acquireUninterruptibly();
+                due = System.nanoTime();
+                if (due >= end) {
+                    permits.release();
+                    break;
+                }
+            }
+            if (due >= measureStart) {
+                planned++;
+            }
+            send(scenario.pick(ThreadLocalRandom.current()), due, measureStart, timeout, permits);
+        }
+        if (!permits.tryAcquire(concurrency, timeout.toMillis() + 1000, TimeUnit.MILLISECONDS)) {
+            System.err.println("Requests still in flight after the timeout");
+        }
+        long elapsedNanos = System.nanoTime() - measureStart;
+        reporter.interrupt();
+        reporter.join();
+        for (EventSubscriber subscriber : subscribers) {
+            subscriber.close();
+        }
+
+        printSummary(System.out, elapsedNanos, rate > 0);
+        if (options.containsKey("json")) {
+            Files.writeString(Paths.get(options.get("json")), toJson(elapsedNanos), StandardCharsets.UTF_8);
+        }
+        long count = 0;
+        long errors = 0;
+        for (LatencyRecorder recorder : http.values()) {
+            count += recorder.total().getTotalCount();
+            errors += recorder.errors();
+        }
+        for (EventSubscriber subscriber : subscribers) {
+            if (subscriber.closed) {
+                return false;
+            }
+        }
+        return percent(errors, count) <= maxErrorRate;
+    }
+
+    private void send(Scenario.Route route, long due, long measureStart, Duration timeout, Semaphore permits) {
+        HttpRequest request = route.request(base, timeout);
+        if (due >= measureStart) {
+            sent++;
+        }
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+            long micros = (System.nanoTime() - due) / 1000;
+            // Requests due during the warmup are not reported, even if they finish after it.
+            if (due >= measureStart) {
+                LatencyRecorder recorder = http.computeIfAbsent(route.key, k -> new LatencyRecorder());
+                if (error == null) {
+                    int status = response.statusCode();
+                    recorder.record(micros, String.valueOf(status), status < 200 || status >= 300);
+                } else {
+                    recorder.record(micros, outcome(error), true);
+                }
+            }
+            // Released last, so that all results are recorded once every permit is back.
+            permits.release();
+        });
+    }
+
+    private static String outcome(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof HttpTimeoutException) {
+            return "timeout";
+        }
+        if (cause instanceof ConnectException) {
+            return "connect_error";
+        }
+        return cause.getClass().getSimpleName();
+    }
+
+    /** "METHOD /path" of every operation in the spec, or null with --spec=none. */
+    private Set<String> loadSpec(Duration timeout) throws IOException, InterruptedException {
+        String spec = option("spec", base.resolve("openapi.yaml").toString());
+        if (spec.equals("none")) {
+            return null;
+        }
+        String yaml;
+        if (spec.startsWith("http://") || spec.startsWith("https://")) {
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(spec)).timeout(timeout).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                throw new IOException("GET " + spec + " returned " + response.statusCode());
+            }
+            yaml = response.body();
+        } else {
+            yaml = Files.readString(Paths.get(spec), StandardCharsets.UTF_8);
+        }
+        return Scenario.specRoutes(yaml);
+    }
+
+    private void openSubscribers(int count) {
+        String url = option("events", "ws://" + base.getRawAuthority() + "/events");
+        if (count == 0 || url.equals("none")) {
+            return;
+        }
+        String types = option("types", "*");
+        URI uri = URI.create(url + (url.contains("?") ? "&" : "?") + "types=" + URLEncoder.encode(types, StandardCharsets.UTF_8));
+        long clockOffsetMs = Long.parseLong(option("clock-offset-ms", "0"));
+        for (int i = 0; i < count; i++) {
+            try {
+                EventSubscriber subscriber = new EventSubscriber(uri, events, clockOffsetMs, eventsAhead);
+                Thread reader = new Thread(subscriber, "LoadTest-events-" + i);
+                reader.setDaemon(true);
+                reader.start();
+                subscribers.add(subscriber);
+            } catch (IOException e) {
+                System.err.println("Could not open " + uri + ": " + e);
+            }
+        }
+    }
+
+    private void report(long measureStart, long end, long intervalMs) {
+        boolean measuring = false;
+        long last = System.nanoTime();
+        while (true) {
+            try {
+                Thread.sleep(measuring ? intervalMs : Math.max(1, (measureStart - System.nanoTime()) / 1_000_000));
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (!measuring) {
+                if (now < measureStart) {
+                    continue;
+                }
+                // Warmup over: events are recorded by the subscribers, drop what came before.
+                for (LatencyRecorder recorder : events.values()) {
+                    recorder.reset();
+                }
+                eventsAhead.reset();
+                measuring = true;
+                last = now;
+                continue;
+            }
+            double seconds = (now - last) / 1e9;
+            last = now;
+            System.out.println(progressLine((now - measureStart) / 1_000_000_000L, seconds));
+            if (now >= end) {
+                return;
+            }
+        }
+    }
+
+    private String progressLine(long atSeconds, double seconds) {
+        Histogram httpInterval = new Histogram(LatencyRecorder.HIGHEST_MICROS, 3);
+        long errors = 0;
+        for (LatencyRecorder recorder : http.values()) {
+            httpInterval.add(recorder.drain());
+            errors += recorder.intervalErrors();
+        }
+        Histogram eventInterval = new Histogram(LatencyRecorder.HIGHEST_MICROS, 3);
+        for (LatencyRecorder recorder : events.values()) {
+            eventInterval.add(recorder.drain());
+        }
+        long count = httpInterval.getTotalCount();
+        return String.format(Locale.ROOT,
+                "[%4ds] http %7.1f/s err %5.2f%% p50 %7.2f p99 %7.2f ms | events %7.1f/s lag p50 %5.0f p99 %5.0f ms",
+                atSeconds, count / seconds, count == 0 ? 0 : 100.0 * errors / count,
+                ms(httpInterval, 50), ms(httpInterval, 99),
+                eventInterval.getTotalCount() / seconds, ms(eventInterval, 50), ms(eventInterval, 99));
+    }
+
+    private void printSummary(PrintStream out, long elapsedNanos, boolean fixedRate) {
+        double seconds = elapsedNanos / 1e9;
+        for (LatencyRecorder recorder : http.values()) {
+            recorder.drain();
+        }
+        for (LatencyRecorder recorder : events.values()) {
+            recorder.drain();
+        }
+        out.println();
+        String header = "%-48s %9s %9s %7s %9s %9s %9s %9s%n";
+        String row = "%-48s %9d %9.1f %6.2f%% %9.2f %9.2f %9.2f %9.2f%n";
+        out.printf(Locale.ROOT, header, "HTTP latency (ms)", "count", "req/s", "errors", "p50", "p99", "p99.9", "max");
+        Histogram all = new Histogram(LatencyRecorder.HIGHEST_MICROS, 3);
+        long allErrors = 0;
+        for (Map.Entry<String, LatencyRecorder> e : http.entrySet()) {
+            Histogram h = e.getValue().total();
+            long errors = e.getValue().errors();
+            all.add(h);
+            allErrors += errors;
+            out.printf(Locale.ROOT, row, e.getKey(), h.getTotalCount(), h.getTotalCount() / seconds,
+                    percent(errors, h.getTotalCount()), ms(h, 50), ms(h, 99), ms(h, 99.9), h.getMaxValue() / 1000.0);
+            if (errors > 0) {
+                out.println("    " + e.getValue().outcomes());
+            }
+        }
+        out.printf(Locale.ROOT, row, "all", all.getTotalCount(), all.getTotalCount() / seconds,
+                percent(allErrors, all.getTotalCount()), ms(all, 50), ms(all, 99), ms(all, 99.9), all.getMaxValue() / 1000.0);
+        if (fixedRate && sent < planned) {
+            out.printf(Locale.ROOT, "Only %d of %d planned requests were sent; the generator or the server fell behind.%n",
+                    sent, planned);
+        }
+
+        out.println();
+        out.printf(Locale.ROOT, header, "Event lag (ms)", "count", "events/s", "", "p50", "p99", "p99.9", "max");
+        for (Map.Entry<String, LatencyRecorder> e : events.entrySet()) {
+            Histogram h = e.getValue().total();
+            out.printf(Locale.ROOT, "%-48s %9d %9.1f %7s %9.0f %9.0f %9.0f %9.0f%n", e.getKey(), h.getTotalCount(),
+                    h.getTotalCount() / seconds, "", ms(h, 50), ms(h, 99), ms(h, 99.9), h.getMaxValue() / 1000.0);
+        }
+        if (eventsAhead.sum() > 0) {
+            out.printf(Locale.ROOT, "%d events were stamped after they arrived; the clocks differ, set --clock-offset-ms.%n",
+                    eventsAhead.sum());
+        }
+        int closed = 0;
+        for (EventSubscriber subscriber : subscribers) {
+            closed += subscriber.closed ? 1 : 0;
+        }
+        if (closed > 0) {
+            out.printf(Locale.ROOT, "%d of %d subscribers were disconnected during the run.%n", closed, subscribers.size());
+        }
+    }
+
+    private String toJson(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        StringBuilder sb = new StringBuilder("{\n  \"options\": {");
+        String sep = "";
+        for (Map.Entry<String, String> e : options.entrySet()) {
+            sb.append(sep).append(quote(e.getKey())).append(": ").append(quote(e.getValue()));
+            sep = ", ";
+        }
+        sb.append("},\n  \"elapsed_s\": ").append(String.format(Locale.ROOT, "%.3f", seconds));
+        sb.append(",\n  \"planned\": ").append(planned).append(", \"sent\": ").append(sent);
+        sb.append(",\n  \"http\": {");
+        sep = "\n    ";
+        for (Map.Entry<String, LatencyRecorder> e : http.entrySet()) {
+            Histogram h = e.getValue().total();
+            sb.append(sep).append(quote(e.getKey())).append(": ");
+            appendStats(sb, h, seconds);
+            sb.append(", \"errors\": ").append(e.getValue().errors()).append(", \"outcomes\": {");
+            String inner = "";
+            for (Map.Entry<String, Long> o : e.getValue().outcomes().entrySet()) {
+                sb.append(inner).append(quote(o.getKey())).append(": ").append(o.getValue());
+                inner = ", ";
+            }
+            sb.append("}}");
+            sep = ",\n    ";
+        }
+        sb.append("\n  },\n  \"events\": {");
+        sep = "\n    ";
+        for (Map.Entry<String, LatencyRecorder> e : events.entrySet()) {
+            sb.append(sep).append(quote(e.getKey())).append(": ");
+            appendStats(sb, e.getValue().total(), seconds);
+            sb.append('}');
+            sep = ",\n    ";
+        }
+        sb.append("\n  },\n  \"events_ahead\": ").append(eventsAhead.sum());
+        int closed = 0;
+        for (EventSubscriber subscriber : subscribers) {
+            closed += subscriber.closed ? 1 : 0;
+        }
+        sb.append(",\n  \"subscribers\": ").append(subscribers.size()).append(", \"subscribers_closed\": ").append(closed);
+        return sb.append("\n}\n").toString();
+    }
+
+    /** Opens an object with the count, rate and percentiles in milliseconds; the caller closes it. */
+    private static void appendStats(StringBuilder sb, Histogram h, double seconds) {
+        sb.append(String.format(Locale.ROOT,
+                "{\"count\": %d, \"rate\": %.2f, \"p50_ms\": %.3f, \"p99_ms\": %.3f, \"p999_ms\": %.3f, \"max_ms\": %.3f",
+                h.getTotalCount(), h.getTotalCount() / seconds, ms(h, 50), ms(h, 99), ms(h, 99.9),
+                h.getMaxValue() / 1000.0));
+    }
+
+    private static String quote(String s) {
+        return '"' + s.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    private static double ms(Histogram h, double percentile) {
+        return h.getTotalCount() == 0 ? 0 : h.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    private static double percent(long part, long total) {
+        return total == 0 ? 0 : 100.0 * part / total;
+    }
+
+    private String option(String name, String fallback) {
+        return options.getOrDefault(name, fallback);
+    }
+
+    /** Milliseconds from a value like {@code 250ms}, {@code 30s}, {@code 2m} or a plain number of seconds. */
+    private long durationOption(String name, String fallback) {
+        String value = option(name, fallback).trim();
+        try {
+            if (value.endsWith("ms")) {
+                return Long.parseLong(value.substring(0, value.length() - 2));
+            }
+            if (value.endsWith("s")) {
+                return (long) (Double.parseDouble(value.substring(0, value.length() - 1)) * 1000);
+            }
+            if (value.endsWith("m")) {
+                return (long) (Double.parseDouble(value.substring(0, value.length() - 1)) * 60_000);
+            }
+            return (long) (Double.parseDouble(value) * 1000);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("--" + name + ": bad duration " + value);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.robot.asus.kira;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Weighted request mix. Each line of a scenario file is
+ * {@code <weight> <METHOD> <path> [JSON body]}; blank lines and lines starting
+ * with {@code #} are ignored.
+ */
+final class Scenario {
+
+    private static final Pattern SPEC_PATH = Pattern.compile("^  (/\\S*):\\s*$");
+    private static final Pattern SPEC_METHOD = Pattern.compile("^    (get|post|put|patch|delete):\\s*$");
+
+    /** One request template; {@link #key} names it in the report. */
+    static final class Route {
+        final int weight;
+        final String method;
+        final String path;
+        final String body;
+        final String key;
+
+        Route(int weight, String method, String path, String body) {
+            this.weight = weight;
+            this.method = method;
+            this.path = path;
+            this.body = body;
+            this.key = method + " " + path;
+        }
+
+        HttpRequest request(URI base, Duration timeout) {
+            HttpRequest.Builder builder = HttpRequest.newBuilder(base.resolve(path)).timeout(timeout);
+            if (body != null) {
+                builder.header("Content-Type", "application/json");
+                return builder.method(method, HttpRequest.BodyPublishers.ofString(body)).build();
+            }
+            return builder.method(method, HttpRequest.BodyPublishers.noBody()).build();
+        }
+    }
+
+    final List<Route> routes;
+    private final int[] cumulative;
+
+    Scenario(List<Route> routes) {
+        if (routes.isEmpty()) {
+            throw new IllegalArgumentException("Scenario has no requests");
+        }
+        this.routes = Collections.unmodifiableList(new ArrayList<>(routes));
+        cumulative = new int[routes.size()];
+        int sum = 0;
+        for (int i = 0; i < routes.size(); i++) {
+            sum += routes.get(i).weight;
+            cumulative[i] = sum;
+        }
+    }
+
+    Route pick(Random random) {
+        int r = random.nextInt(cumulative[cumulative.length - 1]);
+        for (int i = 0; i < cumulative.length; i++) {
+            if (r < cumulative[i]) {
+                return routes.get(i);
+            }
+        }
+        return routes.get(routes.size() - 1);
+    }
+
+    static Scenario parse(String text) {
+        List<Route> routes = new ArrayList<>();
+        int lineNo = 0;
+        for (String line : text.split("\n")) {
+            lineNo++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("\\s+", 4);
+            if (parts.length < 3) {
+                throw new IllegalArgumentException("Line " + lineNo + ": expected <weight> <METHOD> <path> [body]");
+            }
+            int weight;
+            try {
+                weight = Integer.parseInt(parts[0]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Line " + lineNo + ": bad weight " + parts[0]);
+            }
+            if (weight <= 0) {
+                throw new IllegalArgumentException("Line " + lineNo + ": weight must be positive");
+            }
+            if (!parts[2].startsWith("/")) {
+                throw new IllegalArgumentException("Line " + lineNo + ": path must start with /");
+            }
+            routes.add(new Route(weight, parts[1].toUpperCase(), parts[2], parts.length > 3 ? parts[3] : null));
+        }
+        return new Scenario(routes);
+    }
+
+    static Scenario defaultScenario() throws IOException {
+        try (InputStream in = Scenario.class.getResourceAsStream("/default-scenario.txt")) {
+            if (in == null) {
+                throw new IOException("default-scenario.txt is missing from the classpath");
+            }
+            return parse(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    /** Every GET route of the spec without path parameters, with equal weights. */
+    static Scenario fromSpec(Set<String> specRoutes) {
+        List<Route> routes = new ArrayList<>();
+        for (String route : specRoutes) {
+            if (route.startsWith("GET ") && route.indexOf('{') < 0) {
+                routes.add(new Route(1, "GET", route.substring(4), null));
+            }
+        }
+        return new Scenario(routes);
+    }
+
+    /**
+     * "METHOD /path" for each operation under {@code paths:} in openapi.yaml.
+     * Only understands the two-space layout of the bridge's own spec.
+     */
+    static Set<String> specRoutes(String yaml) {
+        Set<String> routes = new LinkedHashSet<>();
+        String path = null;
+        for (String line : yaml.split("\n")) {
+            Matcher m = SPEC_PATH.matcher(line);
+            if (m.matches()) {
+                path = m.group(1);
+                continue;
+            }
+            if (!line.startsWith("  ")) {
+                path = null;
+                continue;
+            }
+            m = SPEC_METHOD.matcher(line);
+            if (path != null && m.matches()) {
+                routes.add(m.group(1).toUpperCase() + " " + path);
+            }
+        }
+        return routes;
+    }
+
+    /** Routes of this scenario that the spec does not describe. */
+    List<String> unknownRoutes(Set<String> specRoutes) {
+        List<Pattern> patterns = new ArrayList<>();
+        for (String route : specRoutes) {
+            patterns.add(Pattern.compile(Pattern.quote(route).replaceAll("\\{[^}]+}", "\\\\E[^/]+\\\\Q")));
+        }
+        List<String> unknown = new ArrayList<>();
+        for (Route route : routes) {
+            int query = route.path.indexOf('?');
+            String key = route.method + " " + (query < 0 ? route.path : route.path.substring(0, query));
+            boolean found = false;
+            for (Pattern p : patterns) {
+                if (p.matcher(key).matches()) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                unknown.add(route.key);
+            }
+        }
+        return unknown;
+    }
+}
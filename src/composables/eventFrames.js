@@ -0,0 +1,133 @@
+// Decoder for the binary /events frames (`/events?format=cbor`).
+// Layout: android/KiraZenbo/src/main/assets/events_binary_format.md
+
+const VERSION = 1;
+const HEADER_SIZE = 28;
+const FLAG_TYPE_NAME = 1;
+const textDecoder = typeof TextDecoder !== 'undefined' ? new TextDecoder() : null;
+
+// Type id -> name table from the server's `encoding` frame.
+let typeNames = {};
+
+export function setTypeTable(types) {
+  typeNames = types || {};
+}
+
+function readUint64(view, offset) {
+  return view.getUint32(offset) * 4294967296 + view.getUint32(offset + 4);
+}
+
+/**
+ * Decode one binary frame into `{ seq, epoch, ts, type, data }`.
+ * Throws on an unsupported version or malformed CBOR.
+ */
+export function decodeBinaryFrame(buffer) {
+  const view = new DataView(buffer);
+  const version = view.getUint8(0);
+  if (version !== VERSION) throw new Error(`unsupported event frame version ${version}`);
+  const flags = view.getUint8(1);
+  const typeId = view.getUint16(2);
+  const seq = readUint64(view, 4);
+  const ts = readUint64(view, 12);
+  const epoch = readUint64(view, 20);
+  let offset = HEADER_SIZE;
+  let type;
+  if (flags & FLAG_TYPE_NAME) {
+    const n = view.getUint8(offset);
+    type = textDecoder.decode(new Uint8Array(buffer, offset + 1, n));
+    offset += 1 + n;
+  } else {
+    type = typeNames[typeId] || `type#${typeId}`;
+  }
+  let data = null;
+  if (offset < buffer.byteLength) {
+    const reader = { view, bytes: new Uint8Array(buffer), pos: offset };
+    data = readItem(reader);
+  }
+  return { seq, epoch, ts, type, data };
+}
+
+const BREAK = Symbol('break');
+
+// Minimal CBOR (RFC 8949) reader for what the server writes: integers,
+// strings, arrays, maps (definite or indefinite), floats, booleans and null.
+function readItem(r) {
+  const initial = r.bytes[r.pos++];
+  if (initial === 0xff) return BREAK;
+  const major = initial >> 5;
+  const info = initial & 0x1f;
+
+  if (major === 7) {
+    switch (info) {
+      case 20: return false;
+      case 21: return true;
+      case 22: return null;
+      case 23: return undefined;
+      case 25: { const v = halfToFloat(r.view.getUint16(r.pos)); r.pos += 2; return v; }
+      case 26: { const v = r.view.getFloat32(r.pos); r.pos += 4; return v; }
+      case 27: { const v = r.view.getFloat64(r.pos); r.pos += 8; return v; }
+      default: throw new Error(`unsupported CBOR simple value ${info}`);
+    }
+  }
+
+  const length = info === 31 ? -1 : readArgument(r, info);
+  switch (major) {
+    case 0: return length;
+    case 1: return -1 - length;
+    case 2:
+    case 3: {
+      if (length < 0) {
+        let s = major === 3 ? '' : [];
+        for (;;) {
+          const chunk = readItem(r);
+          if (chunk === BREAK) return major === 3 ? s : new Uint8Array(s);
+          s = major === 3 ? s + chunk : s.concat(Array.from(chunk));
+        }
+      }
+      const slice = r.bytes.subarray(r.pos, r.pos + length);
+      r.pos += length;
+      return major === 3 ? textDecoder.decode(slice) : slice.slice();
+    }
+    case 4: {
+      const arr = [];
+      for (let i = 0; length < 0 || i < length; i++) {
+        const item = readItem(r);
+        if (item === BREAK) break;
+        arr.push(item);
+      }
+      return arr;
+    }
+    case 5: {
+      const obj = {};
+      for (let i = 0; length < 0 || i < length; i++) {
+        const key = readItem(r);
+        if (key === BREAK) break;
+        obj[key] = readItem(r);
+      }
+      return obj;
+    }
+    case 6: return readItem(r); // tags carry no meaning here
+    default: throw new Error(`unsupported CBOR major type ${major}`);
+  }
+}
+
+function readArgument(r, info) {
+  if (info < 24) return info;
+  let v;
+  switch (info) {
+    case 24: v = r.bytes[r.pos]; r.pos += 1; return v;
+    case 25: v = r.view.getUint16(r.pos); r.pos += 2; return v;
+    case 26: v = r.view.getUint32(r.pos); r.pos += 4; return v;
+    case 27: v = readUint64(r.view, r.pos); r.pos += 8; return v;
+    default: throw new Error(`invalid CBOR argument ${info}`);
+  }
+}
+
+function halfToFloat(h) {
+  const exp = (h >> 10) & 0x1f;
+  const mant = h & 0x3ff;
+  const sign = h & 0x8000 ? -1 : 1;
+  if (exp === 0) return sign * 2 ** -14 * (mant / 1024);
+  if (exp === 31) return mant ? NaN : sign * Infinity;
+  return sign * 2 ** (exp - 15) * (1 + mant / 1024);
+}
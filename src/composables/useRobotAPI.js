@@ -3,9 +3,18 @@ import { ref, onMounted } from 'vue';
 // Singleton expression lock shared across all useRobotAPI consumers
 const expressionLocked = ref(false);
 
+// Same origin as the page when it is served by the robot (no CORS preflight),
+// else the robot on localhost.
+function defaultApiBase() {
+  if (typeof window !== 'undefined' && window.location.port === '8787') {
+    return window.location.origin;
+  }
+  return 'http://localhost:8787';
+}
+
 export function useRobotAPI(options = {}) {
   const {
-    baseUrl = 'http://localhost:8787',
+    baseUrl = defaultApiBase(),
     autoCheckHealth = true,
   } = options;
 
@@ -36,25 +45,28 @@ export function useRobotAPI(options = {}) {
     }
   };
 
-  const postForm = async (path, data) => {
+  // Parameters go in a JSON body; the server also accepts urlencoded forms.
+  const postJson = async (path, data) => {
     if (typeof fetch === 'undefined') return;
 
-    const body = new URLSearchParams();
-    Object.entries(data || {}).forEach(([key, value]) => {
-      body.set(key, String(value));
-    });
-
     const res = await fetch(`${apiBase}${path}`, {
       method: 'POST',
       headers: {
-        'Content-Type': 'application/x-www-form-urlencoded',
+        'Content-Type': 'application/json',
       },
-      body,
+      body: JSON.stringify(data || {}),
     });
 
     if (!res.ok) {
       throw new Error(`Robot API ${path} failed with status ${res.status}`);
     }
+
+    // Action endpoints answer with the command id, or with its final state when `wait: true` is passed.
+    try {
+      return await res.json();
+    } catch {
+      return null;
+    }
   };
 
   const getJson = async (path) => {
@@ -75,39 +87,39 @@ export function useRobotAPI(options = {}) {
 
   const speak = async (text) => {
     if (!text) return;
-    await postForm('/api/dialog/speak', { text });
+    await postJson('/api/dialog/speak', { text });
   };
 
   const startSpeakAnimation = async () => {
     if (expressionLocked.value) return;
-    await postForm('/api/dialog/start_speak_animation', {});
+    await postJson('/api/dialog/start_speak_animation', {});
   };
 
   const stopSpeak = async () => {
-    await postForm('/api/dialog/stop_speak', {});
+    await postJson('/api/dialog/stop_speak', {});
   };
 
   const setVoiceTrigger = async (enable) => {
     if (typeof enable === 'undefined') return;
-    await postForm('/api/dialog/voice_trigger', { enable });
+    await postJson('/api/dialog/voice_trigger', { enable });
   };
 
   const setHeadAction = async (enable) => {
     if (typeof enable === 'undefined') return;
-    await postForm('/api/dialog/head_action', { enable });
+    await postJson('/api/dialog/head_action', { enable });
   };
 
   const setExpression = async (expression) => {
     if (!expression) return;
     if (expressionLocked.value) return;
-    await postForm('/api/face/expression', { expression });
+    await postJson('/api/face/expression', { expression });
   };
 
   const lockExpression = async (expression) => {
     expressionLocked.value = true;
     if (!expression) return;
     console.log('Locking expression to', expression);
-    await postForm('/api/face/expression', { expression });
+    await postJson('/api/face/expression', { expression });
   }
 
   const unlockExpression = async () => {
@@ -117,48 +129,48 @@ export function useRobotAPI(options = {}) {
 
   const expressionAndSpeak = async (expression, text) => {
     if (!expression || !text) return;
-    await postForm('/api/face/expression_and_speak', { expression, text });
+    await postJson('/api/face/expression_and_speak', { expression, text });
   };
 
   const followFace = async (enablePreview, largePreview) => {
     const data = {};
     if (typeof enablePreview !== 'undefined') data.enablePreview = enablePreview;
     if (typeof largePreview !== 'undefined') data.largePreview = largePreview;
-    await postForm('/api/utility/follow_face', data);
+    await postJson('/api/utility/follow_face', data);
   };
 
   const followObject = async () => {
-    await postForm('/api/utility/follow_object', {});
+    await postJson('/api/utility/follow_object', {});
   };
 
   const trackFace = async (enablePreview, largePreview) => {
     const data = {};
     if (typeof enablePreview !== 'undefined') data.enablePreview = enablePreview;
     if (typeof largePreview !== 'undefined') data.largePreview = largePreview;
-    await postForm('/api/utility/track_face', data);
+    await postJson('/api/utility/track_face', data);
   };
 
   const lookAtUser = async (doa) => {
     const value = Number(doa);
     if (!Number.isFinite(value)) return;
-    await postForm('/api/utility/look_at_user', { doa: value });
+    await postJson('/api/utility/look_at_user', { doa: value });
   };
 
   const playAction = async (number) => {
     const value = Number(number);
     if (!Number.isInteger(value)) return;
-    await postForm('/api/utility/play_action', { number: value });
+    await postJson('/api/utility/play_action', { number: value });
   };
 
   const playEmotionalAction = async (face, action) => {
     if (!face) return;
     const value = Number(action);
     if (!Number.isInteger(value)) return;
-    await postForm('/api/utility/play_emotional_action', { face, action: value });
+    await postJson('/api/utility/play_emotional_action', { face, action: value });
   };
 
   const stopFollowing = async () => {
-    await postForm('/api/utility/stop_following', {});
+    await postJson('/api/utility/stop_following', {});
   };
 
   const getBlueLightFilterEnable = async () => {
@@ -178,9 +190,33 @@ export function useRobotAPI(options = {}) {
    */
   const setBlueLightFilterMode = async (mode) => {
     if (!mode) return;
-    await postForm('/api/utility/set_blue_light_filter_mode', { mode });
+    await postJson('/api/utility/set_blue_light_filter_mode', { mode });
   };
 
+  /**
+   * Run several commands in one request.
+   *
+   * `commands` is an ordered list of `{ command: 'face/expression', params: { expression: 'HAPPY' } }`
+   * using the same names and params as the single endpoints. `mode` is 'sequential' (each command
+   * starts once the previous one finished) or 'parallel'; `wait` resolves with the final states.
+   */
+  const runBatch = async (commands, { mode = 'sequential', wait = false, stopOnError = true } = {}) => {
+    if (typeof fetch === 'undefined' || !commands || commands.length === 0) return null;
+
+    const res = await fetch(`${apiBase}/api/batch`, {
+      method: 'POST',
+      headers: {
+        'Content-Type': 'application/json',
+      },
+      body: JSON.stringify({ mode, wait, stop_on_error: stopOnError, commands }),
+    });
+
+    if (!res.ok) {
+      throw new Error(`Robot API /api/batch failed with status ${res.status}`);
+    }
+
+    return res.json();
+  };
 
   if (autoCheckHealth) {
     onMounted(checkHealth);
@@ -219,5 +255,8 @@ export function useRobotAPI(options = {}) {
     getBlueLightFilterEnable,
     getBlueLightFilterMode,
     setBlueLightFilterMode,
+
+    // batch API
+    runBatch,
   };
 }
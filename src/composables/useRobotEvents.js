@@ -1,28 +1,93 @@
 import { ref, onMounted, onUnmounted } from 'vue';
+import { decodeBinaryFrame, setTypeTable } from './eventFrames';
 
-// WebSocket base URL: ws(s)://<host>:8790
+// WebSocket base URL. /events is served next to the HTTP API, so a page served
+// by the robot uses its own origin; anything else (e.g. the Vite dev server)
+// goes to port 8787 of the same host. Pass `baseUrl` for a standalone event
+// server (`event_server_port` in config.xml).
 function computeDefaultWsBase() {
   if (typeof window === 'undefined') return '';
-  const { protocol, hostname } = window.location;
+  const { protocol, hostname, host, port } = window.location;
   const wsProto = protocol === 'https:' ? 'wss:' : 'ws:';
-  // The event server listens on 8790 regardless of the HTTP port.
-  return `${wsProto}//${hostname}:8790`;
+  if (port === '8787') return `${wsProto}//${host}`;
+  return `${wsProto}//${hostname}:8787`;
 }
 
 const defaultBaseUrl = computeDefaultWsBase();
 
 let socket = null;
 let socketBase = null;
+let socketFormat = 'json';
 const isConnected = ref(false);
 const isConnecting = ref(false);
 const lastEvent = ref(null);
 const lastEventType = ref('');
 const error = ref(null);
 
+// Sequence number of the last event seen and the server epoch it belongs to,
+// kept across page reloads so a reconnect can ask the server to replay what
+// was missed (`?since=&epoch=`). Numbering starts again with every epoch.
+const LAST_SEQ_KEY = 'kira.events.lastSeq';
+const EPOCH_KEY = 'kira.events.epoch';
+let lastSeq = readStored(LAST_SEQ_KEY);
+let lastEpoch = readStored(EPOCH_KEY);
+let manualDisconnect = false;
+let reconnectTimer = null;
+let reconnectDelay = 500;
+const MAX_RECONNECT_DELAY = 10000;
+
+function readStored(key) {
+  try {
+    const value = Number(window.sessionStorage.getItem(key));
+    return Number.isFinite(value) && value > 0 ? value : 0;
+  } catch {
+    return 0;
+  }
+}
+
+function storeLastSeq(seq) {
+  lastSeq = seq;
+  try {
+    window.sessionStorage.setItem(LAST_SEQ_KEY, String(seq));
+  } catch {
+    // ignore
+  }
+}
+
+// A new epoch means the server restarted: seqs from the old one say nothing.
+function noteEpoch(epoch) {
+  if (typeof epoch !== 'number' || epoch === lastEpoch) return;
+  lastEpoch = epoch;
+  try {
+    window.sessionStorage.setItem(EPOCH_KEY, String(epoch));
+  } catch {
+    // ignore
+  }
+  storeLastSeq(0);
+}
+
 const anyEventHandlers = new Set();
 const typeHandlers = new Map(); // type -> Set<handler>
 let subscriberCount = 0;
 
+// Ask the server to only send the event types we have handlers for.
+// Any onEvent() handler needs the full stream, so it subscribes to '*'; so do
+// the lastEvent/lastEventType refs while no onEventType() handler narrows it.
+function subscribedTypes() {
+  if (anyEventHandlers.size > 0 || typeHandlers.size === 0) return ['*'];
+  return [...typeHandlers.keys()];
+}
+
+function syncSubscriptions() {
+  if (!socket || socket.readyState !== WebSocket.OPEN) return;
+  const types = subscribedTypes();
+  try {
+    socket.send(JSON.stringify({ op: 'set', types }));
+  } catch (e) {
+    console.warn('[WS] failed to update event subscriptions:', e);
+  }
+}
+
 function dispatchPayload(payload) {
   lastEventType.value = payload.type || 'message';
   lastEvent.value = payload.data ?? null;
@@ -51,31 +116,61 @@ function dispatchPayload(payload) {
 }
 
 function handleWsMessage(evt) {
-  console.log('[WS] message received:', evt.data);
   let parsed = null;
-  try {
-    parsed = evt.data ? JSON.parse(evt.data) : null;
-  } catch (e) {
-    console.warn('[WS] failed to parse robot event data:', evt.data, e);
-    parsed = { type: 'message', data: evt.data };
+  if (evt.data instanceof ArrayBuffer) {
+    // Binary event (`format: 'cbor'`); control frames still arrive as text.
+    try {
+      parsed = decodeBinaryFrame(evt.data);
+    } catch (e) {
+      console.warn('[WS] failed to decode binary robot event:', e);
+      return;
+    }
+  } else {
+    console.log('[WS] message received:', evt.data);
+    try {
+      parsed = evt.data ? JSON.parse(evt.data) : null;
+    } catch (e) {
+      console.warn('[WS] failed to parse robot event data:', evt.data, e);
+      parsed = { type: 'message', data: evt.data };
+    }
   }
 
   const payload = {
     type: parsed?.type || 'message',
     data: parsed?.data ?? parsed,
+    seq: parsed?.seq,
+    epoch: parsed?.epoch,
+    ts: parsed?.ts,
     rawEvent: evt,
   };
 
+  if (payload.type === 'encoding') {
+    setTypeTable(payload.data?.types);
+    return;
+  }
+  if (payload.type === 'replay') {
+    // Sent first on a `?since=` connect; the server replays from the start of
+    // its epoch if ours was another one.
+    noteEpoch(payload.data?.epoch);
+    if (payload.data && !payload.data.complete) {
+      console.warn('[WS] some events were missed while disconnected:', payload.data);
+    }
+  } else if (typeof payload.seq === 'number') {
+    noteEpoch(payload.epoch);
+    if (payload.seq <= lastSeq) return; // already seen
+    storeLastSeq(payload.seq);
+  }
+
   dispatchPayload(payload);
 }
 
-function ensureWebSocket(baseUrl) {
+function ensureWebSocket(baseUrl, format = socketFormat) {
   if (typeof window === 'undefined' || typeof WebSocket === 'undefined') {
     console.warn('[WS] WebSocket is not available in this environment.');
     return;
   }
 
-  if (socket && socketBase === baseUrl) {
+  if (socket && socketBase === baseUrl && socketFormat === format) {
     console.log('[WS] reusing existing WebSocket for', baseUrl);
     return;
   }
@@ -95,35 +190,53 @@ function ensureWebSocket(baseUrl) {
     console.warn('[WS] no base URL available for WebSocket connection');
     return;
   }
-  const url = `${origin}/events`;
+  const query = [];
+  const types = subscribedTypes();
+  if (types.length > 0) query.push(`types=${encodeURIComponent(types.join(','))}`);
+  if (lastSeq > 0) {
+    query.push(`since=${lastSeq}`);
+    if (lastEpoch > 0) query.push(`epoch=${lastEpoch}`);
+  }
+  if (format === 'cbor') query.push('format=cbor');
+  const url = query.length > 0 ? `${origin}/events?${query.join('&')}` : `${origin}/events`;
 
   try {
     console.log('[WS] connecting to', url);
     isConnecting.value = true;
     error.value = null;
     socketBase = baseUrl;
-    socket = new WebSocket(url);
+    socketFormat = format;
+    manualDisconnect = false;
+    const ws = new WebSocket(url);
+    ws.binaryType = 'arraybuffer';
+    socket = ws;
 
-    socket.onopen = () => {
+    ws.onopen = () => {
       console.log('[WS] connection opened');
       isConnecting.value = false;
       isConnected.value = true;
+      reconnectDelay = 500;
+      syncSubscriptions();
     };
 
-    socket.onerror = (err) => {
+    ws.onerror = (err) => {
       console.error('[WS] WebSocket error:', err);
       error.value = err;
       isConnected.value = false;
       isConnecting.value = false;
     };
 
-    socket.onclose = () => {
+    ws.onclose = () => {
       console.log('[WS] connection closed');
       isConnected.value = false;
       isConnecting.value = false;
+      if (socket === ws) {
+        socket = null;
+        scheduleReconnect(baseUrl);
+      }
     };
 
-    socket.onmessage = handleWsMessage;
+    ws.onmessage = handleWsMessage;
   } catch (e) {
     console.error('[WS] failed to create WebSocket for robot events:', e);
     error.value = e;
@@ -132,7 +245,25 @@ function ensureWebSocket(baseUrl) {
   }
 }
 
+// Reconnect with backoff while components still use the stream; the
+// `since` query lets the server fill the gap.
+function scheduleReconnect(baseUrl) {
+  if (manualDisconnect || subscriberCount === 0 || reconnectTimer) return;
+  console.log(`[WS] reconnecting in ${reconnectDelay} ms`);
+  reconnectTimer = setTimeout(() => {
+    reconnectTimer = null;
+    if (manualDisconnect || subscriberCount === 0) return;
+    ensureWebSocket(baseUrl);
+  }, reconnectDelay);
+  reconnectDelay = Math.min(reconnectDelay * 2, MAX_RECONNECT_DELAY);
+}
+
 function disconnectWebSocket() {
+  manualDisconnect = true;
+  if (reconnectTimer) {
+    clearTimeout(reconnectTimer);
+    reconnectTimer = null;
+  }
   if (socket) {
     console.log('[WS] disconnecting WebSocket');
     try {
@@ -147,11 +278,12 @@ function disconnectWebSocket() {
 }
 
 export function useRobotEvents(options = {}) {
-  const { baseUrl = defaultBaseUrl, autoConnect = true } = options;
+  // format: 'json' (default) or 'cbor' for compact binary event frames.
+  const { baseUrl = defaultBaseUrl, autoConnect = true, format } = options;
 
   const connect = () => {
     console.log('[WS] connect() requested');
-    ensureWebSocket(baseUrl);
+    ensureWebSocket(baseUrl, format);
   };
 
   const disconnect = () => {
@@ -167,8 +299,10 @@ export function useRobotEvents(options = {}) {
     if (typeof handler !== 'function') return () => {};
     anyEventHandlers.add(handler);
     console.log('[WS] onEvent handler added; total:', anyEventHandlers.size);
+    syncSubscriptions();
     return () => {
       anyEventHandlers.delete(handler);
+      syncSubscriptions();
       console.log(
         '[WS] onEvent handler removed; total:',
         anyEventHandlers.size,
@@ -184,6 +318,7 @@ export function useRobotEvents(options = {}) {
       typeHandlers.set(type, set);
     }
     set.add(handler);
+    syncSubscriptions();
     console.log(
       `[WS] onEventType("${type}") handler added; total:`,
       set.size,
@@ -194,6 +329,7 @@ export function useRobotEvents(options = {}) {
       current.delete(handler);
       if (current.size === 0) {
         typeHandlers.delete(type);
+        syncSubscriptions();
       }
       console.log(
         `[WS] onEventType("${type}") handler removed; remaining:`,